@@ -42,4 +42,14 @@ public interface AsyncProgressInterface {
      * @param resultStr a string result to display, or "" if no result
      */
     void asyncProgressOnPostExecute(int taskId, String resultStr);
+
+    /**
+     * Method to perform on the UI thread when a long-running task reports progress.
+     * Updates are throttled, so this is called at most every few hundred milliseconds.
+     *
+     * @param taskId   the id of the task reporting progress
+     * @param progress the current progress of the task
+     */
+    default void asyncProgressOnProgressUpdate(int taskId, ProgressReporter.Progress progress) {
+    }
 }
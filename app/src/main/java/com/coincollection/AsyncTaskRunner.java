@@ -19,39 +19,70 @@
  */
 package com.coincollection;
 
+import static com.coincollection.BaseActivity.TASK_CREATE_UPDATE_COLLECTION;
+import static com.coincollection.BaseActivity.TASK_EXPORT_COLLECTIONS;
 import static com.coincollection.BaseActivity.TASK_NONE;
+import static com.coincollection.BaseActivity.TASK_OPEN_DATABASE;
 
 import android.os.Handler;
 import android.os.Looper;
 
 import java.lang.ref.WeakReference;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
 
 public class AsyncTaskRunner {
     private WeakReference<AsyncProgressInterface> mListenerRef;
-    private final static int NUM_DELAY_HALF_SECONDS = 10;
-    private final static ExecutorService mExecutorService = Executors.newCachedThreadPool();
+    private final static long LISTENER_WAIT_TIMEOUT_MS = 5000;
+    private final static TaskScheduler sScheduler = new TaskScheduler(TaskScheduler.DEFAULT_NUM_THREADS);
     private final Handler mMainHandler = new Handler(Looper.getMainLooper());
-    private final static Semaphore sDoInBackgroundSemaphore = new Semaphore(1, true);
+    private volatile ProgressReporter mProgressReporter = null;
+    private volatile TaskScheduler.CancellationToken mCancellationToken = null;
 
     private static int mLatestTaskId = TASK_NONE;
 
+    // Events that occurred while no listener was attached (Ex: while the activity was being
+    // recreated after a configuration change.) These are delivered when a listener attaches.
+    // - Only accessed on the main thread
+    private final ArrayList<PendingEvent> mPendingEvents = new ArrayList<>();
+
+    /**
+     * Task event waiting for a listener to attach
+     */
+    private static class PendingEvent {
+        final int mTaskId;
+        final boolean mIsPreExecute;
+        final String mResultString;
+
+        PendingEvent(int taskId, boolean isPreExecute, String resultString) {
+            mTaskId = taskId;
+            mIsPreExecute = isPreExecute;
+            mResultString = resultString;
+        }
+    }
+
     AsyncTaskRunner(AsyncProgressInterface listener) {
         setListener(listener);
     }
 
     /**
-     * Set the listener for this task.
+     * Set the listener for this task. Any events that occurred while no listener was attached
+     * are delivered to the new listener on the main thread, and a background task waiting for
+     * a listener is woken up.
      * 
      * @param listener an instance of AsyncProgressInterface to handle task events
      */
     protected void setListener(AsyncProgressInterface listener) {
+        synchronized (this) {
+            if (listener != null) {
+                mListenerRef = new WeakReference<>(listener);
+            } else {
+                mListenerRef = null;
+            }
+            notifyAll();
+        }
         if (listener != null) {
-            mListenerRef = new WeakReference<>(listener);
-        } else {
-            mListenerRef = null;
+            mMainHandler.post(this::deliverPendingEvents);
         }
     }
 
@@ -60,8 +91,39 @@ public class AsyncTaskRunner {
      * This should be called when the task is no longer needed or when the activity is destroyed.
      */
     protected void clearListener() {
-        if (mListenerRef != null) {
-            mListenerRef.clear();
+        synchronized (this) {
+            if (mListenerRef != null) {
+                mListenerRef.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the current listener
+     *
+     * @return the listener, or null if no listener is attached
+     */
+    private synchronized AsyncProgressInterface getListener() {
+        return (mListenerRef != null) ? mListenerRef.get() : null;
+    }
+
+    /**
+     * Delivers any events that occurred while no listener was attached.
+     * - Must be called on the main thread
+     */
+    private void deliverPendingEvents() {
+        AsyncProgressInterface listener = getListener();
+        if (listener == null) {
+            return;
+        }
+        // Events are delivered in the order they occurred
+        while (!mPendingEvents.isEmpty()) {
+            PendingEvent pendingEvent = mPendingEvents.remove(0);
+            if (pendingEvent.mIsPreExecute) {
+                listener.asyncProgressOnPreExecute(pendingEvent.mTaskId);
+            } else {
+                listener.asyncProgressOnPostExecute(pendingEvent.mTaskId, pendingEvent.mResultString);
+            }
         }
     }
 
@@ -84,85 +146,195 @@ public class AsyncTaskRunner {
             mLatestTaskId = taskId;
             // Execute pre-execute on main thread
             onPreExecute(taskId);
-            mExecutorService.execute(() -> {
-                // Execute background task in a separate thread
-                String resultString = doInBackground(taskId);
-                // Execute post-execute on main thread
-                mMainHandler.post(() -> {
-                    onPostExecute(taskId, resultString);
-                    // Clear the latest task ID if it is still the latest
-                    // Note: Both set and clear are done on the main thread
-                    if (mLatestTaskId == taskId) {
-                        mLatestTaskId = TASK_NONE;
-                    }
-                });
-            });
+            // Progress is reported from the background thread and delivered on the main thread
+            ProgressReporter progressReporter = new ProgressReporter(
+                    progress -> mMainHandler.post(() -> onProgressUpdate(taskId, progress)));
+            mProgressReporter = progressReporter;
+            // Execute background task in a separate thread
+            mCancellationToken = sScheduler.schedule(getTaskPriority(taskId), isReadOnlyTask(taskId),
+                    new TaskScheduler.Task() {
+                        @Override
+                        public void run(TaskScheduler.CancellationToken token) {
+                            // The progress reporter stops the task once it's cancelled
+                            progressReporter.setCancellationToken(token);
+                            String resultString;
+                            try {
+                                resultString = doInBackground(taskId);
+                            } catch (CancellationException e) {
+                                resultString = "";
+                            }
+                            postResult(taskId, resultString);
+                        }
+
+                        @Override
+                        public void onCancelled() {
+                            postResult(taskId, "");
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Cancels the most recently executed task. If the task hasn't started yet it won't be
+     * run, otherwise it stops the next time it reports progress. onPostExecute is still
+     * called in either case.
+     */
+    protected void cancel() {
+        TaskScheduler.CancellationToken token = mCancellationToken;
+        if (token != null) {
+            token.cancel();
+        }
+    }
+
+    /**
+     * Check whether the most recently executed task has been cancelled
+     *
+     * @return true if the task was cancelled
+     */
+    protected boolean isCancelled() {
+        TaskScheduler.CancellationToken token = mCancellationToken;
+        return token != null && token.isCancelled();
+    }
+
+    /**
+     * Get the progress reporter for the most recently executed task. Long-running tasks
+     * should update this from the background thread.
+     *
+     * @return the progress reporter, or null if no task has been executed
+     */
+    public ProgressReporter getProgressReporter() {
+        return mProgressReporter;
+    }
+
+    /**
+     * Get the scheduler priority for a task. Tasks the user is waiting on in order to
+     * continue are interactive, and import/export are bulk.
+     *
+     * @param taskId an integer representing the task ID
+     * @return the task priority
+     */
+    static int getTaskPriority(int taskId) {
+        switch (taskId) {
+            case TASK_OPEN_DATABASE:
+            case TASK_CREATE_UPDATE_COLLECTION:
+                return TaskScheduler.PRIORITY_INTERACTIVE;
+            default:
+                return TaskScheduler.PRIORITY_BULK;
+        }
+    }
+
+    /**
+     * Check whether a task only reads from the database, so it can run alongside other
+     * read-only tasks. Every other task writes, and waits for a running export to finish,
+     * since the export reads one collection at a time and a rename or delete part way
+     * through would leave the backup inconsistent.
+     *
+     * @param taskId an integer representing the task ID
+     * @return true if the task is read-only
+     */
+    static boolean isReadOnlyTask(int taskId) {
+        return taskId == TASK_EXPORT_COLLECTIONS;
+    }
+
+    /**
+     * Posts the task result to the main thread
+     *
+     * @param taskId       an integer representing the task ID
+     * @param resultString a string result to display, or "" if no result
+     */
+    private void postResult(int taskId, String resultString) {
+        // Execute post-execute on main thread
+        mMainHandler.post(() -> {
+            onPostExecute(taskId, resultString);
+            // Clear the latest task ID if it is still the latest
+            // Note: Both set and clear are done on the main thread
+            if (mLatestTaskId == taskId) {
+                mLatestTaskId = TASK_NONE;
+            }
         });
     }
 
     /**
      * Perform the background task.
-     * This method uses a semaphore to ensure that background tasks are atomic
-     * 
+     * The scheduler ensures that tasks that write to the database don't overlap other tasks
+     *
      * @param taskId an integer representing the task ID
      * @return a string result to display, or "" if no result
      */
     protected String doInBackground(int taskId) {
-        try {
-            sDoInBackgroundSemaphore.acquire();
-            for (int i = 0; i < NUM_DELAY_HALF_SECONDS; i++) {
-                if (mListenerRef != null && mListenerRef.get() != null) {
-                    return mListenerRef.get().asyncProgressDoInBackground(taskId);
+        // If the activity is being recreated, wait for the new one to attach. setListener
+        // wakes this thread up as soon as that happens.
+        AsyncProgressInterface listener;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + LISTENER_WAIT_TIMEOUT_MS;
+            listener = getListener();
+            while (listener == null) {
+                long remainingMs = deadline - System.currentTimeMillis();
+                if (remainingMs <= 0) {
+                    return "";
                 }
                 try {
-                    Thread.sleep(500);
+                    wait(remainingMs);
                 } catch (InterruptedException e) {
-                    break; // Return empty string (no error) if interrupted
+                    Thread.currentThread().interrupt();
+                    return ""; // Return empty string (no error) if interrupted
                 }
+                listener = getListener();
             }
-            return "";
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return "";
-        } finally {
-            sDoInBackgroundSemaphore.release();
         }
+        return listener.asyncProgressDoInBackground(taskId);
     }
 
     /**
      * Method to perform on the UI thread before the async task starts.
+     * If no listener is attached, the event is delivered when one attaches.
      * @param taskId an integer representing the task ID
      */
     protected void onPreExecute(int taskId) {
-        for (int i = 0; i < NUM_DELAY_HALF_SECONDS; i++) {
-            if (mListenerRef != null && mListenerRef.get() != null) {
-                mListenerRef.get().asyncProgressOnPreExecute(taskId);
-                break;
-            }
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                break;
-            }
+        AsyncProgressInterface listener = getListener();
+        if (listener != null) {
+            listener.asyncProgressOnPreExecute(taskId);
+        } else {
+            mPendingEvents.add(new PendingEvent(taskId, true, null));
+        }
+    }
+
+    /**
+     * Method to perform on the UI thread when the async task reports progress.
+     * Progress updates are dropped if no listener is attached, since a newer one will follow.
+     * @param taskId an integer representing the task ID
+     * @param progress the current progress
+     */
+    protected void onProgressUpdate(int taskId, ProgressReporter.Progress progress) {
+        AsyncProgressInterface listener = getListener();
+        if (listener != null && mLatestTaskId == taskId) {
+            listener.asyncProgressOnProgressUpdate(taskId, progress);
         }
     }
 
     /**
      * Method to perform on the UI thread after the async task completes.
+     * If no listener is attached, the result is kept and delivered when one attaches.
      * @param taskId an integer representing the task ID
      * @param resultString a string result to display, or "" if no result
      */
     protected void onPostExecute(int taskId, String resultString) {
-        for (int i = 0; i < NUM_DELAY_HALF_SECONDS; i++) {
-            if (mListenerRef != null && mListenerRef.get() != null) {
-                mListenerRef.get().asyncProgressOnPostExecute(taskId, resultString);
-                break;
-            }
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                break;
+        AsyncProgressInterface listener = getListener();
+        if (listener != null) {
+            // Deliver anything still pending first, so events arrive in order
+            deliverPendingEvents();
+            listener.asyncProgressOnPostExecute(taskId, resultString);
+        } else {
+            // If the pre-execute event for this task is still pending, the progress dialog
+            // was never shown, so there's nothing to dismiss
+            for (int i = 0; i < mPendingEvents.size(); i++) {
+                PendingEvent pendingEvent = mPendingEvents.get(i);
+                if (pendingEvent.mIsPreExecute && pendingEvent.mTaskId == taskId) {
+                    mPendingEvents.remove(i);
+                    break;
+                }
             }
+            mPendingEvents.add(new PendingEvent(taskId, false, resultString));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,522 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import com.spencerpages.MainApplication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compact binary backup format, used for fast full-database snapshots.
+ * <p>
+ * File layout:
+ * - Magic bytes "CCSN", then the snapshot format version, database version, snapshot type
+ * and change sequence number (all varints)
+ * - For differential snapshots, the change sequence number of the base snapshot and the names
+ * of all collections in display order, so collections deleted since the base can be removed
+ * - The number of collections (varint)
+ * - One block per collection: the block length (varint) followed by the block bytes, so
+ * that a restore can skip collections or decode them separately
+ * <p>
+ * Block layout:
+ * - Collection properties: name, coin type, collected, total, display type, start year,
+ * end year, mint mark flags, checkbox flags
+ * - Coins until the end of the block: identifier and mint (dictionary references), flags
+ * (in collection and custom coin), grade, quantity, notes, sort order and image id
+ * <p>
+ * Numbers are stored as varints, with zigzag encoding for values that may be negative.
+ * Strings are stored as a length (varint) followed by UTF-8 bytes. Null strings are stored
+ * as empty strings, so they are restored as "" rather than null.
+ * Identifiers and mints repeat a lot, so they're stored once per block in a dictionary
+ * that's built as the coins are written. A reference equal to the dictionary size means
+ * that a new string follows and is added to the dictionary.
+ * <p>
+ * A full snapshot contains every collection. A differential snapshot only contains the
+ * collections that changed after its base snapshot (or the previous differential snapshot in
+ * the chain) was made, so it can be restored by applying it on top of that snapshot.
+ * Version 1 snapshots don't have the type or sequence numbers, and are always full.
+ */
+public class BackupSnapshot {
+
+    public final static String SNAPSHOT_FILE_EXT = ".ccsnap";
+    public final static int FORMAT_VERSION = 2;
+    final static byte[] MAGIC = {'C', 'C', 'S', 'N'};
+
+    // Snapshot types
+    public final static int TYPE_FULL = 0;
+    public final static int TYPE_DIFFERENTIAL = 1;
+
+    private final static int FLAG_IN_COLLECTION = 1;
+    private final static int FLAG_CUSTOM_COIN = 2;
+
+    // Limits on lengths read from a snapshot, so a damaged file is rejected instead of
+    // causing a huge allocation
+    private final static int MAX_BLOCK_LENGTH = 64 * 1024 * 1024;
+    private final static int MAX_STRING_LENGTH = 1024 * 1024;
+
+    /**
+     * Writes the file header for a full snapshot
+     *
+     * @param outputStream   stream to write to
+     * @param dbVersion      database version of the exported collections
+     * @param changeSeq      change sequence number of the database when exported
+     * @param numCollections number of collection blocks that follow
+     * @throws IOException if an error occurs
+     */
+    static void writeHeader(OutputStream outputStream, int dbVersion, int changeSeq, int numCollections) throws IOException {
+        BlockWriter header = startHeader(dbVersion, TYPE_FULL, changeSeq);
+        header.writeVarint(numCollections);
+        outputStream.write(MAGIC);
+        header.writeTo(outputStream);
+    }
+
+    /**
+     * Writes the file header for a differential snapshot
+     *
+     * @param outputStream    stream to write to
+     * @param dbVersion       database version of the exported collections
+     * @param changeSeq       change sequence number of the database when exported
+     * @param baseChangeSeq   change sequence number of the snapshot this is based on
+     * @param collectionNames names of all collections, in display order
+     * @param numCollections  number of (changed) collection blocks that follow
+     * @throws IOException if an error occurs
+     */
+    static void writeDifferentialHeader(OutputStream outputStream, int dbVersion, int changeSeq, int baseChangeSeq,
+                                        ArrayList<String> collectionNames, int numCollections) throws IOException {
+        BlockWriter header = startHeader(dbVersion, TYPE_DIFFERENTIAL, changeSeq);
+        header.writeVarint(baseChangeSeq);
+        header.writeVarint(collectionNames.size());
+        for (String collectionName : collectionNames) {
+            header.writeString(collectionName);
+        }
+        header.writeVarint(numCollections);
+        outputStream.write(MAGIC);
+        header.writeTo(outputStream);
+    }
+
+    /**
+     * Starts the file header with the fields common to all snapshot types
+     *
+     * @param dbVersion database version of the exported collections
+     * @param type      snapshot type
+     * @param changeSeq change sequence number of the database when exported
+     * @return header to finish writing
+     */
+    private static BlockWriter startHeader(int dbVersion, int type, int changeSeq) {
+        BlockWriter header = new BlockWriter();
+        header.writeVarint(FORMAT_VERSION);
+        header.writeVarint(dbVersion);
+        header.writeVarint(type);
+        header.writeVarint(changeSeq);
+        return header;
+    }
+
+    /**
+     * Writes a collection block, prefixed with its length
+     *
+     * @param outputStream stream to write to
+     * @param block        encoded collection block
+     * @throws IOException if an error occurs
+     */
+    static void writeBlock(OutputStream outputStream, BlockWriter block) throws IOException {
+        BlockWriter prefix = new BlockWriter();
+        prefix.writeVarint(block.size());
+        prefix.writeTo(outputStream);
+        block.writeTo(outputStream);
+    }
+
+    /**
+     * Reads a snapshot file, after checking the magic bytes and format version
+     */
+    static class SnapshotReader {
+        private final DataInputStream mInputStream;
+        final int mDbVersion;
+        final int mType;
+        final int mChangeSeq;
+        final int mBaseChangeSeq;
+        final ArrayList<String> mCollectionNames = new ArrayList<>();
+        final int mNumCollections;
+
+        /**
+         * Constructor - reads the file header
+         *
+         * @param inputStream stream to read from
+         * @throws IOException if the file isn't a supported snapshot, or an error occurs
+         */
+        SnapshotReader(InputStream inputStream) throws IOException {
+            mInputStream = new DataInputStream(inputStream);
+            byte[] magic = new byte[MAGIC.length];
+            mInputStream.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("Not a snapshot file");
+                }
+            }
+            int formatVersion = readVarint(mInputStream);
+            if (formatVersion > FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + formatVersion);
+            }
+            mDbVersion = readVarint(mInputStream);
+            if (formatVersion >= 2) {
+                mType = readVarint(mInputStream);
+                mChangeSeq = readVarint(mInputStream);
+            } else {
+                mType = TYPE_FULL;
+                mChangeSeq = 0;
+            }
+            if (mType == TYPE_DIFFERENTIAL) {
+                mBaseChangeSeq = readVarint(mInputStream);
+                int numNames = readVarint(mInputStream);
+                for (int i = 0; i < numNames; i++) {
+                    mCollectionNames.add(cleanCollectionName(readString(mInputStream)));
+                }
+            } else if (mType == TYPE_FULL) {
+                mBaseChangeSeq = 0;
+            } else {
+                throw new IOException("Unsupported snapshot type " + mType);
+            }
+            mNumCollections = readVarint(mInputStream);
+        }
+
+        /**
+         * Reads the next collection block
+         *
+         * @return encoded collection block
+         * @throws IOException if an error occurs
+         */
+        byte[] readBlock() throws IOException {
+            int length = readVarint(mInputStream);
+            if (length < 0 || length > MAX_BLOCK_LENGTH) {
+                throw new IOException("Invalid collection block length " + length);
+            }
+            byte[] block = new byte[length];
+            mInputStream.readFully(block);
+            return block;
+        }
+    }
+
+    /**
+     * Encodes a collection and its coins into a block
+     *
+     * @param collectionListInfo collection to encode
+     * @param dbAdapter          database adapter, used to look up the display type
+     * @param coinList           coins in the collection
+     * @return encoded collection block
+     */
+    public static byte[] encodeCollection(CollectionListInfo collectionListInfo, DatabaseAdapter dbAdapter,
+                                          ArrayList<CoinSlot> coinList) {
+        BlockWriter writer = new BlockWriter();
+        writeCollectionProperties(writer, collectionListInfo, dbAdapter);
+        for (CoinSlot coinSlot : coinList) {
+            writer.writeCoin(coinSlot.getIdentifier(), coinSlot.getMint(), coinSlot.isInCollection(),
+                    coinSlot.getAdvancedGrades(), coinSlot.getAdvancedQuantities(), coinSlot.getAdvancedNotes(),
+                    coinSlot.getSortOrder(), coinSlot.isCustomCoin(), coinSlot.getImageId());
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encodes a collection into a block, streaming the coins from the database
+     *
+     * @param collectionListInfo collection to encode
+     * @param dbAdapter          database adapter, used to look up the display type
+     * @param coinRows           coins in the collection
+     * @return encoded collection block
+     */
+    static BlockWriter encodeCollection(CollectionListInfo collectionListInfo, DatabaseAdapter dbAdapter,
+                                        CoinRowWriter coinRows) {
+        BlockWriter writer = new BlockWriter();
+        writeCollectionProperties(writer, collectionListInfo, dbAdapter);
+        coinRows.writeAllToSnapshot(writer);
+        return writer;
+    }
+
+    /**
+     * Writes the collection properties at the start of a block
+     *
+     * @param writer             block to write to
+     * @param collectionListInfo collection to write
+     * @param dbAdapter          database adapter, used to look up the display type
+     */
+    private static void writeCollectionProperties(BlockWriter writer, CollectionListInfo collectionListInfo,
+                                                  DatabaseAdapter dbAdapter) {
+        // As with the JSON export, the display type is read from the database
+        int displayType = dbAdapter.fetchTableDisplay(collectionListInfo.getName());
+        writer.writeString(collectionListInfo.getName());
+        writer.writeString(collectionListInfo.getType());
+        writer.writeVarint(collectionListInfo.getCollected());
+        writer.writeVarint(collectionListInfo.getMax());
+        writer.writeVarint(displayType);
+        writer.writeSignedVarint(collectionListInfo.getStartYear());
+        writer.writeSignedVarint(collectionListInfo.getEndYear());
+        writer.writeString(collectionListInfo.getMintMarkFlags());
+        writer.writeString(collectionListInfo.getCheckboxFlags());
+    }
+
+    /**
+     * Decodes a collection block
+     *
+     * @param block    encoded collection block
+     * @param coinList list to add the decoded coins to
+     * @return the decoded collection
+     * @throws IOException if the block is not valid
+     */
+    public static CollectionListInfo decodeCollection(byte[] block, ArrayList<CoinSlot> coinList) throws IOException {
+        BlockReader reader = new BlockReader(block);
+
+        String collectionName = cleanCollectionName(reader.readString());
+        // If the coin type isn't recognized, an error occurred so just choose a safe value
+        int collectionTypeIndex = MainApplication.getIndexFromCollectionNameStr(reader.readString());
+        collectionTypeIndex = (collectionTypeIndex != -1) ? collectionTypeIndex : 0;
+        int totalCoinsCollected = reader.readVarint();
+        int totalCoinsInCollection = reader.readVarint();
+        int displayType = reader.readVarint();
+        int startYear = reader.readSignedVarint();
+        int endYear = reader.readSignedVarint();
+        String mintMarkFlags = reader.readString();
+        String checkboxFlags = reader.readString();
+
+        ArrayList<String> dictionary = new ArrayList<>();
+        while (reader.hasMore()) {
+            String identifier = reader.readDictionaryString(dictionary);
+            String mint = reader.readDictionaryString(dictionary);
+            int flags = reader.readVarint();
+            int advancedGrades = reader.readVarint();
+            int advancedQuantities = reader.readVarint();
+            String advancedNotes = reader.readString();
+            int sortOrder = reader.readSignedVarint();
+            int imageId = reader.readSignedVarint();
+            coinList.add(new CoinSlot(0, identifier, mint, (flags & FLAG_IN_COLLECTION) != 0,
+                    advancedGrades, advancedQuantities, advancedNotes, sortOrder,
+                    (flags & FLAG_CUSTOM_COIN) != 0, imageId));
+        }
+
+        return new CollectionListInfo(collectionName, totalCoinsInCollection, totalCoinsCollected,
+                collectionTypeIndex, displayType, startYear, endYear, mintMarkFlags, checkboxFlags);
+    }
+
+    /**
+     * Strips out all bad characters from an imported collection name, as is done for JSON imports
+     *
+     * @param collectionName collection name read from the snapshot
+     * @return collection name that is safe to use
+     */
+    private static String cleanCollectionName(String collectionName) {
+        return collectionName.replace('[', ' ').replace(']', ' ');
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string from a stream
+     *
+     * @param inputStream stream to read from
+     * @return value read
+     * @throws IOException if an error occurs
+     */
+    private static String readString(DataInputStream inputStream) throws IOException {
+        int length = readVarint(inputStream);
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a varint from a stream
+     *
+     * @param inputStream stream to read from
+     * @return value read
+     * @throws IOException if an error occurs
+     */
+    private static int readVarint(DataInputStream inputStream) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = inputStream.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    /**
+     * Builds an encoded block in memory
+     */
+    static class BlockWriter extends ByteArrayOutputStream {
+        private final HashMap<String, Integer> mDictionary = new HashMap<>();
+        private int mNumCoins = 0;
+
+        /**
+         * Gets the number of coins written to the block
+         *
+         * @return number of coins
+         */
+        int getNumCoins() {
+            return mNumCoins;
+        }
+
+        /**
+         * Writes an int as an unsigned varint (negative values take 5 bytes)
+         *
+         * @param value value to write
+         */
+        void writeVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        /**
+         * Writes an int as a zigzag encoded varint, so small negative values stay small
+         *
+         * @param value value to write
+         */
+        void writeSignedVarint(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        /**
+         * Writes a length-prefixed UTF-8 string
+         *
+         * @param value string to write (null is written as an empty string)
+         */
+        void writeString(String value) {
+            byte[] bytes = (value != null) ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Writes a reference to a dictionary string, adding it to the dictionary if needed
+         *
+         * @param value string to write
+         */
+        void writeDictionaryString(String value) {
+            Integer index = mDictionary.get(value);
+            if (index != null) {
+                writeVarint(index);
+            } else {
+                int newIndex = mDictionary.size();
+                mDictionary.put(value, newIndex);
+                writeVarint(newIndex);
+                writeString(value);
+            }
+        }
+
+        /**
+         * Writes a coin
+         *
+         * @param identifier         coin identifier
+         * @param mint               coin mint
+         * @param inCollection       whether the coin is in the collection
+         * @param advancedGrades     grade index
+         * @param advancedQuantities quantity index
+         * @param advancedNotes      notes
+         * @param sortOrder          sort order
+         * @param customCoin         whether the coin is a custom coin
+         * @param imageId            image id
+         */
+        void writeCoin(String identifier, String mint, boolean inCollection, int advancedGrades,
+                       int advancedQuantities, String advancedNotes, int sortOrder, boolean customCoin,
+                       int imageId) {
+            writeDictionaryString(identifier);
+            writeDictionaryString(mint);
+            writeVarint((inCollection ? FLAG_IN_COLLECTION : 0) | (customCoin ? FLAG_CUSTOM_COIN : 0));
+            writeVarint(advancedGrades);
+            writeVarint(advancedQuantities);
+            writeString(advancedNotes);
+            writeSignedVarint(sortOrder);
+            writeSignedVarint(imageId);
+            mNumCoins++;
+        }
+    }
+
+    /**
+     * Reads values from an encoded block
+     */
+    private static class BlockReader {
+        private final byte[] mBlock;
+        private int mPosition = 0;
+
+        BlockReader(byte[] block) {
+            mBlock = block;
+        }
+
+        boolean hasMore() {
+            return mPosition < mBlock.length;
+        }
+
+        private int readByte() throws IOException {
+            if (mPosition >= mBlock.length) {
+                throw new EOFException();
+            }
+            return mBlock[mPosition++] & 0xff;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint");
+        }
+
+        int readSignedVarint() throws IOException {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            if (length < 0 || length > mBlock.length - mPosition) {
+                throw new EOFException();
+            }
+            String value = new String(mBlock, mPosition, length, StandardCharsets.UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        String readDictionaryString(ArrayList<String> dictionary) throws IOException {
+            int index = readVarint();
+            if (index == dictionary.size()) {
+                dictionary.add(readString());
+            } else if (index < 0 || index > dictionary.size()) {
+                throw new IOException("Invalid dictionary reference");
+            }
+            return dictionary.get(index);
+        }
+    }
+}
@@ -71,10 +71,12 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
     public static final int TASK_IMPORT_COLLECTIONS = 1;
     public static final int TASK_CREATE_UPDATE_COLLECTION = 2;
     public static final int TASK_EXPORT_COLLECTIONS = 3;
+    public static final int TASK_MERGE_COLLECTIONS = 4;
 
     // Common activity variables
     protected final Context mContext = this;
     protected ProgressDialog mProgressDialog;
+    private String mProgressDialogMessage;
     public Resources mRes;
     protected Intent mCallingIntent;
     public DatabaseAdapter mDbAdapter = null;
@@ -137,7 +139,7 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
      */
     public String openDbAdapterForAsyncThread() {
         try {
-            mDbAdapter.open();
+            mDbAdapter.open(getTaskProgressReporter());
         } catch (SQLException e) {
             return mRes.getString(R.string.error_opening_database);
         }
@@ -184,6 +186,10 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
                 createProgressDialog(mRes.getString(R.string.creating_collection));
                 break;
             }
+            case TASK_MERGE_COLLECTIONS: {
+                createProgressDialog(mRes.getString(R.string.merging_collections));
+                break;
+            }
         }
     }
 
@@ -202,6 +208,45 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
         }
     }
 
+    /**
+     * Shows the progress of a long-running task (Ex: import) in the progress dialog
+     *
+     * @param taskId   an integer representing the task ID
+     * @param progress the current progress of the task
+     */
+    @Override
+    public void asyncProgressOnProgressUpdate(int taskId, ProgressReporter.Progress progress) {
+        if (mProgressDialog == null || !mProgressDialog.isShowing()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder(mProgressDialogMessage);
+        if (progress.mCollectionsTotal > 0) {
+            message.append("\n").append(mRes.getString(R.string.progress_collections,
+                    progress.mCollectionsDone, progress.mCollectionsTotal));
+        }
+        if (progress.mRowsDone > 0) {
+            message.append("\n").append(mRes.getString(R.string.progress_coins, progress.mRowsDone));
+        }
+        if (progress.mBytesDone > 0) {
+            message.append("\n").append(mRes.getString(R.string.progress_kilobytes, progress.mBytesDone / 1024));
+        }
+        if (progress.mEtaMs >= 0) {
+            message.append("\n").append(mRes.getString(R.string.progress_eta_seconds, (progress.mEtaMs + 999) / 1000));
+        }
+        mProgressDialog.setMessage(message.toString());
+    }
+
+    /**
+     * Gets the progress reporter for the current async task, which long-running work
+     * performed in asyncProgressDoInBackground should update
+     *
+     * @return the progress reporter (never null)
+     */
+    protected ProgressReporter getTaskProgressReporter() {
+        ProgressReporter progressReporter = (mTaskRunner != null) ? mTaskRunner.getProgressReporter() : null;
+        return (progressReporter != null) ? progressReporter : new ProgressReporter(null);
+    }
+
     /**
      * Activities that make use of the async task should call this once their UI state
      * is ready for an already running async task to call back
@@ -234,6 +279,11 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
         // If an async task is running, set the listener to null to have it wait before
         // trying its callback. Setting the listener to null also prevents memory leaks
         if (mTaskRunner != null) {
+            // The task runner is kept for the new activity across a configuration change,
+            // but if the activity is finishing nothing will pick up the task's result
+            if (isFinishing()) {
+                mTaskRunner.cancel();
+            }
             mTaskRunner.clearListener();
             mTaskRunner = null;
         }
@@ -248,6 +298,7 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
         mProgressDialog = new ProgressDialog(this);
         mProgressDialog.setCancelable(false);
         mProgressDialog.setMessage(message);
+        mProgressDialogMessage = message;
         mProgressDialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
         mProgressDialog.setProgress(0);
         mProgressDialog.show();
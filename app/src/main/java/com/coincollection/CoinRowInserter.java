@@ -0,0 +1,127 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_COLLECTION_ID;
+import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
+import static com.coincollection.CoinSlot.COL_IMAGE_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static com.coincollection.CoinSlot.TBL_COINS;
+import static com.coincollection.DatabaseHelper.bindStringOrNull;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Inserts coins into a collection one at a time using a single compiled statement.
+ * This lets imports write each coin as soon as it's read, rather than building a list of
+ * every coin in the collection first. Callers should insert inside a transaction so that
+ * the rows are committed together.
+ */
+class CoinRowInserter implements AutoCloseable {
+
+    private final SQLiteStatement mStatement;
+    private final long mCollectionId;
+    private int mNumCoins = 0;
+    private int mNumCollected = 0;
+
+    /**
+     * Constructor
+     *
+     * @param db        database
+     * @param tableName the collection name, which must already be in the collection info
+     * @throws SQLException if the collection doesn't exist
+     */
+    CoinRowInserter(SQLiteDatabase db, String tableName) throws SQLException {
+        mCollectionId = DatabaseHelper.getCollectionId(db, tableName);
+        String sqlCmd = "INSERT INTO " + TBL_COINS + " ("
+                + COL_COLLECTION_ID + ", "
+                + COL_COIN_IDENTIFIER + ", "
+                + COL_COIN_MINT + ", "
+                + COL_IN_COLLECTION + ", "
+                + COL_ADV_GRADE_INDEX + ", "
+                + COL_ADV_QUANTITY_INDEX + ", "
+                + COL_ADV_NOTES + ", "
+                + COL_SORT_ORDER + ", "
+                + COL_CUSTOM_COIN + ", "
+                + COL_IMAGE_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        mStatement = db.compileStatement(sqlCmd);
+    }
+
+    /**
+     * Inserts a coin
+     *
+     * @param coinSlot coin to insert (the database id is updated)
+     * @throws SQLException if the insert fails
+     */
+    void insert(CoinSlot coinSlot) throws SQLException {
+        mStatement.bindLong(1, mCollectionId);
+        bindStringOrNull(mStatement, 2, coinSlot.getIdentifier());
+        bindStringOrNull(mStatement, 3, coinSlot.getMint());
+        mStatement.bindLong(4, coinSlot.isInCollectionInt());
+        mStatement.bindLong(5, coinSlot.getAdvancedGrades());
+        mStatement.bindLong(6, coinSlot.getAdvancedQuantities());
+        bindStringOrNull(mStatement, 7, coinSlot.getAdvancedNotes());
+        mStatement.bindLong(8, coinSlot.getSortOrder());
+        mStatement.bindLong(9, coinSlot.isCustomCoinInt());
+        mStatement.bindLong(10, coinSlot.getImageId());
+        long rowId = mStatement.executeInsert();
+        if (rowId == -1) {
+            throw new SQLException();
+        }
+        coinSlot.setDatabaseId(rowId);
+        mStatement.clearBindings();
+        mNumCoins++;
+        mNumCollected += coinSlot.isInCollectionInt();
+    }
+
+    /**
+     * Gets the number of coins inserted
+     *
+     * @return number of coins
+     */
+    int getNumCoins() {
+        return mNumCoins;
+    }
+
+    /**
+     * Gets the number of coins inserted that are in the collection
+     *
+     * @return number of coins collected
+     */
+    int getNumCollected() {
+        return mNumCollected;
+    }
+
+    /**
+     * Releases the compiled statement
+     */
+    @Override
+    public void close() {
+        mStatement.close();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
+import static com.coincollection.CoinSlot.COL_IMAGE_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+
+import android.database.Cursor;
+import android.util.JsonWriter;
+
+import com.opencsv.CSVWriter;
+
+import java.io.IOException;
+
+/**
+ * Writes coin table rows straight from a cursor to an export file, without creating a
+ * CoinSlot for each row. This keeps the memory used by an export constant regardless
+ * of how many coins are in a collection. The output matches CoinSlot.writeToJson,
+ * CoinSlot.getCsvExportProperties and BackupSnapshot.encodeCollection.
+ */
+class CoinRowWriter implements AutoCloseable {
+
+    private final Cursor mCursor;
+    private final int mIdentifierIndex;
+    private final int mMintIndex;
+    private final int mInCollectionIndex;
+    private final int mAdvGradeIndex;
+    private final int mAdvQuantityIndex;
+    private final int mAdvNotesIndex;
+    private final int mSortOrderIndex;
+    private final int mCustomCoinIndex;
+    private final int mImageIdIndex;
+
+    // Reused for every CSV row, since CSVWriter writes each row out immediately
+    private final String[] mCsvRow = new String[CoinSlot.getCsvExportHeader().length];
+
+    /**
+     * Constructor
+     *
+     * @param cursor cursor with all of the coin export columns
+     */
+    CoinRowWriter(Cursor cursor) {
+        mCursor = cursor;
+        mIdentifierIndex = cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER);
+        mMintIndex = cursor.getColumnIndexOrThrow(COL_COIN_MINT);
+        mInCollectionIndex = cursor.getColumnIndexOrThrow(COL_IN_COLLECTION);
+        mAdvGradeIndex = cursor.getColumnIndexOrThrow(COL_ADV_GRADE_INDEX);
+        mAdvQuantityIndex = cursor.getColumnIndexOrThrow(COL_ADV_QUANTITY_INDEX);
+        mAdvNotesIndex = cursor.getColumnIndexOrThrow(COL_ADV_NOTES);
+        mSortOrderIndex = cursor.getColumnIndexOrThrow(COL_SORT_ORDER);
+        mCustomCoinIndex = cursor.getColumnIndexOrThrow(COL_CUSTOM_COIN);
+        mImageIdIndex = cursor.getColumnIndexOrThrow(COL_IMAGE_ID);
+    }
+
+    /**
+     * Writes every row as a JSON object
+     *
+     * @param writer JsonWriter to write to
+     * @return number of rows written
+     * @throws IOException if an error occurred
+     */
+    int writeAllToJson(JsonWriter writer) throws IOException {
+        int numRows = 0;
+        while (mCursor.moveToNext()) {
+            writer.beginObject();
+            writer.name(COL_COIN_IDENTIFIER).value(mCursor.getString(mIdentifierIndex));
+            writer.name(COL_COIN_MINT).value(mCursor.getString(mMintIndex));
+            writer.name(COL_IN_COLLECTION).value(mCursor.getInt(mInCollectionIndex) != 0);
+            writer.name(COL_ADV_GRADE_INDEX).value(mCursor.getInt(mAdvGradeIndex));
+            writer.name(COL_ADV_QUANTITY_INDEX).value(mCursor.getInt(mAdvQuantityIndex));
+            writer.name(COL_ADV_NOTES).value(mCursor.getString(mAdvNotesIndex));
+            writer.name(COL_SORT_ORDER).value(mCursor.getInt(mSortOrderIndex));
+            writer.name(COL_CUSTOM_COIN).value(mCursor.getInt(mCustomCoinIndex) != 0);
+            writer.name(COL_IMAGE_ID).value(mCursor.getInt(mImageIdIndex));
+            writer.endObject();
+            numRows++;
+        }
+        return numRows;
+    }
+
+    /**
+     * Writes every row as a CSV line
+     *
+     * @param writer CSVWriter to write to
+     * @return number of rows written
+     */
+    int writeAllToCsv(CSVWriter writer) {
+        int numRows = 0;
+        while (mCursor.moveToNext()) {
+            mCsvRow[0] = mCursor.getString(mIdentifierIndex);
+            mCsvRow[1] = mCursor.getString(mMintIndex);
+            mCsvRow[2] = (mCursor.getInt(mInCollectionIndex) != 0) ? "1" : "0";
+            mCsvRow[3] = String.valueOf(mCursor.getInt(mAdvGradeIndex));
+            mCsvRow[4] = String.valueOf(mCursor.getInt(mAdvQuantityIndex));
+            mCsvRow[5] = mCursor.getString(mAdvNotesIndex);
+            mCsvRow[6] = String.valueOf(mCursor.getInt(mSortOrderIndex));
+            mCsvRow[7] = (mCursor.getInt(mCustomCoinIndex) != 0) ? "1" : "0";
+            mCsvRow[8] = String.valueOf(mCursor.getInt(mImageIdIndex));
+            writer.writeNext(mCsvRow);
+            numRows++;
+        }
+        return numRows;
+    }
+
+    /**
+     * Writes every row to a binary snapshot block
+     *
+     * @param writer snapshot block to write to
+     * @return number of rows written
+     */
+    int writeAllToSnapshot(BackupSnapshot.BlockWriter writer) {
+        int numRows = 0;
+        while (mCursor.moveToNext()) {
+            writer.writeCoin(
+                    mCursor.getString(mIdentifierIndex),
+                    mCursor.getString(mMintIndex),
+                    mCursor.getInt(mInCollectionIndex) != 0,
+                    mCursor.getInt(mAdvGradeIndex),
+                    mCursor.getInt(mAdvQuantityIndex),
+                    mCursor.getString(mAdvNotesIndex),
+                    mCursor.getInt(mSortOrderIndex),
+                    mCursor.getInt(mCustomCoinIndex) != 0,
+                    mCursor.getInt(mImageIdIndex));
+            numRows++;
+        }
+        return numRows;
+    }
+
+    @Override
+    public void close() {
+        mCursor.close();
+    }
+}
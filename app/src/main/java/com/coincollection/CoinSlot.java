@@ -62,8 +62,8 @@ public class CoinSlot implements Parcelable {
     // In the database, we store the index into the grade and quantity arrays
     // so we can use these values efficiently.  For notes, we have to store the
     // - Note: these default values must match the DB defaults
-    private Integer mAdvancedGrades = 0;
-    private Integer mAdvancedQuantities = 0;
+    private int mAdvancedGrades = 0;
+    private int mAdvancedQuantities = 0;
     private String mAdvancedNotes = "";
 
     /**
@@ -93,9 +93,19 @@ public class CoinSlot implements Parcelable {
     public final static String COL_CUSTOM_COIN = "customCoin";
     public final static String COL_IMAGE_ID = "imageId";
 
+    // Since DB version 27 the coins of every collection are stored in one table, and each
+    // coin refers to its collection by the collection info row id
+    public final static String TBL_COINS = "coins";
+    public final static String COL_COLLECTION_ID = "collection_id";
+
     // Database helpers
     public final static String COIN_SLOT_COIN_ID_WHERE_CLAUSE = COL_COIN_ID + "=?";
 
+    // Selects the coins of the collection whose name is bound to the parameter
+    public final static String COIN_SLOT_COLLECTION_WHERE_CLAUSE = COL_COLLECTION_ID + "=(SELECT "
+            + CollectionListInfo.COL_ID + " FROM " + CollectionListInfo.TBL_COLLECTION_INFO
+            + " WHERE " + CollectionListInfo.COL_NAME + "=?)";
+
     // In earlier versions of the app (prior to DB version 17), coins were guaranteed to have
     // unique name/mints, so those were used to index into the DB. But DB version 17 lets users
     // add custom coins, breaking this assumption. However old DB upgrades should use the legacy
@@ -116,8 +126,8 @@ public class CoinSlot implements Parcelable {
      * @param customCoin         whether the coin was manually added by the user
      * @param imageId            optional image id
      */
-    public CoinSlot(long databaseId, String identifier, String mint, boolean inCollection, Integer advancedGrades,
-                    Integer advancedQuantities, String advancedNotes, int sortOrder, boolean customCoin,
+    public CoinSlot(long databaseId, String identifier, String mint, boolean inCollection, int advancedGrades,
+                    int advancedQuantities, String advancedNotes, int sortOrder, boolean customCoin,
                     int imageId) {
         mDatabaseId = databaseId;
         mIdentifier = identifier;
@@ -217,11 +227,11 @@ public class CoinSlot implements Parcelable {
         return mInCollection;
     }
 
-    public Integer isInCollectionInt() {
+    public int isInCollectionInt() {
         return this.isInCollection() ? 1 : 0;
     }
 
-    public Integer isInCollectionStringRes() {
+    public int isInCollectionStringRes() {
         return this.isInCollection() ? R.string.collected : R.string.missing;
     }
 
@@ -229,11 +239,11 @@ public class CoinSlot implements Parcelable {
         return mAdvInfoHasChanged;
     }
 
-    public Integer getAdvancedGrades() {
+    public int getAdvancedGrades() {
         return mAdvancedGrades;
     }
 
-    public Integer getAdvancedQuantities() {
+    public int getAdvancedQuantities() {
         return mAdvancedQuantities;
     }
 
@@ -241,11 +251,11 @@ public class CoinSlot implements Parcelable {
         return mAdvancedNotes;
     }
 
-    public void setAdvancedGrades(Integer advancedGrades) {
+    public void setAdvancedGrades(int advancedGrades) {
         this.mAdvancedGrades = advancedGrades;
     }
 
-    public void setAdvancedQuantities(Integer advancedQuantities) {
+    public void setAdvancedQuantities(int advancedQuantities) {
         this.mAdvancedQuantities = advancedQuantities;
     }
 
@@ -265,7 +275,7 @@ public class CoinSlot implements Parcelable {
         return mCustomCoin;
     }
 
-    public Integer isCustomCoinInt() {
+    public int isCustomCoinInt() {
         return this.isCustomCoin() ? 1 : 0;
     }
 
@@ -477,16 +487,8 @@ public class CoinSlot implements Parcelable {
         mMint = in.readString();
         mInCollection = in.readByte() != 0;
         mAdvInfoHasChanged = in.readByte() != 0;
-        if (in.readByte() == 0) {
-            mAdvancedGrades = null;
-        } else {
-            mAdvancedGrades = in.readInt();
-        }
-        if (in.readByte() == 0) {
-            mAdvancedQuantities = null;
-        } else {
-            mAdvancedQuantities = in.readInt();
-        }
+        mAdvancedGrades = in.readInt();
+        mAdvancedQuantities = in.readInt();
         mAdvancedNotes = in.readString();
         mSortOrder = in.readInt();
         mCustomCoin = in.readByte() != 0;
@@ -517,18 +519,8 @@ public class CoinSlot implements Parcelable {
         dest.writeString(mMint);
         dest.writeByte((byte) (mInCollection ? 1 : 0));
         dest.writeByte((byte) (mAdvInfoHasChanged ? 1 : 0));
-        if (mAdvancedGrades == null) {
-            dest.writeByte((byte) 0);
-        } else {
-            dest.writeByte((byte) 1);
-            dest.writeInt(mAdvancedGrades);
-        }
-        if (mAdvancedQuantities == null) {
-            dest.writeByte((byte) 0);
-        } else {
-            dest.writeByte((byte) 1);
-            dest.writeInt(mAdvancedQuantities);
-        }
+        dest.writeInt(mAdvancedGrades);
+        dest.writeInt(mAdvancedQuantities);
         dest.writeString(mAdvancedNotes);
         dest.writeInt(mSortOrder);
         dest.writeByte((byte) (mCustomCoin ? 1 : 0));
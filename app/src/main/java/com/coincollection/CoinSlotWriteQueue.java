@@ -0,0 +1,177 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.spencerpages.MainApplication.APP_NAME;
+
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.spencerpages.BuildConfig;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for coin collected state changes. Toggles are recorded in memory,
+ * coalesced by coin database id (so toggling the same coin repeatedly results in one write),
+ * and written to the database in a single transaction on a background thread.
+ */
+public class CoinSlotWriteQueue {
+
+    // Time to wait after a toggle before writing, so that quick successive toggles are batched
+    private final static long FLUSH_DELAY_MS = 250;
+
+    private final DatabaseAdapter mDbAdapter;
+    private final boolean mSynchronous;
+    private final Runnable mErrorCallback;
+    private final Handler mMainHandler;
+    private final ScheduledExecutorService mExecutorService;
+    private final Object mFlushLock = new Object();
+    private String mTableName;
+    private LinkedHashMap<Long, Boolean> mPendingWrites = new LinkedHashMap<>();
+    private boolean mFlushScheduled = false;
+    private volatile boolean mClosed = false;
+
+    /**
+     * Constructor
+     *
+     * @param dbAdapter     database adapter to write to
+     * @param tableName     the collection name
+     * @param synchronous   if true, writes are performed immediately on the calling thread
+     * @param errorCallback called on the main thread if a background write fails, unless
+     *                      the queue has been closed by then
+     */
+    CoinSlotWriteQueue(DatabaseAdapter dbAdapter, String tableName, boolean synchronous, Runnable errorCallback) {
+        mDbAdapter = dbAdapter;
+        mTableName = tableName;
+        mSynchronous = synchronous;
+        mErrorCallback = errorCallback;
+        mMainHandler = synchronous ? null : new Handler(Looper.getMainLooper());
+        mExecutorService = synchronous ? null : Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Queues the current collected state of a coin to be written to the database
+     *
+     * @param coinSlot coin that was changed
+     */
+    public void enqueue(CoinSlot coinSlot) {
+        synchronized (this) {
+            mPendingWrites.put(coinSlot.getDatabaseId(), coinSlot.isInCollection());
+            if (!mSynchronous && !mFlushScheduled) {
+                mFlushScheduled = true;
+                mExecutorService.schedule(this::flushFromBackground, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (mSynchronous) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes any pending changes to the database immediately. This should be called before
+     * other database operations on the collection and when the activity is paused.
+     *
+     * @throws SQLException if the database update was not successful
+     */
+    public void flush() throws SQLException {
+        synchronized (mFlushLock) {
+            LinkedHashMap<Long, Boolean> pendingWrites;
+            String tableName;
+            synchronized (this) {
+                if (mPendingWrites.isEmpty()) {
+                    return;
+                }
+                pendingWrites = mPendingWrites;
+                tableName = mTableName;
+                mPendingWrites = new LinkedHashMap<>();
+            }
+            mDbAdapter.updateInCollection(tableName, pendingWrites);
+        }
+    }
+
+    /**
+     * Updates the collection name used for subsequent writes. Any pending writes are
+     * flushed to the old table name first.
+     *
+     * @param tableName the new collection name
+     * @throws SQLException if the database update was not successful
+     */
+    public void setTableName(String tableName) throws SQLException {
+        synchronized (mFlushLock) {
+            flush();
+            synchronized (this) {
+                mTableName = tableName;
+            }
+        }
+    }
+
+    /**
+     * Flushes any pending changes and stops the background writer. After this the error
+     * callback is no longer called, since its owner is going away.
+     *
+     * @throws SQLException if the database update was not successful
+     */
+    public void close() throws SQLException {
+        mClosed = true;
+        try {
+            flush();
+        } finally {
+            if (mExecutorService != null) {
+                mExecutorService.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Flush task that runs on the background writer thread
+     */
+    private void flushFromBackground() {
+        synchronized (this) {
+            mFlushScheduled = false;
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // SQLException is a RuntimeException, but other failures (e.g. the database having
+            // been closed underneath us) must not kill the writer thread silently either
+            if (BuildConfig.DEBUG) {
+                Log.e(APP_NAME, "Failed to write queued coin updates: " + e);
+            }
+            if (mErrorCallback != null && !mClosed) {
+                mMainHandler.post(this::notifyError);
+            }
+        }
+    }
+
+    /**
+     * Calls the error callback on the main thread if the queue is still open
+     */
+    private void notifyError() {
+        if (!mClosed) {
+            mErrorCallback.run();
+        }
+    }
+}
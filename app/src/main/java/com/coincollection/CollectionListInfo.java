@@ -184,7 +184,11 @@ public class CollectionListInfo implements Parcelable {
     public final static String COL_SHOW_MINT_MARKS = "showMintMarksStr";
     public final static String COL_SHOW_CHECKBOXES_LEGACY = "showCheckboxes";
     public final static String COL_SHOW_CHECKBOXES = "showCheckboxesStr";
+    public final static String COL_COLLECTED = "collected";
     public final static String JSON_KEY_COLLECTED = "collected";
+    public final static String COL_CHANGE_SEQ = "changeSeq";
+    public final static String TBL_CHANGE_SEQUENCE = "change_sequence";
+    public final static String COL_SEQUENCE = "sequence";
 
     // Collections in this list use the start/end years
     private final static ArrayList<String> HAS_DATE_RANGE = new ArrayList<>(Arrays.asList(
@@ -852,6 +856,37 @@ public class CollectionListInfo implements Parcelable {
      * @throws IOException if an error occurred
      */
     public void writeToJson(JsonWriter writer, DatabaseAdapter dbAdapter, ArrayList<CoinSlot> coinList) throws IOException {
+        beginJson(writer, dbAdapter);
+        for (CoinSlot coinSlot : coinList) {
+            coinSlot.writeToJson(writer);
+        }
+        endJson(writer);
+    }
+
+    /**
+     * Write out the JSON representation (for exporting), streaming the coins from the database
+     *
+     * @param writer    JsonWriter to write to
+     * @param dbAdapter database adapter
+     * @param coinRows  coins associated with the collection
+     * @return number of coins written
+     * @throws IOException if an error occurred
+     */
+    int writeToJson(JsonWriter writer, DatabaseAdapter dbAdapter, CoinRowWriter coinRows) throws IOException {
+        beginJson(writer, dbAdapter);
+        int numCoins = coinRows.writeAllToJson(writer);
+        endJson(writer);
+        return numCoins;
+    }
+
+    /**
+     * Write out the collection properties and start the coin list
+     *
+     * @param writer    JsonWriter to write to
+     * @param dbAdapter database adapter
+     * @throws IOException if an error occurred
+     */
+    private void beginJson(JsonWriter writer, DatabaseAdapter dbAdapter) throws IOException {
 
         // NOTE For display, don't use item.getDisplayType bc I don't
         // think we populate that value except when importing...
@@ -871,9 +906,15 @@ public class CollectionListInfo implements Parcelable {
         writer.name(COL_SHOW_CHECKBOXES).value(mCheckboxFlags);
         writer.name(JSON_COIN_LIST);
         writer.beginArray();
-        for (CoinSlot coinSlot : coinList) {
-            coinSlot.writeToJson(writer);
-        }
+    }
+
+    /**
+     * End the coin list and the collection object
+     *
+     * @param writer JsonWriter to write to
+     * @throws IOException if an error occurred
+     */
+    private void endJson(JsonWriter writer) throws IOException {
         writer.endArray();
         writer.endObject();
     }
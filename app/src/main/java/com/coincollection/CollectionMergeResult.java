@@ -0,0 +1,73 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+/**
+ * Summary of the rows that merging an imported collection changed, or would change
+ * during a dry run
+ */
+public class CollectionMergeResult {
+
+    private final String mName;
+    private final boolean mNewCollection;
+    private final int mNumInserted;
+    private final int mNumUpdated;
+
+    /**
+     * Constructor
+     *
+     * @param name          the collection name
+     * @param newCollection true if the collection didn't exist and is created by the merge
+     * @param numInserted   number of coins inserted
+     * @param numUpdated    number of existing coins updated
+     */
+    CollectionMergeResult(String name, boolean newCollection, int numInserted, int numUpdated) {
+        mName = name;
+        mNewCollection = newCollection;
+        mNumInserted = numInserted;
+        mNumUpdated = numUpdated;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isNewCollection() {
+        return mNewCollection;
+    }
+
+    public int getNumInserted() {
+        return mNumInserted;
+    }
+
+    public int getNumUpdated() {
+        return mNumUpdated;
+    }
+
+    /**
+     * Gets the total number of rows changed
+     *
+     * @return number of coins inserted or updated
+     */
+    public int getNumChanged() {
+        return mNumInserted + mNumUpdated;
+    }
+}
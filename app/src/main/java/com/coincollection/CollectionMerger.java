@@ -0,0 +1,222 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_ID;
+import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
+import static com.coincollection.CoinSlot.COL_IMAGE_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.TBL_COINS;
+import static com.coincollection.CollectionListInfo.COL_NAME;
+import static com.coincollection.CollectionListInfo.COL_TOTAL;
+import static com.coincollection.CollectionListInfo.TBL_COLLECTION_INFO;
+import static com.coincollection.DatabaseHelper.bindStringOrNull;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Merges imported coins into an existing collection. Coins are matched by identifier and
+ * mint, and only the coins that are new or have different attributes are written. Sort
+ * orders aren't used to match coins, since they differ between devices once a collection
+ * has been rebalanced. If a collection has the same coin more than once, the coins are
+ * matched up in sort order. Coins in the collection that aren't in the import are left
+ * alone. Callers should merge inside a transaction so that the changes are committed
+ * together.
+ */
+class CollectionMerger {
+
+    private final SQLiteDatabase mDb;
+    private final String mTableName;
+
+    /**
+     * Constructor
+     *
+     * @param db        database
+     * @param tableName the collection name
+     */
+    CollectionMerger(SQLiteDatabase db, String tableName) {
+        mDb = db;
+        mTableName = tableName;
+    }
+
+    /**
+     * Merges the imported coins into the collection
+     *
+     * @param importedCoins imported coins
+     * @param dryRun        if true, only counts the coins that would change
+     * @return summary of the coins inserted and updated
+     * @throws SQLException if a database error occurs
+     */
+    CollectionMergeResult merge(ArrayList<CoinSlot> importedCoins, boolean dryRun) throws SQLException {
+
+        // The existing coins are already in sort order
+        ArrayList<CoinSlot> existingCoins = DatabaseHelper.getCoinList(mDb, mTableName, true, true);
+        HashMap<String, ArrayList<CoinSlot>> existingCoinsByKey = new HashMap<>();
+        int maxSortOrder = -1;
+        for (CoinSlot coinSlot : existingCoins) {
+            String key = getMergeKey(coinSlot);
+            ArrayList<CoinSlot> matchingCoins = existingCoinsByKey.get(key);
+            if (matchingCoins == null) {
+                matchingCoins = new ArrayList<>();
+                existingCoinsByKey.put(key, matchingCoins);
+            }
+            matchingCoins.add(coinSlot);
+            maxSortOrder = Math.max(maxSortOrder, coinSlot.getSortOrder());
+        }
+
+        // Find the coins to insert or update. The nth imported copy of a coin is matched
+        // with the nth existing copy, and any extra copies are inserted.
+        ArrayList<CoinSlot> sortedImportedCoins = new ArrayList<>(importedCoins);
+        Collections.sort(sortedImportedCoins, (coin1, coin2) -> Integer.compare(coin1.getSortOrder(), coin2.getSortOrder()));
+        ArrayList<CoinSlot> coinsToInsert = new ArrayList<>();
+        ArrayList<CoinSlot> coinsToUpdate = new ArrayList<>();
+        HashMap<String, Integer> numImportedByKey = new HashMap<>();
+        for (CoinSlot importedCoin : sortedImportedCoins) {
+            String key = getMergeKey(importedCoin);
+            Integer numImported = numImportedByKey.get(key);
+            int copyIndex = (numImported != null) ? numImported : 0;
+            numImportedByKey.put(key, copyIndex + 1);
+            ArrayList<CoinSlot> matchingCoins = existingCoinsByKey.get(key);
+            if (matchingCoins == null || copyIndex >= matchingCoins.size()) {
+                coinsToInsert.add(importedCoin);
+                continue;
+            }
+            CoinSlot existingCoin = matchingCoins.get(copyIndex);
+            if (!hasSameAttributes(existingCoin, importedCoin)) {
+                importedCoin.setDatabaseId(existingCoin.getDatabaseId());
+                coinsToUpdate.add(importedCoin);
+            }
+        }
+
+        if (!dryRun && (!coinsToInsert.isEmpty() || !coinsToUpdate.isEmpty())) {
+            updateCoins(coinsToUpdate);
+
+            // New coins go after the existing ones, keeping their order from the import,
+            // since their imported sort orders could collide with existing coins
+            long gap = Math.max(1, Math.min(DatabaseAdapter.SORT_ORDER_GAP,
+                    (Integer.MAX_VALUE - (long) maxSortOrder) / (coinsToInsert.size() + 1L)));
+            long sortOrder = maxSortOrder;
+            for (CoinSlot coinSlot : coinsToInsert) {
+                sortOrder += gap;
+                coinSlot.setSortOrder((int) sortOrder);
+            }
+            try (CoinRowInserter coinRows = new CoinRowInserter(mDb, mTableName)) {
+                for (CoinSlot coinSlot : coinsToInsert) {
+                    coinRows.insert(coinSlot);
+                }
+            }
+            if (!coinsToInsert.isEmpty()) {
+                ContentValues values = new ContentValues();
+                values.put(COL_TOTAL, existingCoins.size() + coinsToInsert.size());
+                if (DatabaseHelper.runSqlUpdate(mDb, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{mTableName}) <= 0) {
+                    throw new SQLException();
+                }
+            }
+            DatabaseHelper.recalculateTotalCollected(mDb, mTableName);
+            DatabaseHelper.markCollectionChanged(mDb, mTableName);
+        }
+        return new CollectionMergeResult(mTableName, false, coinsToInsert.size(), coinsToUpdate.size());
+    }
+
+    /**
+     * Updates the attributes of existing coins using a single compiled statement
+     *
+     * @param coinsToUpdate coins to update, with the database ids of the existing coins
+     * @throws SQLException if a database error occurs
+     */
+    private void updateCoins(ArrayList<CoinSlot> coinsToUpdate) throws SQLException {
+        if (coinsToUpdate.isEmpty()) {
+            return;
+        }
+        String sqlCmd = "UPDATE " + TBL_COINS + " SET "
+                + COL_IN_COLLECTION + "=?, "
+                + COL_ADV_GRADE_INDEX + "=?, "
+                + COL_ADV_QUANTITY_INDEX + "=?, "
+                + COL_ADV_NOTES + "=?, "
+                + COL_CUSTOM_COIN + "=?, "
+                + COL_IMAGE_ID + "=? WHERE " + COL_COIN_ID + "=?";
+        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
+        try {
+            for (CoinSlot coinSlot : coinsToUpdate) {
+                compiledStatement.bindLong(1, coinSlot.isInCollectionInt());
+                compiledStatement.bindLong(2, coinSlot.getAdvancedGrades());
+                compiledStatement.bindLong(3, coinSlot.getAdvancedQuantities());
+                bindStringOrNull(compiledStatement, 4, coinSlot.getAdvancedNotes());
+                compiledStatement.bindLong(5, coinSlot.isCustomCoinInt());
+                compiledStatement.bindLong(6, coinSlot.getImageId());
+                compiledStatement.bindLong(7, coinSlot.getDatabaseId());
+                if (compiledStatement.executeUpdateDelete() <= 0) {
+                    throw new SQLException();
+                }
+                compiledStatement.clearBindings();
+            }
+        } finally {
+            compiledStatement.close();
+        }
+    }
+
+    /**
+     * Gets the key used to match imported coins with existing coins
+     *
+     * @param coinSlot coin
+     * @return key built from the identifier and mint
+     */
+    private static String getMergeKey(CoinSlot coinSlot) {
+        return coinSlot.getIdentifier() + "\u0000" + coinSlot.getMint();
+    }
+
+    /**
+     * Checks whether two matched coins have the same attributes
+     *
+     * @param existingCoin coin in the database
+     * @param importedCoin imported coin
+     * @return true if the imported coin doesn't need to be written
+     */
+    private static boolean hasSameAttributes(CoinSlot existingCoin, CoinSlot importedCoin) {
+        return existingCoin.isInCollection() == importedCoin.isInCollection()
+                && existingCoin.getAdvancedGrades() == importedCoin.getAdvancedGrades()
+                && existingCoin.getAdvancedQuantities() == importedCoin.getAdvancedQuantities()
+                && getNotes(existingCoin).equals(getNotes(importedCoin))
+                && existingCoin.isCustomCoin() == importedCoin.isCustomCoin()
+                && existingCoin.getImageId() == importedCoin.getImageId();
+    }
+
+    /**
+     * Gets a coin's notes, treating missing notes the same as empty notes
+     *
+     * @param coinSlot coin
+     * @return the notes, or "" if there are none
+     */
+    private static String getNotes(CoinSlot coinSlot) {
+        String notes = coinSlot.getAdvancedNotes();
+        return (notes != null) ? notes : "";
+    }
+}
@@ -49,12 +49,15 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.spencerpages.BuildConfig;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Activity for managing each collection page
@@ -66,6 +69,16 @@ public class CollectionPage extends BaseActivity {
     public ArrayList<CoinSlot> mCoinList;
     private CoinSlotAdapter mCoinSlotAdapter;
     private int mCollectionTypeIndex;
+    private CoinSlotWriteQueue mWriteQueue;
+    private CoinListViewModel mCoinListViewModel;
+
+    /**
+     * Keeps the coin list across a configuration change, so that it doesn't have to be
+     * reloaded from the database or parceled into the saved instance state
+     */
+    public static class CoinListViewModel extends ViewModel {
+        public ArrayList<CoinSlot> mSavedCoinList;
+    }
 
     // Saved Instance State Keywords
 
@@ -74,7 +87,7 @@ public class CollectionPage extends BaseActivity {
     public final static String COLLECTION_TYPE_INDEX = "Collection_Type_Index";
     private final static String VIEW_INDEX = "view_index";
     private final static String VIEW_POSITION = "view_position";
-    private final static String COIN_LIST = "coin_list";
+    private final static String CHANGED_COIN_LIST = "changed_coin_list";
 
     // Global "enum" values
     public static final int SIMPLE_DISPLAY = 0;
@@ -159,6 +172,10 @@ public class CollectionPage extends BaseActivity {
         // Determine whether we should show the advanced view or the basic view
         mDisplayType = mDbAdapter.fetchTableDisplay(mCollectionName);
 
+        // Coin toggles are written to the database in the background (except in unit tests)
+        mWriteQueue = new CoinSlotWriteQueue(mDbAdapter, mCollectionName, isUnitTest && BuildConfig.DEBUG,
+                () -> showCancelableAlert(mRes.getString(R.string.error_updating_database)));
+
         // Update the icon
         if (mActionBar != null) {
             mActionBar.setIcon(collectionTypeObj.getCoinImageIdentifier());
@@ -168,26 +185,38 @@ public class CollectionPage extends BaseActivity {
         }
 
         // Populate the coin list
-        if (savedInstanceState == null) {
-            boolean populateAdvInfo = (mDisplayType == ADVANCED_DISPLAY);
-            mCoinList = mDbAdapter.getCoinList(mCollectionName, populateAdvInfo);
-        } else {
+        mCoinListViewModel = new ViewModelProvider(this).get(CoinListViewModel.class);
+        if (savedInstanceState != null && mCoinListViewModel.mSavedCoinList != null) {
 
-            // We have already loaded the advanced lists, so use those instead.
-            // That way we have all of the state from before the page loaded.
-            // yay
+            // We have already loaded the list before the configuration change, so use that
+            // instead. That way we have all of the state from before the page loaded.
+            mCoinList = mCoinListViewModel.mSavedCoinList;
+            // Search through the hasChanged history and see whether we should
+            // re-display the "Unsaved Changes" view
+            for (CoinSlot coinSlot : mCoinList) {
+                if (coinSlot.hasAdvInfoChanged()) {
+                    this.showUnsavedTextView();
+                    break;
+                }
+            }
             if (BuildConfig.DEBUG) {
                 Log.d(APP_NAME, "Successfully restored previous state");
             }
-            mCoinList = savedInstanceState.getParcelableArrayList(COIN_LIST);
-            // Search through the hasChanged history and see whether we should
-            // re-display the "Unsaved Changes" view
-            if (mCoinList != null) {
-                for (int i = 0; i < mCoinList.size(); i++) {
-                    if (mCoinList.get(i).hasAdvInfoChanged()) {
-                        this.showUnsavedTextView();
-                        break;
-                    }
+        } else {
+            boolean populateAdvInfo = (mDisplayType == ADVANCED_DISPLAY);
+            mCoinList = mDbAdapter.getCoinList(mCollectionName, populateAdvInfo);
+            if (savedInstanceState != null) {
+
+                // The process was restarted, so the list was reloaded. Everything except
+                // unsaved advanced info changes is already in the database, so only those
+                // coins are saved off. Overlay them on the list from the database.
+                ArrayList<CoinSlot> changedCoinList = savedInstanceState.getParcelableArrayList(CHANGED_COIN_LIST);
+                if (changedCoinList != null && !changedCoinList.isEmpty()) {
+                    applyChangedCoins(mCoinList, changedCoinList);
+                    this.showUnsavedTextView();
+                }
+                if (BuildConfig.DEBUG) {
+                    Log.d(APP_NAME, "Successfully restored previous state");
                 }
             }
         }
@@ -380,6 +409,14 @@ public class CollectionPage extends BaseActivity {
 
                 // TODO Show some kind of spinner
 
+                // Write any queued coin toggles first, so they're not applied after (and
+                // counted on top of) the saved advanced info
+                try {
+                    mWriteQueue.flush();
+                } catch (SQLException e) {
+                    finishedSuccessfully = false;
+                }
+
                 for (int i = 0; i < mOriginalCoinList.size(); i++) {
                     CoinSlot coinSlot = mOriginalCoinList.get(i);
                     if (coinSlot.hasAdvInfoChanged()) {
@@ -556,7 +593,9 @@ public class CollectionPage extends BaseActivity {
 
         // Update database
         try {
+            mWriteQueue.flush();
             mDbAdapter.updateCollectionName(oldCollectionName, newCollectionName);
+            mWriteQueue.setTableName(newCollectionName);
         } catch (SQLException e) {
             showCancelableAlert(mRes.getString(R.string.error_updating_database));
         }
@@ -602,6 +641,7 @@ public class CollectionPage extends BaseActivity {
             coinSlot.setIdentifier(coinName);
             coinSlot.setMint(coinMint);
             coinSlot.setImageId(imageId);
+            mWriteQueue.flush();
             mDbAdapter.updateCoinNameMintImage(mCollectionName, coinSlot);
         } catch (SQLException e) {
             showCancelableAlert(mRes.getString(R.string.error_updating_coin));
@@ -624,6 +664,7 @@ public class CollectionPage extends BaseActivity {
         CoinSlot newCoinSlot = new CoinSlot(newName, coinMint, sortOrder, imageId);
         try {
             // Insert the new coin into the database
+            mWriteQueue.flush();
             mDbAdapter.addCoinSlotToCollection(newCoinSlot, mCollectionName, true, mOriginalCoinList.size() + 1);
         } catch (SQLException e) {
             showCancelableAlert(mRes.getString(R.string.error_editing_coin));
@@ -718,6 +759,40 @@ public class CollectionPage extends BaseActivity {
      * http://stackoverflow.com/questions/4249897/how-to-send-objects-through-bundle
      */
 
+    @Override
+    public void onPause() {
+        // Make sure any queued coin toggles are saved before leaving the page
+        flushPendingWrites();
+        super.onPause();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mWriteQueue != null) {
+            try {
+                mWriteQueue.close();
+            } catch (RuntimeException e) {
+                if (BuildConfig.DEBUG) {
+                    Log.e(APP_NAME, "Failed to write queued coin updates: " + e);
+                }
+            }
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Writes any queued coin toggles to the database
+     */
+    private void flushPendingWrites() {
+        if (mWriteQueue != null) {
+            try {
+                mWriteQueue.flush();
+            } catch (SQLException e) {
+                showCancelableAlert(mRes.getString(R.string.error_updating_database));
+            }
+        }
+    }
+
     @Override
     protected void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -738,9 +813,17 @@ public class CollectionPage extends BaseActivity {
             viewPos = getAbsListViewPosition(gridview);
         }
 
-        // Save off these lists that may have unsaved user data
-        // Save the original coin list, not the filtered one, to avoid double-filtering after rotation
-        outState.putParcelableArrayList(COIN_LIST, mOriginalCoinList);
+        // Keep the whole list for a configuration change. In case the process is killed,
+        // also save off the coins that have unsaved user data. The rest of the list is
+        // reloaded from the database, which keeps the saved state small for large collections.
+        mCoinListViewModel.mSavedCoinList = mOriginalCoinList;
+        ArrayList<CoinSlot> changedCoinList = new ArrayList<>();
+        for (CoinSlot coinSlot : mOriginalCoinList) {
+            if (coinSlot.hasAdvInfoChanged()) {
+                changedCoinList.add(coinSlot);
+            }
+        }
+        outState.putParcelableArrayList(CHANGED_COIN_LIST, changedCoinList);
         outState.putInt(VIEW_INDEX, viewPos[0]);
         outState.putInt(VIEW_POSITION, viewPos[1]);
         outState.putString(COLLECTION_NAME, mCollectionName);
@@ -748,6 +831,25 @@ public class CollectionPage extends BaseActivity {
         outState.putInt("COIN_FILTER_STATE", mCoinFilter);
     }
 
+    /**
+     * Replaces coins in the list with the changed versions, matched by database id
+     *
+     * @param coinList        list of coins loaded from the database
+     * @param changedCoinList coins with unsaved changes
+     */
+    static void applyChangedCoins(ArrayList<CoinSlot> coinList, ArrayList<CoinSlot> changedCoinList) {
+        HashMap<Long, CoinSlot> changedCoins = new HashMap<>();
+        for (CoinSlot changedCoinSlot : changedCoinList) {
+            changedCoins.put(changedCoinSlot.getDatabaseId(), changedCoinSlot);
+        }
+        for (int i = 0; i < coinList.size() && !changedCoins.isEmpty(); i++) {
+            CoinSlot changedCoinSlot = changedCoins.remove(coinList.get(i).getDatabaseId());
+            if (changedCoinSlot != null) {
+                coinList.set(i, changedCoinSlot);
+            }
+        }
+    }
+
     /**
      * Displays to the user that the collection is locked
      */
@@ -820,15 +922,14 @@ public class CollectionPage extends BaseActivity {
             int coinPositionInCurrentList = mCoinSlotAdapter.getPositionInFilteredList(coinSlot);
             
             // Preference doesn't exist or Collection is unlocked
+            // Update the coin's collection status and queue the database write
+            boolean oldValue = coinSlot.isInCollection();
+            coinSlot.setInCollection(!oldValue);
             try {
-                mDbAdapter.toggleInCollection(mCollectionName, coinSlot);
+                mWriteQueue.enqueue(coinSlot);
             } catch (SQLException e) {
                 showCancelableAlert(mRes.getString(R.string.error_updating_database));
             }
-
-            // Update the coin's collection status
-            boolean oldValue = coinSlot.isInCollection();
-            coinSlot.setInCollection(!oldValue);
             
             // Since the adapter holds the original list, the change is automatically reflected
             // Just reapply the current filter to update the filtered view
@@ -857,17 +958,29 @@ public class CollectionPage extends BaseActivity {
             showLockedMessage();
         } else {
             // Create the new coin slot
-            // - copy() also sets the sort order to original + 1
             // - Mark as custom coin since it wasn't added when the collection was created
             CoinSlot newCoinSlot = coinSlot.copy(coinSlot.getIdentifier(), coinSlot.getMint(), true);
             try {
-                // Update the sort order in the database and coin list
-                mDbAdapter.updateCoinSortOrderForInsert(mCollectionName, newCoinSlot.getSortOrder());
-                for (CoinSlot currCoinSlot : mOriginalCoinList) {
-                    if (currCoinSlot.getSortOrder() >= newCoinSlot.getSortOrder()) {
-                        currCoinSlot.setSortOrder(currCoinSlot.getSortOrder() + 1);
+                // Write any queued coin toggles before changing the collection
+                mWriteQueue.flush();
+
+                // Place the new coin in the gap between this coin and the next one. If there's
+                // no gap left, spread out the sort orders in the database and coin list first.
+                int sortOrder = mDbAdapter.getCoinSortOrderForInsert(mCollectionName, coinSlot.getSortOrder());
+                if (sortOrder == -1) {
+                    HashMap<Long, Integer> newSortOrders = mDbAdapter.rebalanceCoinSortOrders(mCollectionName);
+                    for (CoinSlot currCoinSlot : mOriginalCoinList) {
+                        Integer newSortOrder = newSortOrders.get(currCoinSlot.getDatabaseId());
+                        if (newSortOrder != null) {
+                            currCoinSlot.setSortOrder(newSortOrder);
+                        }
+                    }
+                    sortOrder = mDbAdapter.getCoinSortOrderForInsert(mCollectionName, coinSlot.getSortOrder());
+                    if (sortOrder == -1) {
+                        throw new SQLException();
                     }
                 }
+                newCoinSlot.setSortOrder(sortOrder);
 
                 // Insert the new coin into the database
                 mDbAdapter.addCoinSlotToCollection(newCoinSlot, mCollectionName, true, mOriginalCoinList.size() + 1);
@@ -902,6 +1015,8 @@ public class CollectionPage extends BaseActivity {
             // Also remove from the original list
             mOriginalCoinList.remove(coinSlot);
             try {
+                // Write any queued coin toggles before removing the coin
+                mWriteQueue.flush();
                 mDbAdapter.removeCoinSlotFromCollection(coinSlot, mCollectionName, mOriginalCoinList.size());
             } catch (SQLException e) {
                 showCancelableAlert(mRes.getString(R.string.error_delete_coin));
@@ -0,0 +1,142 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_COLLECTION_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static com.coincollection.CoinSlot.TBL_COINS;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Batches the coins added to a collection while it's upgraded. The next sort order is only
+ * queried once and the coins are inserted with a single compiled statement, rather than
+ * querying and compiling for every new year (Ex: when upgrading from a very old version.)
+ * Changes to the collection's end year are also recorded so that the collection info is
+ * updated once after the collection upgrade finishes.
+ */
+class CollectionUpgradeBatch implements AutoCloseable {
+
+    private final SQLiteDatabase mDb;
+    private final String mTableName;
+    private SQLiteStatement mInsertStatement = null;
+    private int mNextSortOrder = -1;
+    private boolean mEndYearChanged = false;
+
+    /**
+     * Constructor
+     *
+     * @param db        database
+     * @param tableName the collection name
+     */
+    CollectionUpgradeBatch(SQLiteDatabase db, String tableName) {
+        mDb = db;
+        mTableName = tableName;
+    }
+
+    /**
+     * Checks whether this batch is for a collection
+     *
+     * @param tableName the collection name
+     * @return true if the batch is for the collection
+     */
+    boolean isFor(String tableName) {
+        return mTableName.equals(tableName);
+    }
+
+    /**
+     * Gets the next sort order for a new coin
+     *
+     * @return The next sort order to use
+     * @throws SQLException if a database error occurred
+     */
+    int getNextSortOrder() throws SQLException {
+        if (mNextSortOrder == -1) {
+            mNextSortOrder = DatabaseHelper.getNextCoinSortOrder(mDb, mTableName);
+        }
+        return mNextSortOrder;
+    }
+
+    /**
+     * Inserts a new coin that isn't in the collection yet
+     *
+     * @param identifier coin identifier
+     * @param mint       coin mint
+     * @param sortOrder  coin sort order
+     * @return true if the coin was inserted
+     */
+    boolean insertCoin(String identifier, String mint, int sortOrder) {
+        if (mInsertStatement == null) {
+            // The collection id is looked up once here, so it isn't part of every insert
+            long collectionId = DatabaseHelper.getCollectionId(mDb, mTableName);
+            mInsertStatement = mDb.compileStatement("INSERT INTO " + TBL_COINS + " ("
+                    + COL_COLLECTION_ID + ", "
+                    + COL_COIN_IDENTIFIER + ", "
+                    + COL_IN_COLLECTION + ", "
+                    + COL_COIN_MINT + ", "
+                    + COL_SORT_ORDER + ") VALUES (" + collectionId + ", ?, 0, ?, ?)");
+        }
+        mNextSortOrder = Math.max(getNextSortOrder(), sortOrder + 1);
+        mInsertStatement.bindString(1, identifier);
+        mInsertStatement.bindString(2, mint);
+        mInsertStatement.bindLong(3, sortOrder);
+        try {
+            // Like SQLiteDatabase.insert, report a failed insert rather than throwing
+            return mInsertStatement.executeInsert() != -1;
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            mInsertStatement.clearBindings();
+        }
+    }
+
+    /**
+     * Records that the collection's end year changed
+     */
+    void setEndYearChanged() {
+        mEndYearChanged = true;
+    }
+
+    /**
+     * Checks whether the collection's end year changed
+     *
+     * @return true if the end year needs to be written to the collection info
+     */
+    boolean isEndYearChanged() {
+        return mEndYearChanged;
+    }
+
+    /**
+     * Releases the compiled statement
+     */
+    @Override
+    public void close() {
+        if (mInsertStatement != null) {
+            mInsertStatement.close();
+            mInsertStatement = null;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_ID;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
+import static com.coincollection.CoinSlot.COL_IMAGE_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
+import static com.coincollection.CollectionListInfo.COL_COLLECTED;
+import static com.coincollection.CollectionListInfo.COL_DISPLAY;
+import static com.coincollection.CollectionListInfo.COL_END_YEAR;
+import static com.coincollection.CollectionListInfo.COL_NAME;
+import static com.coincollection.CollectionListInfo.COL_START_YEAR;
+import static com.coincollection.CollectionListInfo.COL_TOTAL;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.spencerpages.MainApplication;
+
+import java.util.ArrayList;
+
+/**
+ * Maps cursor rows to objects. The column indexes are looked up once when the mapper is
+ * created, rather than by name for every row, since the cursor columns don't change while
+ * iterating through the results.
+ *
+ * @param <T> type of object created for each row
+ */
+abstract class CursorRowMapper<T> {
+
+    final Cursor mCursor;
+
+    /**
+     * Constructor
+     *
+     * @param cursor cursor to read rows from
+     */
+    CursorRowMapper(Cursor cursor) {
+        mCursor = cursor;
+    }
+
+    /**
+     * Creates an object from the current cursor row
+     *
+     * @return the object for this row
+     * @throws SQLException if the row is not valid
+     */
+    abstract T mapRow() throws SQLException;
+
+    /**
+     * Maps every row in the cursor, and closes the cursor when done
+     *
+     * @param results list to add the objects to
+     * @throws SQLException if a row is not valid
+     */
+    void mapAll(ArrayList<T> results) throws SQLException {
+        try {
+            if (mCursor.moveToFirst()) {
+                do {
+                    results.add(mapRow());
+                } while (mCursor.moveToNext());
+            }
+        } finally {
+            mCursor.close();
+        }
+    }
+
+    /**
+     * Maps coin table rows to CoinSlot objects. Columns that weren't queried are left at
+     * their CoinSlot defaults.
+     */
+    static class CoinSlotMapper extends CursorRowMapper<CoinSlot> {
+
+        private final int mIdIndex;
+        private final int mIdentifierIndex;
+        private final int mMintIndex;
+        private final int mInCollectionIndex;
+        private final int mSortOrderIndex;
+        private final int mCustomCoinIndex;
+        private final int mImageIdIndex;
+        private final int mAdvGradeIndex;
+        private final int mAdvQuantityIndex;
+        private final int mAdvNotesIndex;
+
+        /**
+         * Constructor
+         *
+         * @param cursor          cursor with at least the id, identifier, mint and in collection
+         *                        columns
+         * @param populateAdvInfo if true, the cursor includes the advanced info columns
+         * @param useSortOrder    if true, the cursor includes the sort order column, otherwise
+         *                        the coin id is used as the sort order
+         */
+        CoinSlotMapper(Cursor cursor, boolean populateAdvInfo, boolean useSortOrder) {
+            super(cursor);
+            mIdIndex = cursor.getColumnIndexOrThrow(COL_COIN_ID);
+            mIdentifierIndex = cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER);
+            mMintIndex = cursor.getColumnIndexOrThrow(COL_COIN_MINT);
+            mInCollectionIndex = cursor.getColumnIndexOrThrow(COL_IN_COLLECTION);
+            mSortOrderIndex = useSortOrder ? cursor.getColumnIndexOrThrow(COL_SORT_ORDER) : -1;
+            mCustomCoinIndex = cursor.getColumnIndex(COL_CUSTOM_COIN);
+            mImageIdIndex = cursor.getColumnIndex(COL_IMAGE_ID);
+            mAdvGradeIndex = populateAdvInfo ? cursor.getColumnIndexOrThrow(COL_ADV_GRADE_INDEX) : -1;
+            mAdvQuantityIndex = populateAdvInfo ? cursor.getColumnIndexOrThrow(COL_ADV_QUANTITY_INDEX) : -1;
+            mAdvNotesIndex = populateAdvInfo ? cursor.getColumnIndexOrThrow(COL_ADV_NOTES) : -1;
+        }
+
+        @Override
+        CoinSlot mapRow() {
+            long databaseId = mCursor.getLong(mIdIndex);
+            int sortOrder = (mSortOrderIndex != -1) ? mCursor.getInt(mSortOrderIndex) : (int) databaseId;
+            boolean customCoin = (mCustomCoinIndex != -1) && (mCursor.getInt(mCustomCoinIndex) != 0);
+            int imageId = (mImageIdIndex != -1) ? mCursor.getInt(mImageIdIndex) : -1;
+            if (mAdvGradeIndex != -1) {
+                return new CoinSlot(
+                        databaseId,
+                        mCursor.getString(mIdentifierIndex),
+                        mCursor.getString(mMintIndex),
+                        (mCursor.getInt(mInCollectionIndex) != 0),
+                        mCursor.getInt(mAdvGradeIndex),
+                        mCursor.getInt(mAdvQuantityIndex),
+                        mCursor.getString(mAdvNotesIndex),
+                        sortOrder,
+                        customCoin,
+                        imageId);
+            } else {
+                return new CoinSlot(
+                        databaseId,
+                        mCursor.getString(mIdentifierIndex),
+                        mCursor.getString(mMintIndex),
+                        (mCursor.getInt(mInCollectionIndex) != 0),
+                        sortOrder,
+                        customCoin,
+                        imageId);
+            }
+        }
+    }
+
+    /**
+     * Maps collection_info rows to CollectionListInfo objects
+     */
+    static class CollectionListInfoMapper extends CursorRowMapper<CollectionListInfo> {
+
+        private final SQLiteDatabase mDb;
+        private final int mNameIndex;
+        private final int mCoinTypeIndex;
+        private final int mTotalIndex;
+        private final int mCollectedIndex;
+        private final int mDisplayIndex;
+        private final int mStartYearIndex;
+        private final int mEndYearIndex;
+        private final int mShowMintMarksIndex;
+        private final int mShowCheckboxesIndex;
+
+        /**
+         * Constructor
+         *
+         * @param db                database, used to count the coins collected if the cursor
+         *                          doesn't include the cached collected count
+         * @param cursor            cursor with the collection info columns
+         * @param colShowMintMarks  name of the show mint marks column to use
+         * @param colShowCheckboxes name of the show checkboxes column to use
+         */
+        CollectionListInfoMapper(SQLiteDatabase db, Cursor cursor, String colShowMintMarks, String colShowCheckboxes) {
+            super(cursor);
+            mDb = db;
+            mNameIndex = cursor.getColumnIndexOrThrow(COL_NAME);
+            mCoinTypeIndex = cursor.getColumnIndexOrThrow(COL_COIN_TYPE);
+            mTotalIndex = cursor.getColumnIndexOrThrow(COL_TOTAL);
+            mCollectedIndex = cursor.getColumnIndex(COL_COLLECTED);
+            mDisplayIndex = cursor.getColumnIndexOrThrow(COL_DISPLAY);
+            mStartYearIndex = cursor.getColumnIndexOrThrow(COL_START_YEAR);
+            mEndYearIndex = cursor.getColumnIndexOrThrow(COL_END_YEAR);
+            mShowMintMarksIndex = cursor.getColumnIndexOrThrow(colShowMintMarks);
+            mShowCheckboxesIndex = cursor.getColumnIndexOrThrow(colShowCheckboxes);
+        }
+
+        @Override
+        CollectionListInfo mapRow() throws SQLException {
+            String tableName = mCursor.getString(mNameIndex);
+            // Figure out what collection type maps to this
+            int index = MainApplication.getIndexFromCollectionNameStr(mCursor.getString(mCoinTypeIndex));
+            if (index == -1) {
+                throw new SQLException();
+            }
+            // Get the number of coins collected
+            int collected = (mCollectedIndex != -1)
+                    ? mCursor.getInt(mCollectedIndex)
+                    : DatabaseHelper.fetchTotalCollected(mDb, tableName);
+            if (collected == -1) {
+                throw new SQLException();
+            }
+            return new CollectionListInfo(
+                    tableName,
+                    mCursor.getInt(mTotalIndex),
+                    collected,
+                    index,
+                    mCursor.getInt(mDisplayIndex),
+                    mCursor.getInt(mStartYearIndex),
+                    mCursor.getInt(mEndYearIndex),
+                    mCursor.getString(mShowMintMarksIndex),
+                    mCursor.getString(mShowCheckboxesIndex));
+        }
+    }
+}
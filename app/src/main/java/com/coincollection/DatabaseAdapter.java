@@ -18,17 +18,21 @@
 package com.coincollection;
 
 import static com.coincollection.CoinSlot.COIN_SLOT_COIN_ID_WHERE_CLAUSE;
+import static com.coincollection.CoinSlot.COIN_SLOT_COLLECTION_WHERE_CLAUSE;
 import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
 import static com.coincollection.CoinSlot.COL_ADV_NOTES;
 import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
 import static com.coincollection.CoinSlot.COL_COIN_ID;
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
 import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_COLLECTION_ID;
 import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
 import static com.coincollection.CoinSlot.COL_IMAGE_ID;
 import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
 import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static com.coincollection.CoinSlot.TBL_COINS;
 import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
+import static com.coincollection.CollectionListInfo.COL_COLLECTED;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY_ORDER;
 import static com.coincollection.CollectionListInfo.COL_END_YEAR;
@@ -37,6 +41,7 @@ import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES;
 import static com.coincollection.CollectionListInfo.COL_SHOW_MINT_MARKS;
 import static com.coincollection.CollectionListInfo.COL_START_YEAR;
 import static com.coincollection.CollectionListInfo.COL_TOTAL;
+import static com.coincollection.CollectionListInfo.TBL_CHANGE_SEQUENCE;
 import static com.coincollection.CollectionListInfo.TBL_COLLECTION_INFO;
 import static com.coincollection.DatabaseHelper.simpleQueryForLong;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME;
@@ -53,8 +58,12 @@ import com.spencerpages.R;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Adapter based on the Simple Notes Database Access Helper Class on the Android site.
@@ -67,16 +76,62 @@ public class DatabaseAdapter {
     private final DatabaseHelper mDbHelper;
     private SQLiteDatabase mDb = null;
 
+    // Cache of compiled statements for frequently run single-row queries, so that the
+    // SQL doesn't need to be recompiled each time (Ex: when toggling many coins quickly.)
+    // Entries are keyed by query type and table, and the least recently used
+    // statement is closed once the cache is full.
+    private static final int STATEMENT_CACHE_SIZE = 16;
+    static final String STMT_IS_IN_COLLECTION = "isInCollection";
+    static final String STMT_TABLE_DISPLAY = "tableDisplay";
+    static final String STMT_NEXT_DISPLAY_ORDER = "nextDisplayOrder";
+    static final String STMT_NEXT_SORT_ORDER = "nextSortOrder";
+    private final LinkedHashMap<String, SQLiteStatement> mStatementCache =
+            new LinkedHashMap<String, SQLiteStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private int mStatementCacheHits = 0;
+    private int mStatementCacheMisses = 0;
+
+    // Gap left between coin sort orders when they are rebalanced
+    static final int SORT_ORDER_GAP = 1024;
+
     /**
      * Record any internal DB names here!
-     * Because internal tables and user tables aren't differentiated, we must prohibit
-     * users from trying to create database collections that map to internal DB names
+     * Before DB version 27 each collection was stored in a table with its name, so users
+     * were prohibited from creating collections that map to internal DB names. These stay
+     * reserved so that exports can still be imported by those versions of the app.
      * Must also include the collection export file name, so that import/exports work
+     * Since table names aren't case-sensitive, these are stored case-folded like the
+     * collection name registry below
      */
-    private final List<String> mReservedDbNames = new ArrayList<>(Arrays.asList(
-            TBL_COLLECTION_INFO,
-            LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME
-    ));
+    private final HashSet<String> mReservedDbNames = new HashSet<>();
+
+    // Registry of the case-folded names of all collections, so that checking a new name
+    // doesn't need a scan over the collection info table (Ex: for every collection during
+    // import.) It's loaded from the database the first time it's needed, and is kept up to
+    // date as collections are added, renamed and removed. Operations that may change the
+    // names in bulk (Ex: import upgrades) clear it instead.
+    // - Changes made inside a transaction go to a copy used by the thread running the
+    //   transaction, which replaces the registry once the transaction commits and is
+    //   discarded if it rolls back
+    // - Only accessed while synchronized on mCollectionNames
+    private final HashSet<String> mCollectionNames = new HashSet<>();
+    private boolean mCollectionNamesLoaded = false;
+    private HashSet<String> mTransactionCollectionNames = null;
+    private boolean mTransactionNamesChanged = false;
+
+    // Whether each open transaction has been marked successful, innermost last. If any of
+    // them ends without being marked successful, the whole transaction is rolled back.
+    // - Only accessed while synchronized on mCollectionNames
+    private final ArrayList<Boolean> mTransactionsSuccessful = new ArrayList<>();
+    private boolean mTransactionFailed = false;
 
     /**
      * Constructor - takes the context to allow the database to be
@@ -86,6 +141,12 @@ public class DatabaseAdapter {
      */
     public DatabaseAdapter(Context context) {
         mDbHelper = new DatabaseHelper(context);
+        for (String reservedName : Arrays.asList(
+                TBL_COLLECTION_INFO,
+                TBL_CHANGE_SEQUENCE,
+                LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME)) {
+            mReservedDbNames.add(foldCollectionName(reservedName));
+        }
     }
 
     /**
@@ -96,8 +157,23 @@ public class DatabaseAdapter {
      * @throws SQLException if the database cannot be opened
      */
     public void open() throws SQLException {
+        open(null);
+    }
+
+    /**
+     * Open the database, reporting progress if the database needs to be upgraded
+     *
+     * @param progressReporter progress reporter, or null for none
+     * @throws SQLException if the database cannot be opened
+     */
+    public void open(ProgressReporter progressReporter) throws SQLException {
         if (mDb == null || !mDb.isOpen()) {
-            mDb = mDbHelper.getWritableDatabase();
+            mDbHelper.setProgressReporter(progressReporter);
+            try {
+                mDb = mDbHelper.getWritableDatabase();
+            } finally {
+                mDbHelper.setProgressReporter(null);
+            }
         }
     }
 
@@ -114,12 +190,278 @@ public class DatabaseAdapter {
      * Close the current database connection
      */
     public void close() {
+        invalidateStatementCache();
+        invalidateCollectionNames();
         if (mDb != null && mDb.isOpen()) {
             mDb.close();
             mDb = null;
         }
     }
 
+    /**
+     * Runs a set of database operations in a single transaction. Since write-ahead logging is
+     * enabled, other threads can continue reading the last committed data in the meantime.
+     *
+     * @param operations database operations to perform
+     * @throws SQLException if a database error occurs (the transaction is rolled back)
+     */
+    public void runInTransaction(Runnable operations) throws SQLException {
+        beginTransaction();
+        try {
+            operations.run();
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Begins a transaction. Use this instead of runInTransaction when the operations
+     * need to return early or report errors (Ex: import.) Each call must be matched by
+     * a call to endTransaction in a finally block.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void beginTransaction() throws SQLException {
+        mDb.beginTransaction();
+        synchronized (mCollectionNames) {
+            mTransactionsSuccessful.add(false);
+        }
+    }
+
+    /**
+     * Marks the current transaction as successful, so it's committed by endTransaction
+     */
+    public void setTransactionSuccessful() {
+        mDb.setTransactionSuccessful();
+        synchronized (mCollectionNames) {
+            mTransactionsSuccessful.set(mTransactionsSuccessful.size() - 1, true);
+        }
+    }
+
+    /**
+     * Ends the current transaction. Changes are rolled back unless setTransactionSuccessful
+     * was called.
+     */
+    public void endTransaction() {
+        boolean outermost;
+        boolean committed;
+        // The registry is updated while this thread still holds the transaction, since
+        // another thread can start one as soon as it ends
+        synchronized (mCollectionNames) {
+            boolean successful = mTransactionsSuccessful.remove(mTransactionsSuccessful.size() - 1);
+            mTransactionFailed |= !successful;
+            outermost = mTransactionsSuccessful.isEmpty();
+            committed = !mTransactionFailed;
+            if (outermost) {
+                mTransactionFailed = false;
+                finishTransactionCollectionNames(committed);
+            }
+        }
+        try {
+            mDb.endTransaction();
+        } catch (RuntimeException e) {
+            // The commit failed, so the registry may no longer match the database
+            invalidateStatementCache();
+            invalidateCollectionNames();
+            throw e;
+        }
+        if (outermost && !committed) {
+            // Tables may have been created or dropped during the rolled back transaction
+            invalidateStatementCache();
+        }
+    }
+
+    /**
+     * Runs a single-row query that returns a number, using a cached compiled statement
+     *
+     * @param queryType the type of query (used along with the table name as the cache key)
+     * @param tableName the table being queried
+     * @param sqlCmd    SQL to compile if the statement isn't in the cache
+     * @param bindArgs  string arguments to bind to the statement
+     * @return the query result
+     * @throws SQLException if the query returned no rows
+     */
+    private int simpleQueryForLongCached(String queryType, String tableName, String sqlCmd, String... bindArgs) throws SQLException {
+        synchronized (mStatementCache) {
+            String key = queryType + ":" + tableName;
+            SQLiteStatement compiledStatement = mStatementCache.get(key);
+            if (compiledStatement == null) {
+                mStatementCacheMisses++;
+                compiledStatement = mDb.compileStatement(sqlCmd);
+                mStatementCache.put(key, compiledStatement);
+            } else {
+                mStatementCacheHits++;
+            }
+            for (int i = 0; i < bindArgs.length; i++) {
+                compiledStatement.bindString(i + 1, bindArgs[i]);
+            }
+            try {
+                return simpleQueryForLong(compiledStatement);
+            } finally {
+                compiledStatement.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Closes and removes all cached compiled statements. This must be called whenever
+     * tables are dropped or renamed, since the cached statements reference them by name.
+     */
+    void invalidateStatementCache() {
+        synchronized (mStatementCache) {
+            for (SQLiteStatement compiledStatement : mStatementCache.values()) {
+                compiledStatement.close();
+            }
+            mStatementCache.clear();
+        }
+    }
+
+    /**
+     * Clears the collection name registry, so that it's reloaded from the database the
+     * next time it's needed. This must be called whenever collections may have been added,
+     * renamed or removed without updating the registry. Inside a transaction, only the
+     * transaction's copy is cleared, and the registry is cleared once it commits.
+     */
+    void invalidateCollectionNames() {
+        synchronized (mCollectionNames) {
+            if (mDb != null && mDb.inTransaction()) {
+                mTransactionCollectionNames = null;
+                mTransactionNamesChanged = true;
+            } else {
+                mCollectionNames.clear();
+                mCollectionNamesLoaded = false;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a collection name is in the registry, loading it if needed
+     *
+     * @param tableName The collection name
+     * @return true if a collection already exists with the name (ignoring case)
+     * @throws SQLException if a database error occurs
+     */
+    private boolean collectionNameExists(String tableName) throws SQLException {
+        synchronized (mCollectionNames) {
+            String foldedName = foldCollectionName(tableName);
+            if (mDb.inTransaction() && mTransactionNamesChanged) {
+                // Loaded from inside the transaction, so it includes the changes so far
+                if (mTransactionCollectionNames == null) {
+                    mTransactionCollectionNames = loadCollectionNames();
+                }
+                return mTransactionCollectionNames.contains(foldedName);
+            }
+            if (!mCollectionNamesLoaded) {
+                // Any open transaction on this thread hasn't changed the names yet, so
+                // this matches the committed names
+                mCollectionNames.addAll(loadCollectionNames());
+                mCollectionNamesLoaded = true;
+            }
+            return mCollectionNames.contains(foldedName);
+        }
+    }
+
+    /**
+     * Reads the case-folded names of all collections from the database
+     *
+     * @return set of case-folded names
+     * @throws SQLException if a database error occurs
+     */
+    private HashSet<String> loadCollectionNames() throws SQLException {
+        HashSet<String> names = new HashSet<>();
+        try (Cursor cursor = getAllCollectionNames()) {
+            int nameIndex = cursor.getColumnIndexOrThrow(COL_NAME);
+            while (cursor.moveToNext()) {
+                names.add(foldCollectionName(cursor.getString(nameIndex)));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Updates the collection name registry after a collection is added, renamed or removed
+     *
+     * @param oldName the name being removed, or null if a collection was added
+     * @param newName the name being added, or null if a collection was removed
+     */
+    private void updateCollectionNames(String oldName, String newName) {
+        synchronized (mCollectionNames) {
+            HashSet<String> names;
+            if (mDb.inTransaction()) {
+                if (!mTransactionNamesChanged && mCollectionNamesLoaded) {
+                    mTransactionCollectionNames = new HashSet<>(mCollectionNames);
+                }
+                mTransactionNamesChanged = true;
+                names = mTransactionCollectionNames;
+            } else {
+                names = mCollectionNamesLoaded ? mCollectionNames : null;
+            }
+            if (names == null) {
+                // Picked up when the registry is loaded
+                return;
+            }
+            if (oldName != null) {
+                names.remove(foldCollectionName(oldName));
+            }
+            if (newName != null) {
+                names.add(foldCollectionName(newName));
+            }
+        }
+    }
+
+    /**
+     * Applies the collection name changes made in a transaction to the registry once the
+     * outermost transaction ends. Must be called while synchronized on mCollectionNames.
+     *
+     * @param committed true if the transaction is being committed, false if rolled back
+     */
+    private void finishTransactionCollectionNames(boolean committed) {
+        if (committed && mTransactionNamesChanged) {
+            mCollectionNames.clear();
+            mCollectionNamesLoaded = (mTransactionCollectionNames != null);
+            if (mCollectionNamesLoaded) {
+                mCollectionNames.addAll(mTransactionCollectionNames);
+            }
+        }
+        mTransactionCollectionNames = null;
+        mTransactionNamesChanged = false;
+    }
+
+    /**
+     * Case-folds a collection name, since names that only differ by case aren't allowed.
+     * This uses the root locale so that the result doesn't depend on the device language
+     * (Ex: the Turkish dotless i.)
+     *
+     * @param tableName The collection name
+     * @return the case-folded name
+     */
+    static String foldCollectionName(String tableName) {
+        return tableName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the number of queries that used a cached compiled statement
+     *
+     * @return number of statement cache hits
+     */
+    public int getStatementCacheHits() {
+        synchronized (mStatementCache) {
+            return mStatementCacheHits;
+        }
+    }
+
+    /**
+     * Get the number of queries that had to compile a new statement
+     *
+     * @return number of statement cache misses
+     */
+    public int getStatementCacheMisses() {
+        synchronized (mStatementCache) {
+            return mStatementCacheMisses;
+        }
+    }
+
     /**
      * Returns whether a coinIdentifier and coinMint has been marked as collected in a given
      * collection.
@@ -132,13 +474,9 @@ public class DatabaseAdapter {
     // TODO Retrieving the coin information individually (and onScroll) is inefficient... We should
     // instead have one query that returns all of the info.
     public int fetchIsInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
-        String sqlCmd = "SELECT " + COL_IN_COLLECTION + " FROM [" + removeBrackets(tableName) + "] WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE + " LIMIT 1";
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        compiledStatement.bindString(1, String.valueOf(coinSlot.getDatabaseId()));
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result;
+        // Coin ids are unique across all collections, so the collection isn't needed here
+        String sqlCmd = "SELECT " + COL_IN_COLLECTION + " FROM " + TBL_COINS + " WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE + " LIMIT 1";
+        return simpleQueryForLongCached(STMT_IS_IN_COLLECTION, TBL_COINS, sqlCmd, String.valueOf(coinSlot.getDatabaseId()));
     }
 
     /**
@@ -149,12 +487,93 @@ public class DatabaseAdapter {
      * @throws SQLException if the database update was not successful
      */
     public void toggleInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
-        int result = fetchIsInCollection(tableName, coinSlot);
-        int toggleResult = (result + 1) % 2;
-        ContentValues args = new ContentValues();
-        args.put(COL_IN_COLLECTION, toggleResult);
-        String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
-        runSqlUpdateAndCheck(tableName, args, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+        // Read and write in one transaction, so a concurrent write can't be lost in between
+        beginTransaction();
+        try {
+            int result = fetchIsInCollection(tableName, coinSlot);
+            updateInCollection(tableName, coinSlot.getDatabaseId(), result == 0);
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Sets whether a coin is in the collection. This is idempotent, so the coin (and the
+     * collection's collected count) is only updated if the value actually changes.
+     *
+     * @param tableName    The name of the collection of interest
+     * @param databaseId   The database id of the coin to update
+     * @param inCollection Whether the coin is in the collection
+     * @return true if the coin was changed, false if it already had that value
+     * @throws SQLException if the database update was not successful
+     */
+    public boolean updateInCollection(String tableName, long databaseId, boolean inCollection) throws SQLException {
+        return updateInCollection(tableName, Collections.singletonMap(databaseId, inCollection));
+    }
+
+    /**
+     * Sets whether a set of coins are in the collection, in a single transaction. The
+     * collected count and change sequence are updated once for the whole set.
+     *
+     * @param tableName  The name of the collection of interest
+     * @param coinStates Map of coin database id to whether the coin is in the collection
+     * @return true if any coin was changed
+     * @throws SQLException if the database update was not successful
+     */
+    public boolean updateInCollection(String tableName, Map<Long, Boolean> coinStates) throws SQLException {
+        beginTransaction();
+        SQLiteStatement compiledStatement = compileUpdateInCollection();
+        try {
+            int numChanged = 0;
+            int collectedDelta = 0;
+            for (Map.Entry<Long, Boolean> coinState : coinStates.entrySet()) {
+                boolean inCollection = coinState.getValue();
+                if (updateInCollection(compiledStatement, coinState.getKey(), inCollection)) {
+                    numChanged++;
+                    collectedDelta += inCollection ? 1 : -1;
+                }
+            }
+            if (numChanged != 0) {
+                DatabaseHelper.updateCollectedAndMarkChanged(mDb, tableName, collectedDelta);
+            }
+            setTransactionSuccessful();
+            return numChanged != 0;
+        } finally {
+            compiledStatement.close();
+            endTransaction();
+        }
+    }
+
+    /**
+     * Helper function to compile the statement used to set whether a coin is in the collection
+     *
+     * @return the compiled statement
+     */
+    private SQLiteStatement compileUpdateInCollection() {
+        String sqlCmd = "UPDATE " + TBL_COINS + " SET " + COL_IN_COLLECTION + "=?"
+                + " WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE + " AND " + COL_IN_COLLECTION + "!=?";
+        return mDb.compileStatement(sqlCmd);
+    }
+
+    /**
+     * Helper function to set whether a coin is in the collection using a compiled statement
+     *
+     * @param compiledStatement statement from compileUpdateInCollection
+     * @param databaseId        The database id of the coin to update
+     * @param inCollection      Whether the coin is in the collection
+     * @return true if the coin was changed, false if it already had that value
+     * @throws SQLException if the database update was not successful
+     */
+    private boolean updateInCollection(SQLiteStatement compiledStatement, long databaseId, boolean inCollection)
+            throws SQLException {
+        int inCollectionInt = inCollection ? 1 : 0;
+        compiledStatement.bindLong(1, inCollectionInt);
+        compiledStatement.bindLong(2, databaseId);
+        compiledStatement.bindLong(3, inCollectionInt);
+        int numRowsChanged = compiledStatement.executeUpdateDelete();
+        compiledStatement.clearBindings();
+        return numRowsChanged != 0;
     }
 
     /**
@@ -167,12 +586,7 @@ public class DatabaseAdapter {
     public int fetchTableDisplay(String tableName) throws SQLException {
         // The database will only be set up this way in this case
         String sqlCmd = "SELECT " + COL_DISPLAY + " FROM " + TBL_COLLECTION_INFO + " WHERE " + COL_NAME + "=? LIMIT 1";
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        compiledStatement.bindString(1, tableName);
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result;
+        return simpleQueryForLongCached(STMT_TABLE_DISPLAY, TBL_COLLECTION_INFO, sqlCmd, tableName);
     }
 
     /**
@@ -186,6 +600,7 @@ public class DatabaseAdapter {
         ContentValues args = new ContentValues();
         args.put(COL_DISPLAY, displayType);
         runSqlUpdateAndCheck(TBL_COLLECTION_INFO, args, COL_NAME + "=?", new String[]{tableName});
+        DatabaseHelper.markCollectionChanged(mDb, tableName);
     }
 
     /**
@@ -217,30 +632,17 @@ public class DatabaseAdapter {
         args.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
         args.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
         String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
-        runSqlUpdateAndCheck(tableName, args, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
-    }
-
-    /**
-     * Helper function to issue the SQL needed when creating a new database table for a collection
-     *
-     * @param tableName The collection name
-     * @throws SQLException if the database error occurs
-     */
-    private void createCollectionTable(String tableName) throws SQLException {
-        // v2.2.1 - Until this point all fields had '_id' created with 'autoincrement'
-        // which is unnecessary for our purposes.  Removing to improve performance.
-        String sqlCmd = "CREATE TABLE [" + removeBrackets(tableName) + "] ("
-                + " " + COL_COIN_ID + " integer primary key,"
-                + " " + COL_COIN_IDENTIFIER + " text not null,"
-                + " " + COL_COIN_MINT + " text,"
-                + " " + COL_IN_COLLECTION + " integer,"
-                + " " + COL_ADV_GRADE_INDEX + " integer default 0,"
-                + " " + COL_ADV_QUANTITY_INDEX + " integer default 0,"
-                + " " + COL_ADV_NOTES + " text default \"\","
-                + " " + COL_SORT_ORDER + " integer not null,"
-                + " " + COL_CUSTOM_COIN + " integer default 0,"
-                + " " + COL_IMAGE_ID + " integer default -1);";
-        mDb.execSQL(sqlCmd);
+        // The previous value is read in the same transaction as the update, so the collected
+        // count can't drift if another thread (Ex: the write queue) changes the coin
+        beginTransaction();
+        try {
+            int prevInCollection = fetchIsInCollection(tableName, coinSlot);
+            runSqlUpdateAndCheck(TBL_COINS, args, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+            DatabaseHelper.updateCollectedAndMarkChanged(mDb, tableName, coinSlot.isInCollectionInt() - prevInCollection);
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
     }
 
     /**
@@ -253,20 +655,65 @@ public class DatabaseAdapter {
      */
     public void createAndPopulateNewTable(CollectionListInfo collectionListInfo, int displayOrder, ArrayList<CoinSlot> coinData) throws SQLException {
 
-        // Actually make the table
-        String tableName = collectionListInfo.getName();
-        createCollectionTable(tableName);
+        // Add the collection and its coins in a single transaction so the coins are
+        // written all at once rather than one commit per coin
+        beginTransaction();
+        try {
+            // The collection info is added first, since the coins refer to its id
+            int numCollected = (coinData != null) ? DatabaseHelper.countCollected(coinData) : 0;
+            insertCollectionInfo(collectionListInfo, displayOrder, numCollected);
 
-        // We have the list of identifiers, now set them correctly
-        if (coinData != null) {
-            for (CoinSlot coinSlot : coinData) {
-                addCoinSlotToCollection(coinSlot, tableName, false, 0);
+            // We have the list of identifiers, now set them correctly
+            if (coinData != null) {
+                DatabaseHelper.insertCoinList(mDb, collectionListInfo.getName(), coinData);
             }
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
         }
+    }
+
+    /**
+     * Adds a new collection with no coins, so that its coins can be inserted as they're read
+     * (Ex: during import) instead of first being collected into a list. This must be called
+     * inside a transaction, and followed by finishStreamedTable once all coins are inserted.
+     *
+     * @param collectionListInfo The collection info
+     * @param displayOrder       display order of the collection
+     * @return inserter for the collection's coins
+     * @throws SQLException if the database update was not successful
+     */
+    CoinRowInserter createStreamedTable(CollectionListInfo collectionListInfo, int displayOrder) throws SQLException {
+        insertCollectionInfo(collectionListInfo, displayOrder, 0);
+        return new CoinRowInserter(mDb, collectionListInfo.getName());
+    }
+
+    /**
+     * Finishes a collection created with createStreamedTable once its coins are inserted
+     *
+     * @param collectionListInfo The collection info
+     * @param coinRows           inserter that was used to add the coins, which is closed
+     * @throws SQLException if the database update was not successful
+     */
+    void finishStreamedTable(CollectionListInfo collectionListInfo, CoinRowInserter coinRows) throws SQLException {
+        coinRows.close();
+        ContentValues values = new ContentValues();
+        values.put(COL_COLLECTED, coinRows.getNumCollected());
+        runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{collectionListInfo.getName()});
+    }
 
-        // We also need to add the table to the list of tables
+    /**
+     * Helper function to add a new collection to the list of collections
+     *
+     * @param collectionListInfo The collection info
+     * @param displayOrder       display order of the collection
+     * @param numCollected       number of coins in the collection that are collected
+     * @throws SQLException if the database update was not successful
+     */
+    private void insertCollectionInfo(CollectionListInfo collectionListInfo, int displayOrder, int numCollected) throws SQLException {
+        String tableName = collectionListInfo.getName();
         ContentValues values = new ContentValues();
-        values.put(COL_NAME, collectionListInfo.getName());
+        values.put(COL_NAME, tableName);
         values.put(COL_COIN_TYPE, collectionListInfo.getType());
         values.put(COL_TOTAL, collectionListInfo.getMax());
         values.put(COL_DISPLAY_ORDER, displayOrder);
@@ -275,7 +722,31 @@ public class DatabaseAdapter {
         values.put(COL_END_YEAR, collectionListInfo.getEndYear());
         values.put(COL_SHOW_MINT_MARKS, collectionListInfo.getMintMarkFlags());
         values.put(COL_SHOW_CHECKBOXES, collectionListInfo.getCheckboxFlags());
+        values.put(COL_COLLECTED, numCollected);
         runSqlInsert(TBL_COLLECTION_INFO, values);
+        DatabaseHelper.markCollectionChanged(mDb, tableName);
+        updateCollectionNames(null, tableName);
+    }
+
+    /**
+     * Merges imported coins into an existing collection, writing only the coins that are
+     * new or changed. This runs in its own transaction, or as part of the caller's.
+     *
+     * @param tableName     The collection name
+     * @param importedCoins imported coins
+     * @param dryRun        if true, only counts the coins that would change
+     * @return summary of the coins inserted and updated
+     * @throws SQLException if a database error occurs
+     */
+    CollectionMergeResult mergeIntoCollection(String tableName, ArrayList<CoinSlot> importedCoins, boolean dryRun) throws SQLException {
+        beginTransaction();
+        try {
+            CollectionMergeResult result = new CollectionMerger(mDb, tableName).merge(importedCoins, dryRun);
+            setTransactionSuccessful();
+            return result;
+        } finally {
+            endTransaction();
+        }
     }
 
     /**
@@ -285,17 +756,24 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     public void dropCollectionTable(String tableName) throws SQLException {
-        String dropTableCmd = "DROP TABLE [" + removeBrackets(tableName) + "];";
-        mDb.execSQL(dropTableCmd);
+        invalidateStatementCache();
+        // The coins are found by the collection info, so delete them first
+        DatabaseHelper.runCoinSqlDelete(mDb, tableName, null, null);
         runSqlDeleteAndCheck(TBL_COLLECTION_INFO, COL_NAME + "=?", new String[]{tableName});
+        DatabaseHelper.advanceChangeSequence(mDb);
+        updateCollectionNames(tableName, null);
     }
 
     /**
-     * Deletes the table of metadata about all the current collections
+     * Deletes the table of metadata about all the current collections, and the coins that
+     * refer to it
      *
      * @throws SQLException if a database error occurs
      */
     void dropCollectionInfoTable() throws SQLException {
+        invalidateStatementCache();
+        invalidateCollectionNames();
+        mDb.execSQL("DELETE FROM " + TBL_COINS + ";");
         String dropTableCmd = "DROP TABLE [" + TBL_COLLECTION_INFO + "];";
         mDb.execSQL(dropTableCmd);
     }
@@ -312,10 +790,13 @@ public class DatabaseAdapter {
     /**
      * Expose the dbHelper's onUpgrade method so we can call it manually when importing collections
      *
-     * @param oldVersion the db version to upgrade from
+     * @param oldVersion       the db version to upgrade from
+     * @param progressReporter reports each collection upgraded, or null for none
      */
-    void upgradeDbForImport(int oldVersion) {
-        DatabaseHelper.upgradeDb(mDb, oldVersion, MainApplication.DATABASE_VERSION, true);
+    void upgradeDbForImport(int oldVersion, ProgressReporter progressReporter) {
+        invalidateStatementCache();
+        invalidateCollectionNames();
+        DatabaseHelper.upgradeDb(mDb, oldVersion, MainApplication.DATABASE_VERSION, true, progressReporter);
     }
 
     /**
@@ -327,23 +808,14 @@ public class DatabaseAdapter {
     public int checkCollectionName(String tableName) {
 
         // Make sure the name isn't in the reserved list
-        if (mReservedDbNames.contains(tableName)) {
+        if (mReservedDbNames.contains(foldCollectionName(tableName))) {
             return R.string.collection_name_reserved;
         }
 
         // By the time the user is able to click this mDbAdapter should not be NULL anymore
-        Cursor cursor = this.getAllCollectionNames();
-        if (cursor.moveToFirst()) {
-            do {
-                Locale defaultLocale = Locale.getDefault();
-                if (cursor.getString(cursor.getColumnIndexOrThrow(COL_NAME)).toLowerCase(defaultLocale).equals(tableName.toLowerCase(defaultLocale))) {
-                    cursor.close();
-                    return R.string.collection_name_exists;
-                }
-
-            } while (cursor.moveToNext());
+        if (collectionNameExists(tableName)) {
+            return R.string.collection_name_exists;
         }
-        cursor.close();
         return -1;
     }
 
@@ -355,11 +827,7 @@ public class DatabaseAdapter {
      */
     public int getNextDisplayOrder() throws SQLException {
         String sqlCmd = "SELECT MAX(" + COL_DISPLAY_ORDER + ") FROM " + TBL_COLLECTION_INFO;
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result + 1;
+        return simpleQueryForLongCached(STMT_NEXT_DISPLAY_ORDER, TBL_COLLECTION_INFO, sqlCmd) + 1;
     }
 
     /**
@@ -370,7 +838,8 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurred
      */
     public int getNextCoinSortOrder(String tableName) throws SQLException {
-        return DatabaseHelper.getNextCoinSortOrder(mDb, tableName);
+        String sqlCmd = "SELECT MAX(" + COL_SORT_ORDER + ") FROM " + TBL_COINS + " WHERE " + COIN_SLOT_COLLECTION_WHERE_CLAUSE;
+        return simpleQueryForLongCached(STMT_NEXT_SORT_ORDER, TBL_COINS, sqlCmd, tableName) + 1;
     }
 
     /**
@@ -388,10 +857,14 @@ public class DatabaseAdapter {
         CollectionListInfo newCollectionListInfo = sourceCollectionListInfo.copy(newTableName);
         createAndPopulateNewTable(newCollectionListInfo, insertIndex, null);
 
-        // Populate the contents use SQL commands
-        String sourceTableName = sourceCollectionListInfo.getName();
-        String populateDbCmd = "INSERT INTO [" + removeBrackets(newTableName) + "] SELECT * FROM [" + removeBrackets(sourceTableName) + "];";
-        mDb.execSQL(populateDbCmd);
+        // Populate the contents use SQL commands (the copied coins get new ids)
+        long newCollectionId = DatabaseHelper.getCollectionId(mDb, newTableName);
+        long sourceCollectionId = DatabaseHelper.getCollectionId(mDb, sourceCollectionListInfo.getName());
+        String populateDbCmd = "INSERT INTO " + TBL_COINS + " (" + COL_COLLECTION_ID + ", " + DatabaseHelper.COIN_DATA_COLUMNS + ")"
+                + " SELECT ?, " + DatabaseHelper.COIN_DATA_COLUMNS + " FROM " + TBL_COINS + " WHERE " + COL_COLLECTION_ID + "=?"
+                + " ORDER BY " + COL_COIN_ID + ";";
+        mDb.execSQL(populateDbCmd, new Object[]{newCollectionId, sourceCollectionId});
+        DatabaseHelper.recalculateTotalCollected(mDb, newTableName);
 
         // Return the newly created object
         return newCollectionListInfo;
@@ -405,7 +878,10 @@ public class DatabaseAdapter {
      * @throws SQLException if the database update was not successful
      */
     public void updateCollectionName(String oldName, String newName) throws SQLException {
+        invalidateStatementCache();
         DatabaseHelper.updateCollectionName(mDb, oldName, newName);
+        DatabaseHelper.markCollectionChanged(mDb, newName);
+        updateCollectionNames(oldName, newName);
     }
 
     /**
@@ -421,7 +897,8 @@ public class DatabaseAdapter {
         values.put(COL_COIN_MINT, coinSlot.getMint());
         values.put(COL_IMAGE_ID, coinSlot.getImageId());
         String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
-        runSqlUpdateAndCheck(tableName, values, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+        runSqlUpdateAndCheck(TBL_COINS, values, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+        DatabaseHelper.markCollectionChanged(mDb, tableName);
     }
 
     /**
@@ -433,7 +910,10 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     public void updateExistingCollection(String oldTableName, CollectionListInfo collectionListInfo, ArrayList<CoinSlot> coinData) throws SQLException {
+        invalidateStatementCache();
         DatabaseHelper.updateExistingCollection(mDb, oldTableName, collectionListInfo, coinData, false);
+        DatabaseHelper.markCollectionChanged(mDb, collectionListInfo.getName());
+        updateCollectionNames(oldTableName, collectionListInfo.getName());
     }
 
     /**
@@ -442,6 +922,8 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     void createCollectionInfoTable() throws SQLException {
+        invalidateStatementCache();
+        invalidateCollectionNames();
         DatabaseHelper.createCollectionInfoTable(mDb);
     }
 
@@ -455,15 +937,121 @@ public class DatabaseAdapter {
     }
 
     /**
-     * Inserts a hole in the sort order at a given position (to accommodate a new coin being added)
+     * Gets the last change sequence number, which is recorded in backups so that a later
+     * differential backup only needs the collections changed since
+     *
+     * @return the last change sequence number
+     * @throws SQLException if a database error occurs
+     */
+    public int fetchChangeSequence() throws SQLException {
+        return DatabaseHelper.fetchChangeSequence(mDb);
+    }
+
+    /**
+     * Gets the names of the collections that changed after a given change sequence number
+     *
+     * @param changeSequence sequence number of the base backup
+     * @return names of the changed collections
+     * @throws SQLException if a database error occurs
+     */
+    public ArrayList<String> getCollectionsChangedSince(int changeSequence) throws SQLException {
+        return DatabaseHelper.getCollectionsChangedSince(mDb, changeSequence);
+    }
+
+    /**
+     * Sets the change sequence number of the database and all collections, after a backup
+     * has been restored
+     *
+     * @param changeSequence sequence number to set
+     * @throws SQLException if a database error occurs
+     */
+    void resetChangeSequence(int changeSequence) throws SQLException {
+        DatabaseHelper.resetChangeSequence(mDb, changeSequence);
+    }
+
+    /**
+     * Recalculates the cached number of coins collected for every collection from the
+     * collection contents. This repairs the counts if they get out of sync.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void recalculateTotalCollected() throws SQLException {
+        DatabaseHelper.recalculateTotalCollected(mDb);
+    }
+
+    /**
+     * Gets a sort order for a coin being inserted directly after an existing coin. Sort orders
+     * are spread out with gaps (see rebalanceCoinSortOrders) so that the new coin can usually
+     * be placed between its neighbors without updating any other rows.
+     *
+     * @param tableName      table name to access
+     * @param afterSortOrder sort order of the coin the new coin is inserted after
+     * @return the sort order to use, or -1 if there is no gap after the coin and the sort
+     * orders must be rebalanced first
+     * @throws SQLException if a database error occurs
+     */
+    public int getCoinSortOrderForInsert(String tableName, int afterSortOrder) throws SQLException {
+        String sqlCmd = "SELECT IFNULL(MIN(" + COL_SORT_ORDER + "), -1) FROM " + TBL_COINS
+                + " WHERE " + COIN_SLOT_COLLECTION_WHERE_CLAUSE + " AND " + COL_SORT_ORDER + " > ?";
+        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
+        compiledStatement.bindString(1, tableName);
+        compiledStatement.bindLong(2, afterSortOrder);
+        int nextSortOrder;
+        try {
+            nextSortOrder = simpleQueryForLong(compiledStatement);
+        } finally {
+            compiledStatement.close();
+        }
+        if (nextSortOrder == -1) {
+            // Inserting after the last coin
+            return (afterSortOrder <= Integer.MAX_VALUE - SORT_ORDER_GAP) ? afterSortOrder + SORT_ORDER_GAP : -1;
+        } else if (nextSortOrder - afterSortOrder > 1) {
+            return afterSortOrder + (nextSortOrder - afterSortOrder) / 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Spreads out the sort orders of the coins in a collection, keeping the current order,
+     * so that there is a gap between each coin for new coins to be inserted into
      *
-     * @param tableName       table name to update
-     * @param insertSortOrder sort order where the new coin will be inserted
+     * @param tableName table name to update
+     * @return map of coin database ids to their new sort order
      * @throws SQLException if a database error occurs
      */
-    public void updateCoinSortOrderForInsert(String tableName, int insertSortOrder) throws SQLException {
-        mDb.execSQL("UPDATE [" + removeBrackets(tableName) + "] SET " + COL_SORT_ORDER + " = " + COL_SORT_ORDER + "+1 "
-                + "WHERE " + COL_SORT_ORDER + " >= " + insertSortOrder);
+    public HashMap<Long, Integer> rebalanceCoinSortOrders(String tableName) throws SQLException {
+        HashMap<Long, Integer> newSortOrders = new HashMap<>();
+        beginTransaction();
+        try {
+            Cursor cursor = mDb.query(TBL_COINS, new String[]{COL_COIN_ID}, COIN_SLOT_COLLECTION_WHERE_CLAUSE,
+                    new String[]{tableName}, null, null, COL_SORT_ORDER + ", " + COL_COIN_ID);
+            int numCoins = cursor.getCount();
+            // Use a smaller gap for very large collections so the sort orders don't overflow
+            int gap = (int) Math.min(SORT_ORDER_GAP, Integer.MAX_VALUE / (numCoins + 2L));
+            SQLiteStatement compiledStatement = mDb.compileStatement("UPDATE " + TBL_COINS
+                    + " SET " + COL_SORT_ORDER + "=? WHERE " + COIN_SLOT_COIN_ID_WHERE_CLAUSE);
+            try {
+                int sortOrder = 0;
+                if (cursor.moveToFirst()) {
+                    do {
+                        long databaseId = cursor.getLong(0);
+                        compiledStatement.bindLong(1, sortOrder);
+                        compiledStatement.bindLong(2, databaseId);
+                        compiledStatement.executeUpdateDelete();
+                        newSortOrders.put(databaseId, sortOrder);
+                        sortOrder += gap;
+                    } while (cursor.moveToNext());
+                }
+            } finally {
+                compiledStatement.close();
+                cursor.close();
+            }
+            DatabaseHelper.markCollectionChanged(mDb, tableName);
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+        return newSortOrders;
     }
 
     /**
@@ -485,14 +1073,21 @@ public class DatabaseAdapter {
         values.put(COL_CUSTOM_COIN, coinSlot.isCustomCoinInt());
         values.put(COL_IMAGE_ID, coinSlot.getImageId());
 
-        // Add coin into database and record database id in CoinSlot object
-        coinSlot.setDatabaseId(runSqlInsert(tableName, values));
+        beginTransaction();
+        try {
+            // Add coin into database and record database id in CoinSlot object
+            coinSlot.setDatabaseId(DatabaseHelper.runCoinSqlInsert(mDb, tableName, values));
 
-        // Update the collection total if needed
-        if (updateTotal) {
-            values = new ContentValues();
-            values.put(COL_TOTAL, newCollectionSize);
-            runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            // Update the collection total if needed
+            if (updateTotal) {
+                values = new ContentValues();
+                values.put(COL_TOTAL, newCollectionSize);
+                runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            }
+            DatabaseHelper.updateCollectedAndMarkChanged(mDb, tableName, coinSlot.isInCollectionInt());
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
         }
     }
 
@@ -505,14 +1100,23 @@ public class DatabaseAdapter {
      */
     public void removeCoinSlotFromCollection(CoinSlot coinSlot, String tableName, int newCollectionSize) throws SQLException {
         String[] whereValues = new String[]{String.valueOf(coinSlot.getDatabaseId())};
-        runSqlDeleteAndCheck(tableName, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
-        // Note: This doesn't update the sort order of all remaining coins, which means there
-        //       may be holes in the sort order after this.
+        // As with updateAdvInfo, the read and the collected count change share a transaction
+        beginTransaction();
+        try {
+            int prevInCollection = fetchIsInCollection(tableName, coinSlot);
+            runSqlDeleteAndCheck(TBL_COINS, COIN_SLOT_COIN_ID_WHERE_CLAUSE, whereValues);
+            // Note: This doesn't update the sort order of all remaining coins, which means there
+            //       may be holes in the sort order after this.
 
-        // Update the collection total
-        ContentValues values = new ContentValues();
-        values.put(COL_TOTAL, newCollectionSize);
-        runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            // Update the collection total
+            ContentValues values = new ContentValues();
+            values.put(COL_TOTAL, newCollectionSize);
+            runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            DatabaseHelper.updateCollectedAndMarkChanged(mDb, tableName, -prevInCollection);
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
     }
 
     /**
@@ -538,6 +1142,16 @@ public class DatabaseAdapter {
         return DatabaseHelper.getCoinList(mDb, tableName, populateAdvInfo, true);
     }
 
+    /**
+     * Get a writer that streams the coins in a collection to an export file
+     *
+     * @param tableName The name of the collection
+     * @return coin row writer, which must be closed when done
+     */
+    CoinRowWriter getCoinRowWriter(String tableName) {
+        return new CoinRowWriter(DatabaseHelper.getCoinExportCursor(mDb, tableName));
+    }
+
     /**
      * Executes the SQL insert command and returns false if an error occurs
      *
@@ -5,23 +5,30 @@ import static com.coincollection.CoinSlot.COL_ADV_NOTES;
 import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
 import static com.coincollection.CoinSlot.COL_COIN_ID;
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COIN_SLOT_COLLECTION_WHERE_CLAUSE;
 import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_COLLECTION_ID;
 import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
 import static com.coincollection.CoinSlot.COL_IMAGE_ID;
 import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
 import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static com.coincollection.CoinSlot.TBL_COINS;
+import static com.coincollection.CollectionListInfo.COL_CHANGE_SEQ;
 import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
+import static com.coincollection.CollectionListInfo.COL_COLLECTED;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY_ORDER;
 import static com.coincollection.CollectionListInfo.COL_END_YEAR;
 import static com.coincollection.CollectionListInfo.COL_ID;
 import static com.coincollection.CollectionListInfo.COL_NAME;
+import static com.coincollection.CollectionListInfo.COL_SEQUENCE;
 import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES;
 import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES_LEGACY;
 import static com.coincollection.CollectionListInfo.COL_SHOW_MINT_MARKS;
 import static com.coincollection.CollectionListInfo.COL_SHOW_MINT_MARKS_LEGACY;
 import static com.coincollection.CollectionListInfo.COL_START_YEAR;
 import static com.coincollection.CollectionListInfo.COL_TOTAL;
+import static com.coincollection.CollectionListInfo.TBL_CHANGE_SEQUENCE;
 import static com.coincollection.CollectionListInfo.TBL_COLLECTION_INFO;
 import static com.coincollection.CollectionPage.SIMPLE_DISPLAY;
 import static com.spencerpages.MainApplication.APP_NAME;
@@ -43,17 +50,47 @@ import com.spencerpages.MainApplication;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
+    // Indexes on the coins table, used to load a collection's coins in sort order and to find
+    // coins by identifier and mint (Ex: during collection upgrades and merges)
+    public static final String IDX_COINS_SORT_ORDER = "coins__idx_collection_sortOrder";
+    public static final String IDX_COINS_NAME_MINT = "coins__idx_collection_coinIdentifier_coinMint";
+
+    // Columns holding a coin's data, which are copied when coins are moved to the coins
+    // table or a collection is copied (the id and collection id are set by the copy)
+    static final String COIN_DATA_COLUMNS = COL_COIN_IDENTIFIER + ", " + COL_COIN_MINT + ", "
+            + COL_IN_COLLECTION + ", " + COL_ADV_GRADE_INDEX + ", " + COL_ADV_QUANTITY_INDEX + ", "
+            + COL_ADV_NOTES + ", " + COL_SORT_ORDER + ", " + COL_CUSTOM_COIN + ", " + COL_IMAGE_ID;
+
+    // Progress reporter used if onUpgrade is called while opening the database
+    private volatile ProgressReporter mProgressReporter = null;
+
+    // Batch for the collection currently being upgraded by upgradeDb on this thread, used by
+    // addFromYear and addFromArrayList. This is thread local since the collection upgrade
+    // methods are called with only the database and collection info.
+    private static final ThreadLocal<CollectionUpgradeBatch> sUpgradeBatch = new ThreadLocal<>();
+
+    // Step timings of the last database upgrade
+    private static volatile DatabaseUpgradeStats sLastUpgradeStats = null;
+
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Use write-ahead logging so that reads (Ex: refreshing the collection list or
+        // exporting) can run on other threads while a long write (Ex: import) is in progress.
+        // SQLiteDatabase keeps a pool of read connections when this is enabled.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         // This is called if the DB doesn't exist (A fresh installation)
         createCollectionInfoTable(db);
+        createChangeSequenceTable(db);
+        createCoinsTable(db);
     }
 
     /**
@@ -76,15 +113,103 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + " " + COL_START_YEAR + " integer default 0,"
                 + " " + COL_END_YEAR + " integer default 0,"
                 + " " + COL_SHOW_MINT_MARKS + " text not null default '',"
-                + " " + COL_SHOW_CHECKBOXES + " text not null default ''"
+                + " " + COL_SHOW_CHECKBOXES + " text not null default '',"
+                + " " + COL_COLLECTED + " integer default 0,"
+                + " " + COL_CHANGE_SEQ + " integer default 0"
                 + ");";
 
         db.execSQL(makeCollectionInfoTable);
     }
 
+    /**
+     * Creates the single row table holding the last change sequence number. This is kept
+     * separate from the collection info so that the sequence never goes backwards, even
+     * when collections are deleted or the collection info table is recreated on import.
+     *
+     * @param db database to add to
+     * @throws SQLException if an error occurs
+     */
+    static void createChangeSequenceTable(SQLiteDatabase db) throws SQLException {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TBL_CHANGE_SEQUENCE + " ("
+                + " " + COL_ID + " integer primary key,"
+                + " " + COL_SEQUENCE + " integer not null"
+                + ");");
+        db.execSQL("INSERT OR IGNORE INTO " + TBL_CHANGE_SEQUENCE + " (" + COL_ID + ", " + COL_SEQUENCE + ") VALUES (1, 0)");
+    }
+
+    /**
+     * Creates the table holding the coins of every collection, along with its indexes
+     *
+     * @param db database to add to
+     * @throws SQLException if an error occurs
+     */
+    static void createCoinsTable(SQLiteDatabase db) throws SQLException {
+        createCoinsTable(db, TBL_COINS);
+        createCoinsIndexes(db);
+    }
+
+    /**
+     * Creates the table holding the coins of every collection
+     *
+     * @param db        database to add to
+     * @param tableName name of the table to create
+     * @throws SQLException if an error occurs
+     */
+    private static void createCoinsTable(SQLiteDatabase db, String tableName) throws SQLException {
+        // v2.2.1 - Until this point all fields had '_id' created with 'autoincrement'
+        // which is unnecessary for our purposes.  Removing to improve performance.
+        String sqlCmd = "CREATE TABLE [" + tableName + "] ("
+                + " " + COL_COIN_ID + " integer primary key,"
+                + " " + COL_COLLECTION_ID + " integer not null,"
+                + " " + COL_COIN_IDENTIFIER + " text not null,"
+                + " " + COL_COIN_MINT + " text,"
+                + " " + COL_IN_COLLECTION + " integer,"
+                + " " + COL_ADV_GRADE_INDEX + " integer default 0,"
+                + " " + COL_ADV_QUANTITY_INDEX + " integer default 0,"
+                + " " + COL_ADV_NOTES + " text default \"\","
+                + " " + COL_SORT_ORDER + " integer not null,"
+                + " " + COL_CUSTOM_COIN + " integer default 0,"
+                + " " + COL_IMAGE_ID + " integer default -1);";
+        db.execSQL(sqlCmd);
+    }
+
+    /**
+     * Creates the indexes on the coins table. Both start with the collection id, since the
+     * coins are always accessed one collection at a time.
+     *
+     * @param db database
+     * @throws SQLException if a database error occurs
+     */
+    public static void createCoinsIndexes(SQLiteDatabase db) throws SQLException {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + IDX_COINS_SORT_ORDER + " ON " + TBL_COINS + " ("
+                + COL_COLLECTION_ID + ", " + COL_SORT_ORDER + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + IDX_COINS_NAME_MINT + " ON " + TBL_COINS + " ("
+                + COL_COLLECTION_ID + ", " + COL_COIN_IDENTIFIER + ", " + COL_COIN_MINT + ")");
+    }
+
+    /**
+     * Drops the indexes on the coins table
+     *
+     * @param db database
+     * @throws SQLException if a database error occurs
+     */
+    public static void dropCoinsIndexes(SQLiteDatabase db) throws SQLException {
+        db.execSQL("DROP INDEX IF EXISTS " + IDX_COINS_SORT_ORDER);
+        db.execSQL("DROP INDEX IF EXISTS " + IDX_COINS_NAME_MINT);
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        DatabaseHelper.upgradeDb(db, oldVersion, newVersion, false);
+        DatabaseHelper.upgradeDb(db, oldVersion, newVersion, false, mProgressReporter);
+    }
+
+    /**
+     * Sets the progress reporter to use if the database is upgraded when opened
+     *
+     * @param progressReporter progress reporter, or null for none
+     */
+    void setProgressReporter(ProgressReporter progressReporter) {
+        mProgressReporter = progressReporter;
     }
 
     /**
@@ -106,20 +231,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             // We need to add in columns to support the new advanced view
             db.execSQL("ALTER TABLE " + TBL_COLLECTION_INFO + " ADD COLUMN " + COL_DISPLAY + " INTEGER DEFAULT " + CollectionPage.SIMPLE_DISPLAY);
 
-            // Get all of the created tables
-            Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME}, null, null, null, null, COL_COIN_ID);
-            if (resultCursor.moveToFirst()) {
-                do {
-
-                    String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_GRADE_INDEX + " INTEGER DEFAULT 0");
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_QUANTITY_INDEX + " INTEGER DEFAULT 0");
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_NOTES + " TEXT DEFAULT \"\"");
-
-                    // Move to the next collection
-                } while (resultCursor.moveToNext());
+            for (String name : getCollectionTableNames(db, COL_COIN_ID)) {
+                db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_GRADE_INDEX + " INTEGER DEFAULT 0");
+                db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_QUANTITY_INDEX + " INTEGER DEFAULT 0");
+                db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_NOTES + " TEXT DEFAULT \"\"");
             }
-            resultCursor.close();
         }
 
         if (oldVersion <= 7) {
@@ -167,36 +283,31 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             values.clear();
 
             // Remove the space from mint marks so that this field's value is less confusing
-
-            // Get all of the created tables
-            Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME}, null, null, null, null, COL_COIN_ID);
-            if (resultCursor.moveToFirst()) {
-                do {
-                    String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
-
-                    values.put(COL_COIN_MINT, "P");
-                    runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" P"});
-                    values.clear();
-
-                    values.put(COL_COIN_MINT, "D");
-                    runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" D"});
-                    values.clear();
-
-                    values.put(COL_COIN_MINT, "S");
-                    runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" S"});
-                    values.clear();
-
-                    values.put(COL_COIN_MINT, "O");
-                    runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" O"});
-                    values.clear();
-
-                    values.put(COL_COIN_MINT, "CC");
-                    runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" CC"});
-                    values.clear();
-
-                } while (resultCursor.moveToNext());
+            // - Imported collections are created in the coins table instead of their own tables
+            ArrayList<String> coinTableNames = fromImport
+                    ? new ArrayList<>(Collections.singletonList(TBL_COINS))
+                    : getCollectionTableNames(db, COL_COIN_ID);
+            for (String name : coinTableNames) {
+                values.put(COL_COIN_MINT, "P");
+                runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" P"});
+                values.clear();
+
+                values.put(COL_COIN_MINT, "D");
+                runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" D"});
+                values.clear();
+
+                values.put(COL_COIN_MINT, "S");
+                runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" S"});
+                values.clear();
+
+                values.put(COL_COIN_MINT, "O");
+                runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" O"});
+                values.clear();
+
+                values.put(COL_COIN_MINT, "CC");
+                runSqlUpdate(db, name, values, COL_COIN_MINT + "=?", new String[]{" CC"});
+                values.clear();
             }
-            resultCursor.close();
 
             //TODO Change buffalo nickels mint marks to remove space
             //TODO Change indian head cent mint marks to remove space
@@ -224,40 +335,22 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         // - Skip if importing, since the database will be created with the latest structure
         if (oldVersion <= 16 && !fromImport) {
 
-            // Get all of the created tables
-            Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME}, null, null, null, null, COL_DISPLAY_ORDER);
-            if (resultCursor.moveToFirst()) {
-                do {
-                    String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
-
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_SORT_ORDER + " INTEGER DEFAULT 0");
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_CUSTOM_COIN + " INTEGER DEFAULT 0");
-
-                    // Set the sort order to the IDs, as a starting point
-                    db.execSQL("UPDATE [" + name + "] SET " + COL_SORT_ORDER + " = " + COL_COIN_ID);
+            for (String name : getCollectionTableNames(db, COL_DISPLAY_ORDER)) {
+                db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_SORT_ORDER + " INTEGER DEFAULT 0");
+                db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_CUSTOM_COIN + " INTEGER DEFAULT 0");
 
-                    // Move to the next collection
-                } while (resultCursor.moveToNext());
+                // Set the sort order to the IDs, as a starting point
+                db.execSQL("UPDATE [" + name + "] SET " + COL_SORT_ORDER + " = " + COL_COIN_ID);
             }
-            resultCursor.close();
         }
 
         // Add image id to coins in each collection
         // - Skip if importing, since the database will be created with the latest structure
         if (oldVersion <= 20 && !fromImport) {
 
-            // Get all of the created tables
-            Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME}, null, null, null, null, COL_DISPLAY_ORDER);
-            if (resultCursor.moveToFirst()) {
-                do {
-                    String name = resultCursor.getString(resultCursor.getColumnIndexOrThrow(COL_NAME));
-
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_IMAGE_ID + " INTEGER DEFAULT -1");
-
-                    // Move to the next collection
-                } while (resultCursor.moveToNext());
+            for (String name : getCollectionTableNames(db, COL_DISPLAY_ORDER)) {
+                db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_IMAGE_ID + " INTEGER DEFAULT -1");
             }
-            resultCursor.close();
         }
 
         // Add new mint mark/checkbox columns of string type to support any number of options
@@ -282,6 +375,100 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             }
             resultCursor.close();
         }
+
+        // Add a column that caches the number of coins collected in each collection, so the
+        // list of collections can be loaded without querying every collection table.  The
+        // value is populated by recalculateTotalCollected at the end of the upgrade.
+        if (oldVersion <= 23 && !fromImport) {
+            db.execSQL("ALTER TABLE [" + TBL_COLLECTION_INFO + "] ADD COLUMN " + COL_COLLECTED + " INTEGER DEFAULT 0");
+        }
+
+        // Version 24 added indexes to each collection table. These tables are replaced by the
+        // (indexed) coins table below, so the indexes aren't created here anymore.
+
+        // Add the change sequence numbers used to find the collections that changed since a
+        // backup was made.  Existing collections start at 0, same as the sequence itself.
+        if (oldVersion <= 25 && !fromImport) {
+            db.execSQL("ALTER TABLE [" + TBL_COLLECTION_INFO + "] ADD COLUMN " + COL_CHANGE_SEQ + " INTEGER DEFAULT 0");
+            createChangeSequenceTable(db);
+        }
+
+        // Move the coins of every collection into a single coins table, instead of a table
+        // (with two indexes) per collection
+        // - Skip if importing, since imported collections are created in the coins table
+        if (oldVersion <= 26 && !fromImport) {
+            moveCoinsToCoinsTable(db);
+        }
+    }
+
+    /**
+     * Moves the coins of each collection from the collection's own table into the coins table,
+     * and drops the collection tables. The rows are copied with INSERT ... SELECT, so they're
+     * streamed by SQLite rather than loaded into memory, and this is part of the upgrade
+     * transaction so a failure leaves the collection tables in place.
+     *
+     * @param db database
+     * @throws SQLException if a database error occurs
+     */
+    private static void moveCoinsToCoinsTable(SQLiteDatabase db) throws SQLException {
+
+        // A collection table may already be named "coins" (table names ignore case), so the
+        // coins table is created under a name no collection uses and renamed at the end
+        ArrayList<String> names = getCollectionTableNames(db, COL_DISPLAY_ORDER);
+        HashSet<String> foldedNames = new HashSet<>();
+        for (String name : names) {
+            foldedNames.add(DatabaseAdapter.foldCollectionName(name));
+        }
+        String newTableName = TBL_COINS;
+        while (foldedNames.contains(DatabaseAdapter.foldCollectionName(newTableName))) {
+            newTableName += "_";
+        }
+        createCoinsTable(db, newTableName);
+
+        Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_ID, COL_NAME},
+                null, null, null, null, COL_DISPLAY_ORDER);
+        try {
+            while (resultCursor.moveToNext()) {
+                long collectionId = resultCursor.getLong(0);
+                String name = DatabaseAdapter.removeBrackets(resultCursor.getString(1));
+                // Copy in id order, so the coins keep their relative order when sorted by id
+                db.execSQL("INSERT INTO [" + newTableName + "] (" + COL_COLLECTION_ID + ", " + COIN_DATA_COLUMNS + ")"
+                        + " SELECT ?, " + COIN_DATA_COLUMNS + " FROM [" + name + "] ORDER BY " + COL_COIN_ID,
+                        new Object[]{collectionId});
+                // This also drops the collection table's indexes
+                db.execSQL("DROP TABLE [" + name + "]");
+            }
+        } finally {
+            resultCursor.close();
+        }
+
+        if (!newTableName.equals(TBL_COINS)) {
+            db.execSQL("ALTER TABLE [" + newTableName + "] RENAME TO " + TBL_COINS);
+        }
+        createCoinsIndexes(db);
+    }
+
+    /**
+     * Gets the names of all of the collections. Before DB version 27 each collection was
+     * stored in a table with its name, so this is used to apply structure changes to every
+     * collection table.
+     *
+     * @param db      database
+     * @param orderBy column to order the collections by (older databases may not have
+     *                the display order column yet)
+     * @return list of collection table names
+     */
+    static ArrayList<String> getCollectionTableNames(SQLiteDatabase db, String orderBy) {
+        ArrayList<String> names = new ArrayList<>();
+        Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME}, null, null, null, null, orderBy);
+        if (resultCursor.moveToFirst()) {
+            int nameIndex = resultCursor.getColumnIndexOrThrow(COL_NAME);
+            do {
+                names.add(resultCursor.getString(nameIndex));
+            } while (resultCursor.moveToNext());
+        }
+        resultCursor.close();
+        return names;
     }
 
     /**
@@ -293,8 +480,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @throws SQLException if a database error occurred
      */
     public static int getNextCoinSortOrder(SQLiteDatabase db, String tableName) throws SQLException {
-        String sqlCmd = "SELECT MAX(" + COL_SORT_ORDER + ") FROM [" + DatabaseAdapter.removeBrackets(tableName) + "]";
+        String sqlCmd = "SELECT MAX(" + COL_SORT_ORDER + ") FROM " + TBL_COINS + " WHERE " + COIN_SLOT_COLLECTION_WHERE_CLAUSE;
         SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+        compiledStatement.bindString(1, tableName);
         int result = simpleQueryForLong(compiledStatement);
         compiledStatement.clearBindings();
         compiledStatement.close();
@@ -310,31 +498,166 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @param fromImport if true, indicates that the upgrade is part of a collection import
      */
     public static void upgradeDb(SQLiteDatabase db, int oldVersion, int newVersion, boolean fromImport) {
+        upgradeDb(db, oldVersion, newVersion, fromImport, null);
+    }
+
+    /**
+     * Upgrades the database
+     *
+     * @param db               the database to upgrade
+     * @param oldVersion       the database's current version
+     * @param newVersion       the version to upgrade to
+     * @param fromImport       if true, indicates that the upgrade is part of a collection import
+     * @param progressReporter reports each collection upgraded, or null for none
+     */
+    public static void upgradeDb(SQLiteDatabase db, int oldVersion, int newVersion, boolean fromImport,
+                                 ProgressReporter progressReporter) {
 
         if (BuildConfig.DEBUG) {
             Log.i(APP_NAME, "Upgrading database from version " + oldVersion + " to " + newVersion);
         }
+        DatabaseUpgradeStats stats = new DatabaseUpgradeStats(oldVersion, newVersion);
 
-        // First call the MainApplication's onDatabaseUpgrade to ensure that any changes necessary
-        // for the app to work are done.
-        upgradeDbStructure(db, oldVersion, fromImport);
+        // Run the whole upgrade in one transaction, so that the individual updates aren't each
+        // committed separately and a failed upgrade doesn't leave the database half upgraded.
+        // This is nested in the transaction from SQLiteOpenHelper or the import if there is one.
+        db.beginTransaction();
+        try {
+            // First call the MainApplication's onDatabaseUpgrade to ensure that any changes necessary
+            // for the app to work are done.
+            long stepStartNs = System.nanoTime();
+            upgradeDbStructure(db, oldVersion, fromImport);
+            stats.addStepTime("Database structure", System.nanoTime() - stepStartNs);
+
+            // Now get a list of the collections and call each one's onCollectionDatabaseUpgrade method
+            ArrayList<CollectionListInfo> collectionList = new ArrayList<>();
+            getAllTables(db, collectionList, false);
+            if (progressReporter != null) {
+                progressReporter.setCollectionsTotal(collectionList.size());
+            }
+            for (CollectionListInfo collectionListInfo : collectionList) {
+                stepStartNs = System.nanoTime();
+                upgradeCollection(db, collectionListInfo, oldVersion, newVersion);
+                stats.addStepTime("Collection type " + collectionListInfo.getType(), System.nanoTime() - stepStartNs);
+                if (progressReporter != null) {
+                    progressReporter.addCollectionDone(collectionListInfo.getMax());
+                }
+            }
+
+            // Collection upgrades may have added or removed coins, so refresh the collected counts
+            stepStartNs = System.nanoTime();
+            recalculateTotalCollected(db);
+            stats.addStepTime("Collected counts", System.nanoTime() - stepStartNs);
+
+            // The upgrade may have changed any collection, so backups made before it are no
+            // longer a valid base for differential backups
+            stepStartNs = System.nanoTime();
+            markAllCollectionsChanged(db);
+            stats.addStepTime("Change sequence", System.nanoTime() - stepStartNs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        sLastUpgradeStats = stats;
+        if (BuildConfig.DEBUG) {
+            Log.i(APP_NAME, stats.toString());
+        }
+    }
 
-        // Now get a list of the collections and call each one's onCollectionDatabaseUpgrade method
-        ArrayList<CollectionListInfo> collectionList = new ArrayList<>();
-        getAllTables(db, collectionList, false);
-        for (CollectionListInfo collectionListInfo : collectionList) {
-            String tableName = collectionListInfo.getName();
+    /**
+     * Calls a collection's onCollectionDatabaseUpgrade method, batching the coins it adds,
+     * and then updates the collection info with a single update
+     *
+     * @param db                 the database to upgrade
+     * @param collectionListInfo the collection info
+     * @param oldVersion         the database's current version
+     * @param newVersion         the version to upgrade to
+     */
+    private static void upgradeCollection(SQLiteDatabase db, CollectionListInfo collectionListInfo,
+                                          int oldVersion, int newVersion) {
+        String tableName = collectionListInfo.getName();
+        try (CollectionUpgradeBatch batch = new CollectionUpgradeBatch(db, tableName)) {
+            sUpgradeBatch.set(batch);
             int numCoinsAdded = collectionListInfo.getCollectionObj().onCollectionDatabaseUpgrade(
                     db, collectionListInfo, oldVersion, newVersion);
-            // Update the collection total if coins were added or removed
+
+            // Update the collection total if coins were added or removed, and the end year
+            // if new years were added
+            ContentValues values = new ContentValues();
             if (numCoinsAdded != 0) {
                 int newTotal = collectionListInfo.getMax() + numCoinsAdded;
                 collectionListInfo.setMax(newTotal);
-                ContentValues values = new ContentValues();
                 values.put(COL_TOTAL, newTotal);
+            }
+            if (batch.isEndYearChanged()) {
+                values.put(COL_END_YEAR, collectionListInfo.getEndYear());
+            }
+            if (values.size() != 0) {
                 runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
             }
+        } finally {
+            sUpgradeBatch.remove();
+        }
+    }
+
+    /**
+     * Gets the step timings of the last database upgrade
+     *
+     * @return the upgrade timings, or null if there hasn't been an upgrade
+     */
+    public static DatabaseUpgradeStats getLastUpgradeStats() {
+        return sLastUpgradeStats;
+    }
+
+    /**
+     * Gets the upgrade batch for a collection, if it's being upgraded on this thread
+     *
+     * @param tableName the collection name
+     * @return the batch, or null if the collection isn't being upgraded
+     */
+    private static CollectionUpgradeBatch getUpgradeBatch(String tableName) {
+        CollectionUpgradeBatch batch = sUpgradeBatch.get();
+        return (batch != null && batch.isFor(tableName)) ? batch : null;
+    }
+
+    /**
+     * Inserts a new coin that isn't in the collection yet
+     *
+     * @param db         database
+     * @param tableName  the collection name
+     * @param identifier coin identifier
+     * @param mint       coin mint
+     * @param sortOrder  coin sort order
+     * @return true if the coin was inserted
+     */
+    private static boolean insertNewCoin(SQLiteDatabase db, String tableName, String identifier,
+                                         String mint, int sortOrder) {
+        CollectionUpgradeBatch batch = getUpgradeBatch(tableName);
+        if (batch != null) {
+            return batch.insertCoin(identifier, mint, sortOrder);
         }
+        ContentValues insertValues = new ContentValues();
+        insertValues.put(COL_COIN_IDENTIFIER, identifier);
+        insertValues.put(COL_IN_COLLECTION, 0);
+        insertValues.put(COL_COIN_MINT, mint);
+        insertValues.put(COL_SORT_ORDER, sortOrder);
+        insertValues.put(COL_COLLECTION_ID, getCollectionId(db, tableName));
+        return db.insert(TBL_COINS, null, insertValues) != -1;
+    }
+
+    /**
+     * Get the next sort order for coins added to a collection, using the upgrade batch
+     * if the collection is being upgraded
+     *
+     * @param db        the database to access
+     * @param tableName the collection name to access
+     * @return The next sort order to use
+     * @throws SQLException if a database error occurred
+     */
+    private static int getNextSortOrderForNewCoins(SQLiteDatabase db, String tableName) throws SQLException {
+        CollectionUpgradeBatch batch = getUpgradeBatch(tableName);
+        return (batch != null) ? batch.getNextSortOrder() : getNextCoinSortOrder(db, tableName);
     }
 
     /**
@@ -346,8 +669,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @throws SQLException if the database update was not successful
      */
     static void updateCollectionName(SQLiteDatabase db, String oldName, String newName) throws SQLException {
-        String alterDbSqlStr = "ALTER TABLE [" + DatabaseAdapter.removeBrackets(oldName) + "] RENAME TO [" + DatabaseAdapter.removeBrackets(newName) + "]";
-        db.execSQL(alterDbSqlStr);
+        // The coins refer to the collection by id, so only the collection info changes
         ContentValues args = new ContentValues();
         args.put(COL_NAME, newName);
         runSqlUpdate(db, TBL_COLLECTION_INFO, args, COL_NAME + "=?", new String[]{oldName});
@@ -364,29 +686,19 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                                        ArrayList<String> values) {
         int total = 0;
         String tableName = collectionListInfo.getName();
-        int newSortOrder = getNextCoinSortOrder(db, tableName);
+        int newSortOrder = getNextSortOrderForNewCoins(db, tableName);
         for (int i = 0; i < values.size(); i++) {
             if (collectionListInfo.hasMintMarks()) {
                 for (String flagStr : CollectionListInfo.MINT_STRING_TO_FLAGS.keySet()) {
                     Long mintFlag = CollectionListInfo.MINT_STRING_TO_FLAGS.get(flagStr);
                     if (mintFlag != null && ((collectionListInfo.getMintMarkFlagsAsLong() & mintFlag) != 0)) {
-                        ContentValues insertValues = new ContentValues();
-                        insertValues.put(COL_COIN_IDENTIFIER, values.get(i));
-                        insertValues.put(COL_IN_COLLECTION, 0);
-                        insertValues.put(COL_COIN_MINT, flagStr);
-                        insertValues.put(COL_SORT_ORDER, newSortOrder++);
-                        if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+                        if (insertNewCoin(db, tableName, values.get(i), flagStr, newSortOrder++)) {
                             total++;
                         }
                     }
                 }
             } else {
-                ContentValues insertValues = new ContentValues();
-                insertValues.put(COL_COIN_IDENTIFIER, values.get(i));
-                insertValues.put(COL_IN_COLLECTION, 0);
-                insertValues.put(COL_COIN_MINT, "");
-                insertValues.put(COL_SORT_ORDER, newSortOrder++);
-                if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+                if (insertNewCoin(db, tableName, values.get(i), "", newSortOrder++)) {
                     total++;
                 }
             }
@@ -446,7 +758,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         // Add the new coin entries
         String tableName = collectionListInfo.getName();
-        int newSortOrder = getNextCoinSortOrder(db, tableName);
+        int newSortOrder = getNextSortOrderForNewCoins(db, tableName);
         if (collectionListInfo.hasMintMarks()) {
             for (String flagStr : CollectionListInfo.MINT_STRING_TO_FLAGS.keySet()) {
                 Long mintFlag = CollectionListInfo.MINT_STRING_TO_FLAGS.get(flagStr);
@@ -454,31 +766,26 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     continue;
                 }
                 if (mintFlag != null && ((collectionListInfo.getMintMarkFlagsAsLong() & mintFlag) != 0)) {
-                    ContentValues insertValues = new ContentValues();
-                    insertValues.put(COL_COIN_IDENTIFIER, identifier);
-                    insertValues.put(COL_IN_COLLECTION, 0);
-                    insertValues.put(COL_COIN_MINT, flagStr);
-                    insertValues.put(COL_SORT_ORDER, newSortOrder++);
-                    if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+                    if (insertNewCoin(db, tableName, identifier, flagStr, newSortOrder++)) {
                         total++;
                     }
                 }
             }
         } else {
-            ContentValues insertValues = new ContentValues();
-            insertValues.put(COL_COIN_IDENTIFIER, identifier);
-            insertValues.put(COL_IN_COLLECTION, 0);
-            insertValues.put(COL_COIN_MINT, "");
-            insertValues.put(COL_SORT_ORDER, newSortOrder);
-            if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+            if (insertNewCoin(db, tableName, identifier, "", newSortOrder)) {
                 total++;
             }
         }
 
-        // Update the collection's end year
-        ContentValues updateValues = new ContentValues();
-        updateValues.put(COL_END_YEAR, year);
-        runSqlUpdate(db, TBL_COLLECTION_INFO, updateValues, COL_NAME + "=?", new String[]{tableName});
+        // Update the collection's end year (once the collection upgrade finishes, if batched)
+        CollectionUpgradeBatch batch = getUpgradeBatch(tableName);
+        if (batch != null) {
+            batch.setEndYearChanged();
+        } else {
+            ContentValues updateValues = new ContentValues();
+            updateValues.put(COL_END_YEAR, year);
+            runSqlUpdate(db, TBL_COLLECTION_INFO, updateValues, COL_NAME + "=?", new String[]{tableName});
+        }
         collectionListInfo.setEndYear(year);
 
         return total;
@@ -505,74 +812,57 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         ArrayList<CoinSlot> coinList = new ArrayList<>();
         String sortColumn = useSortOrder ? COL_SORT_ORDER : COL_COIN_ID;
-        Cursor cursor = db.query("[" + tableName + "]", dbColumns.toArray(new String[0]),
-                null, null, null, null, sortColumn);
-        if (cursor.moveToFirst()) {
-            do {
-                int sortOrder = useSortOrder ? cursor.getInt(cursor.getColumnIndexOrThrow(COL_SORT_ORDER))
-                        : (int) cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID));
-                if (populateAdvInfo) {
-                    coinList.add(new CoinSlot(
-                            cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) != 0),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_GRADE_INDEX)),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_QUANTITY_INDEX)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_ADV_NOTES)),
-                            sortOrder,
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_CUSTOM_COIN)) != 0),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_IMAGE_ID))));
-                } else {
-                    coinList.add(new CoinSlot(
-                            cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
-                            cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) != 0),
-                            sortOrder,
-                            (cursor.getInt(cursor.getColumnIndexOrThrow(COL_CUSTOM_COIN)) != 0),
-                            cursor.getInt(cursor.getColumnIndexOrThrow(COL_IMAGE_ID))));
-                }
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
+        Cursor cursor = db.query(TBL_COINS, dbColumns.toArray(new String[0]),
+                COIN_SLOT_COLLECTION_WHERE_CLAUSE, new String[]{tableName}, null, null, sortColumn);
+        new CursorRowMapper.CoinSlotMapper(cursor, populateAdvInfo, useSortOrder).mapAll(coinList);
         return coinList;
     }
 
     /**
-     * Get the basic coin information used by the legacy code to determine collection params
-     * This function should not be updated past DB version 16
+     * Get a cursor over all of the exported coin columns, in sort order. The caller is
+     * responsible for closing the cursor.
      *
      * @param db        database
      * @param tableName The name of the collection
+     * @return cursor over the coin rows
+     */
+    static Cursor getCoinExportCursor(SQLiteDatabase db, String tableName) {
+        String[] dbColumns = new String[]{COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION,
+                COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX, COL_ADV_NOTES, COL_SORT_ORDER,
+                COL_CUSTOM_COIN, COL_IMAGE_ID};
+        return db.query(TBL_COINS, dbColumns, COIN_SLOT_COLLECTION_WHERE_CLAUSE, new String[]{tableName},
+                null, null, COL_SORT_ORDER);
+    }
+
+    /**
+     * Get the basic coin information used by the legacy code to determine collection params
+     * This function should not be updated past DB version 16
+     *
+     * @param db               database
+     * @param tableName        The name of the collection
+     * @param collectionTables if true, reads the collection's own table instead of the
+     *                         coins table (databases before version 27)
      * @return CoinSlot list
      */
-    static ArrayList<CoinSlot> getCoinListForLegacyCollectionParams(SQLiteDatabase db, String tableName) {
+    static ArrayList<CoinSlot> getCoinListForLegacyCollectionParams(SQLiteDatabase db, String tableName, boolean collectionTables) {
 
         ArrayList<String> dbColumns = new ArrayList<>(
                 Arrays.asList(COL_COIN_ID, COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION));
 
         ArrayList<CoinSlot> coinList = new ArrayList<>();
-        Cursor cursor = db.query("[" + tableName + "]", dbColumns.toArray(new String[0]),
-                null, null, null, null, COL_COIN_ID);
-        if (cursor.moveToFirst()) {
-            do {
-                coinList.add(new CoinSlot(
-                        cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
-                        (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) == 1),
-                        (int) cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
-                        false,
-                        -1));
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
+        Cursor cursor = collectionTables
+                ? db.query("[" + tableName + "]", dbColumns.toArray(new String[0]),
+                null, null, null, null, COL_COIN_ID)
+                : db.query(TBL_COINS, dbColumns.toArray(new String[0]),
+                COIN_SLOT_COLLECTION_WHERE_CLAUSE, new String[]{tableName}, null, null, COL_COIN_ID);
+        new CursorRowMapper.CoinSlotMapper(cursor, false, false).mapAll(coinList);
         return coinList;
     }
 
     /**
-     * Get the total number of coins in the collection
+     * Get the total number of coins in the collection. This is only used for databases old
+     * enough not to have the cached collected count, which store each collection's coins
+     * in a table with the collection's name.
      *
      * @param db        database
      * @param tableName String that identifiers which table to query
@@ -588,6 +878,171 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         return result;
     }
 
+    /**
+     * Adjusts the cached number of coins collected for a collection and records the change
+     * on it, using one update of the collection info instead of separate ones. This must be
+     * called inside a transaction.
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @param delta     amount to add to the collected count (may be negative or 0)
+     * @throws SQLException if a database error occurs
+     */
+    public static void updateCollectedAndMarkChanged(SQLiteDatabase db, String tableName, int delta) throws SQLException {
+        db.execSQL("UPDATE " + TBL_CHANGE_SEQUENCE + " SET " + COL_SEQUENCE + " = " + COL_SEQUENCE + " + 1");
+        String sqlCmd = "UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_COLLECTED + " = " + COL_COLLECTED + " + ?, "
+                + COL_CHANGE_SEQ + " = (SELECT " + COL_SEQUENCE + " FROM " + TBL_CHANGE_SEQUENCE + ")"
+                + " WHERE " + COL_NAME + "=?";
+        SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+        compiledStatement.bindLong(1, delta);
+        compiledStatement.bindString(2, tableName);
+        compiledStatement.executeUpdateDelete();
+        compiledStatement.clearBindings();
+        compiledStatement.close();
+    }
+
+    // Counts the coins collected in the collection info row being updated
+    private static final String COLLECTED_COUNT_SUBQUERY = "(SELECT COUNT(*) FROM " + TBL_COINS
+            + " WHERE " + TBL_COINS + "." + COL_COLLECTION_ID + " = " + TBL_COLLECTION_INFO + "." + COL_ID
+            + " AND " + TBL_COINS + "." + COL_IN_COLLECTION + "=1)";
+
+    /**
+     * Recalculates the cached number of coins collected for a collection from its contents
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @throws SQLException if a database error occurs
+     */
+    public static void recalculateTotalCollected(SQLiteDatabase db, String tableName) throws SQLException {
+        String sqlCmd = "UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_COLLECTED + " = "
+                + COLLECTED_COUNT_SUBQUERY + " WHERE " + COL_NAME + "=?";
+        SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+        compiledStatement.bindString(1, tableName);
+        compiledStatement.executeUpdateDelete();
+        compiledStatement.clearBindings();
+        compiledStatement.close();
+    }
+
+    /**
+     * Recalculates the cached number of coins collected for every collection. This is used
+     * to repair the counts after operations that modify collections in bulk (Ex: upgrades).
+     *
+     * @param db database
+     * @throws SQLException if a database error occurs
+     */
+    public static void recalculateTotalCollected(SQLiteDatabase db) throws SQLException {
+        db.execSQL("UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_COLLECTED + " = " + COLLECTED_COUNT_SUBQUERY);
+    }
+
+    /**
+     * Gets the last change sequence number. Every write to a collection advances the sequence
+     * and records the new value on the collection, so a backup made at this sequence number
+     * can be brought up to date with just the collections that have a larger one.
+     *
+     * @param db database
+     * @return the last change sequence number
+     * @throws SQLException if a database error occurs
+     */
+    public static int fetchChangeSequence(SQLiteDatabase db) throws SQLException {
+        String sqlCmd = "SELECT " + COL_SEQUENCE + " FROM " + TBL_CHANGE_SEQUENCE + " LIMIT 1";
+        SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+        int result = simpleQueryForLong(compiledStatement);
+        compiledStatement.close();
+        return result;
+    }
+
+    /**
+     * Advances the change sequence and records it on a collection
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @throws SQLException if a database error occurs
+     */
+    public static void markCollectionChanged(SQLiteDatabase db, String tableName) throws SQLException {
+        db.beginTransaction();
+        try {
+            db.execSQL("UPDATE " + TBL_CHANGE_SEQUENCE + " SET " + COL_SEQUENCE + " = " + COL_SEQUENCE + " + 1");
+            db.execSQL("UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_CHANGE_SEQ + " = "
+                    + "(SELECT " + COL_SEQUENCE + " FROM " + TBL_CHANGE_SEQUENCE + ")"
+                    + " WHERE " + COL_NAME + "=?", new String[]{tableName});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Advances the change sequence and records it on every collection
+     *
+     * @param db database
+     * @throws SQLException if a database error occurs
+     */
+    public static void markAllCollectionsChanged(SQLiteDatabase db) throws SQLException {
+        db.beginTransaction();
+        try {
+            db.execSQL("UPDATE " + TBL_CHANGE_SEQUENCE + " SET " + COL_SEQUENCE + " = " + COL_SEQUENCE + " + 1");
+            db.execSQL("UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_CHANGE_SEQ + " = "
+                    + "(SELECT " + COL_SEQUENCE + " FROM " + TBL_CHANGE_SEQUENCE + ")");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Advances the change sequence without marking any collection, which is used when a
+     * collection is deleted
+     *
+     * @param db database
+     * @throws SQLException if a database error occurs
+     */
+    public static void advanceChangeSequence(SQLiteDatabase db) throws SQLException {
+        db.execSQL("UPDATE " + TBL_CHANGE_SEQUENCE + " SET " + COL_SEQUENCE + " = " + COL_SEQUENCE + " + 1");
+    }
+
+    /**
+     * Sets the change sequence and the sequence number of every collection. This is used
+     * after restoring a backup so the collections match the backup's sequence number.
+     *
+     * @param db             database
+     * @param changeSequence sequence number to set
+     * @throws SQLException if a database error occurs
+     */
+    public static void resetChangeSequence(SQLiteDatabase db, int changeSequence) throws SQLException {
+        db.beginTransaction();
+        try {
+            db.execSQL("UPDATE " + TBL_CHANGE_SEQUENCE + " SET " + COL_SEQUENCE + " = ?",
+                    new Object[]{changeSequence});
+            db.execSQL("UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_CHANGE_SEQ + " = ?",
+                    new Object[]{changeSequence});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Gets the names of the collections that changed after a given change sequence number
+     *
+     * @param db             database
+     * @param changeSequence sequence number of the base backup
+     * @return names of the changed collections
+     * @throws SQLException if a database error occurs
+     */
+    public static ArrayList<String> getCollectionsChangedSince(SQLiteDatabase db, int changeSequence) throws SQLException {
+        ArrayList<String> names = new ArrayList<>();
+        Cursor cursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME}, COL_CHANGE_SEQ + " > ?",
+                new String[]{String.valueOf(changeSequence)}, null, null, COL_DISPLAY_ORDER);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
     /**
      * Returns a list of all collections in the database
      *
@@ -602,40 +1057,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         collectionListEntries.clear();
         String colShowMintMarks = legacyOptions ? COL_SHOW_MINT_MARKS_LEGACY : COL_SHOW_MINT_MARKS;
         String colShowCheckboxes = legacyOptions ? COL_SHOW_CHECKBOXES_LEGACY : COL_SHOW_CHECKBOXES;
-        Cursor cursor = db.query(TBL_COLLECTION_INFO,
-                new String[]{COL_NAME, COL_COIN_TYPE, COL_TOTAL, COL_DISPLAY, COL_START_YEAR,
-                        COL_END_YEAR, colShowMintMarks, colShowCheckboxes},
-                null, null, null, null, COL_DISPLAY_ORDER);
-        if (cursor.moveToFirst()) {
-            do {
-                String tableName = cursor.getString(cursor.getColumnIndexOrThrow(COL_NAME));
-                String coinType = cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_TYPE));
-                // Figure out what collection type maps to this
-                int index = MainApplication.getIndexFromCollectionNameStr(coinType);
-                if (index == -1) {
-                    cursor.close();
-                    throw new SQLException();
-                }
-                // Get the number of coins collected
-                int collected = fetchTotalCollected(db, tableName);
-                if (collected == -1) {
-                    cursor.close();
-                    throw new SQLException();
-                }
-                // Add it to the list of collections
-                collectionListEntries.add(new CollectionListInfo(
-                        tableName,
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_TOTAL)),
-                        collected,
-                        index,
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_DISPLAY)),
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_START_YEAR)),
-                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_END_YEAR)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(colShowMintMarks)),
-                        cursor.getString(cursor.getColumnIndexOrThrow(colShowCheckboxes))));
-            } while (cursor.moveToNext());
+        // Databases old enough to use the legacy columns don't have the cached collected count
+        // yet, so in that case the count is queried from each collection table instead
+        ArrayList<String> columns = new ArrayList<>(Arrays.asList(COL_NAME, COL_COIN_TYPE, COL_TOTAL,
+                COL_DISPLAY, COL_START_YEAR, COL_END_YEAR, colShowMintMarks, colShowCheckboxes));
+        if (!legacyOptions) {
+            columns.add(COL_COLLECTED);
         }
-        cursor.close();
+        Cursor cursor = db.query(TBL_COLLECTION_INFO, columns.toArray(new String[0]),
+                null, null, null, null, COL_DISPLAY_ORDER);
+        new CursorRowMapper.CollectionListInfoMapper(db, cursor, colShowMintMarks, colShowCheckboxes)
+                .mapAll(collectionListEntries);
     }
 
     /**
@@ -645,13 +1077,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @param db            database
      * @param legacyOptions if true, uses the legacy mint marks / checkbox columns
      * @return List of CollectionListInfo populated based on contents
+     * @throws SQLException if a database error occurs
      */
     public static ArrayList<CollectionListInfo> getLegacyCollectionParams(SQLiteDatabase db, boolean legacyOptions) throws SQLException {
 
         ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
         getAllTables(db, collectionListEntries, legacyOptions);
         for (CollectionListInfo collectionListEntry : collectionListEntries) {
-            ArrayList<CoinSlot> coinList = getCoinListForLegacyCollectionParams(db, collectionListEntry.getName());
+            // Databases old enough to use the legacy columns also store each collection's coins
+            // in its own table
+            ArrayList<CoinSlot> coinList = getCoinListForLegacyCollectionParams(db, collectionListEntry.getName(), legacyOptions);
             collectionListEntry.setCreationParametersFromCoinData(coinList);
         }
         return collectionListEntries;
@@ -667,26 +1102,82 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @throws SQLException if a database error occurs
      */
     public static void updateCoinList(SQLiteDatabase db, String tableName, ArrayList<CoinSlot> coinData, boolean updateTotal) throws SQLException {
-        runSqlDelete(db, tableName, "1", null);
-        for (CoinSlot coinSlot : coinData) {
-            ContentValues values = new ContentValues();
-            values.put(COL_COIN_IDENTIFIER, coinSlot.getIdentifier());
-            values.put(COL_COIN_MINT, coinSlot.getMint());
-            values.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
-            values.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
-            values.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
-            values.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
-            values.put(COL_SORT_ORDER, coinSlot.getSortOrder());
-            values.put(COL_CUSTOM_COIN, coinSlot.isCustomCoin());
-            values.put(COL_IMAGE_ID, coinSlot.getImageId());
-            coinSlot.setDatabaseId(runSqlInsert(db, tableName, values));
-        }
-
-        // Update the collection total if needed
-        if (updateTotal) {
+        db.beginTransaction();
+        try {
+            runCoinSqlDelete(db, tableName, null, null);
+            insertCoinList(db, tableName, coinData);
+
+            // Update the collection total if needed
             ContentValues values = new ContentValues();
-            values.put(COL_TOTAL, coinData.size());
+            if (updateTotal) {
+                values.put(COL_TOTAL, coinData.size());
+            }
+            values.put(COL_COLLECTED, countCollected(coinData));
             runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts a list of coins into a collection using a single compiled statement. Callers
+     * should wrap this in a transaction so that all rows are committed together, instead of
+     * each insert being committed (and synced to disk) individually.
+     *
+     * @param db        database
+     * @param tableName the collection name
+     * @param coinData  coins to insert (the database id of each is updated)
+     * @return number of rows inserted
+     * @throws SQLException if a database error occurs
+     */
+    public static int insertCoinList(SQLiteDatabase db, String tableName, ArrayList<CoinSlot> coinData) throws SQLException {
+        if (coinData.isEmpty()) {
+            return 0;
+        }
+        long startTime = System.nanoTime();
+        try (CoinRowInserter coinRows = new CoinRowInserter(db, tableName)) {
+            for (CoinSlot coinSlot : coinData) {
+                coinRows.insert(coinSlot);
+            }
+        }
+
+        if (BuildConfig.DEBUG) {
+            long elapsedUs = Math.max((System.nanoTime() - startTime) / 1000, 1);
+            Log.i(APP_NAME, "Inserted " + coinData.size() + " coins into " + tableName + " in "
+                    + (elapsedUs / 1000) + " ms (" + (coinData.size() * 1000000L / elapsedUs) + " rows/sec)");
+        }
+        return coinData.size();
+    }
+
+    /**
+     * Counts the number of coins in a list that are marked as collected
+     *
+     * @param coinData coins to count
+     * @return number of coins collected
+     */
+    static int countCollected(ArrayList<CoinSlot> coinData) {
+        int collected = 0;
+        for (CoinSlot coinSlot : coinData) {
+            if (coinSlot.isInCollection()) {
+                collected++;
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Binds a string value to a compiled statement, binding NULL if the value is null
+     *
+     * @param compiledStatement statement to bind to
+     * @param index             1-based index of the parameter
+     * @param value             value to bind
+     */
+    static void bindStringOrNull(SQLiteStatement compiledStatement, int index, String value) {
+        if (value != null) {
+            compiledStatement.bindString(index, value);
+        } else {
+            compiledStatement.bindNull(index);
         }
     }
 
@@ -703,28 +1194,34 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static void updateExistingCollection(SQLiteDatabase db, String oldTableName, CollectionListInfo collectionListInfo,
                                                 ArrayList<CoinSlot> coinData, boolean legacyOptions) throws SQLException {
 
-        // Update the coin data
-        if (coinData != null) {
-            updateCoinList(db, oldTableName, coinData, false);
-        }
-
-        String colShowMintMarks = legacyOptions ? COL_SHOW_MINT_MARKS_LEGACY : COL_SHOW_MINT_MARKS;
-        String colShowCheckboxes = legacyOptions ? COL_SHOW_CHECKBOXES_LEGACY : COL_SHOW_CHECKBOXES;
+        db.beginTransaction();
+        try {
+            // Update the coin data
+            if (coinData != null) {
+                updateCoinList(db, oldTableName, coinData, false);
+            }
 
-        // Update the collection info
-        ContentValues values = new ContentValues();
-        values.put(COL_COIN_TYPE, collectionListInfo.getType());
-        values.put(COL_TOTAL, collectionListInfo.getMax());
-        values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
-        values.put(COL_START_YEAR, collectionListInfo.getStartYear());
-        values.put(COL_END_YEAR, collectionListInfo.getEndYear());
-        values.put(colShowMintMarks, collectionListInfo.getMintMarkFlags());
-        values.put(colShowCheckboxes, collectionListInfo.getCheckboxFlags());
-        runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{oldTableName});
+            String colShowMintMarks = legacyOptions ? COL_SHOW_MINT_MARKS_LEGACY : COL_SHOW_MINT_MARKS;
+            String colShowCheckboxes = legacyOptions ? COL_SHOW_CHECKBOXES_LEGACY : COL_SHOW_CHECKBOXES;
 
-        // Rename the collection if needed
-        if (!oldTableName.equals(collectionListInfo.getName())) {
-            updateCollectionName(db, oldTableName, collectionListInfo.getName());
+            // Update the collection info
+            ContentValues values = new ContentValues();
+            values.put(COL_COIN_TYPE, collectionListInfo.getType());
+            values.put(COL_TOTAL, collectionListInfo.getMax());
+            values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
+            values.put(COL_START_YEAR, collectionListInfo.getStartYear());
+            values.put(COL_END_YEAR, collectionListInfo.getEndYear());
+            values.put(colShowMintMarks, collectionListInfo.getMintMarkFlags());
+            values.put(colShowCheckboxes, collectionListInfo.getCheckboxFlags());
+            runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{oldTableName});
+
+            // Rename the collection if needed
+            if (!oldTableName.equals(collectionListInfo.getName())) {
+                updateCollectionName(db, oldTableName, collectionListInfo.getName());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
     }
 
@@ -754,6 +1251,97 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         return db.update("[" + tableName + "]", values, whereClause, whereArgs);
     }
 
+    /**
+     * Gets the id of a collection's info row, which the collection's coins refer to
+     *
+     * @param db        The database
+     * @param tableName the collection name
+     * @return the collection id
+     * @throws SQLException if the collection doesn't exist
+     */
+    static long getCollectionId(SQLiteDatabase db, String tableName) throws SQLException {
+        SQLiteStatement compiledStatement = db.compileStatement(
+                "SELECT " + COL_ID + " FROM " + TBL_COLLECTION_INFO + " WHERE " + COL_NAME + "=? LIMIT 1");
+        try {
+            compiledStatement.bindString(1, tableName);
+            return compiledStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            throw new SQLException();
+        } finally {
+            compiledStatement.close();
+        }
+    }
+
+    /**
+     * Inserts a coin into a collection
+     *
+     * @param db        The database
+     * @param tableName the collection name
+     * @param values    coin values to insert
+     * @return id of the coin inserted
+     * @throws SQLException if an insert error occurred
+     */
+    public static long runCoinSqlInsert(SQLiteDatabase db, String tableName, ContentValues values) throws SQLException {
+        ContentValues coinValues = new ContentValues(values);
+        coinValues.put(COL_COLLECTION_ID, getCollectionId(db, tableName));
+        return db.insertOrThrow(TBL_COINS, null, coinValues);
+    }
+
+    /**
+     * Updates coins in a collection
+     *
+     * @param db          The database
+     * @param tableName   the collection name
+     * @param values      Values to update
+     * @param whereClause Where clause to select coins in the collection, or null for all
+     * @param whereArgs   Where args
+     * @return the number of rows impacted
+     */
+    public static int runCoinSqlUpdate(SQLiteDatabase db, String tableName, ContentValues values, String whereClause, String[] whereArgs) {
+        return db.update(TBL_COINS, values, getCoinWhereClause(whereClause), getCoinWhereArgs(tableName, whereArgs));
+    }
+
+    /**
+     * Deletes coins from a collection
+     *
+     * @param db          The database
+     * @param tableName   the collection name
+     * @param whereClause Where clause to select coins in the collection, or null for all
+     * @param whereArgs   Where args
+     * @return the number of rows impacted
+     */
+    public static int runCoinSqlDelete(SQLiteDatabase db, String tableName, String whereClause, String[] whereArgs) {
+        return db.delete(TBL_COINS, getCoinWhereClause(whereClause), getCoinWhereArgs(tableName, whereArgs));
+    }
+
+    /**
+     * Limits a where clause to the coins of one collection
+     *
+     * @param whereClause where clause, or null for all coins in the collection
+     * @return where clause whose first argument is the collection name
+     */
+    private static String getCoinWhereClause(String whereClause) {
+        return (whereClause == null) ? COIN_SLOT_COLLECTION_WHERE_CLAUSE
+                : COIN_SLOT_COLLECTION_WHERE_CLAUSE + " AND (" + whereClause + ")";
+    }
+
+    /**
+     * Gets the where args to use with getCoinWhereClause
+     *
+     * @param tableName the collection name
+     * @param whereArgs where args, or null if there are none
+     * @return where args starting with the collection name
+     */
+    private static String[] getCoinWhereArgs(String tableName, String[] whereArgs) {
+        int numArgs = (whereArgs != null) ? whereArgs.length : 0;
+        String[] coinWhereArgs = new String[numArgs + 1];
+        coinWhereArgs[0] = tableName;
+        if (numArgs != 0) {
+            System.arraycopy(whereArgs, 0, coinWhereArgs, 1, numArgs);
+        }
+        return coinWhereArgs;
+    }
+
     /**
      * Wrapper for simpleQueryForLong
      *
@@ -0,0 +1,98 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records how long each step of a database upgrade took, so that slow upgrades (Ex: the
+ * first launch after updating from a very old version) can be broken down
+ */
+public class DatabaseUpgradeStats {
+
+    private final int mOldVersion;
+    private final int mNewVersion;
+    private final LinkedHashMap<String, Long> mStepTimesNs = new LinkedHashMap<>();
+    private long mTotalNs = 0;
+
+    /**
+     * Constructor
+     *
+     * @param oldVersion the version upgraded from
+     * @param newVersion the version upgraded to
+     */
+    DatabaseUpgradeStats(int oldVersion, int newVersion) {
+        mOldVersion = oldVersion;
+        mNewVersion = newVersion;
+    }
+
+    /**
+     * Adds time spent on an upgrade step. Steps that run more than once (Ex: upgrading
+     * several collections of the same type) are added together.
+     *
+     * @param step      step name
+     * @param elapsedNs time taken in nanoseconds
+     */
+    void addStepTime(String step, long elapsedNs) {
+        Long stepTimeNs = mStepTimesNs.get(step);
+        mStepTimesNs.put(step, (stepTimeNs != null ? stepTimeNs : 0) + elapsedNs);
+        mTotalNs += elapsedNs;
+    }
+
+    public int getOldVersion() {
+        return mOldVersion;
+    }
+
+    public int getNewVersion() {
+        return mNewVersion;
+    }
+
+    /**
+     * Gets the time taken by each step, in the order the steps first ran
+     *
+     * @return map of step name to time in nanoseconds
+     */
+    public LinkedHashMap<String, Long> getStepTimesNs() {
+        return new LinkedHashMap<>(mStepTimesNs);
+    }
+
+    /**
+     * Gets the total time taken by all steps
+     *
+     * @return time in nanoseconds
+     */
+    public long getTotalNs() {
+        return mTotalNs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "Upgrade from version %d to %d took %.1f ms",
+                mOldVersion, mNewVersion, mTotalNs / 1e6));
+        for (Map.Entry<String, Long> stepTime : mStepTimesNs.entrySet()) {
+            builder.append(String.format(Locale.ROOT, "\n  %s: %.1f ms", stepTime.getKey(), stepTime.getValue() / 1e6));
+        }
+        return builder.toString();
+    }
+}
@@ -35,24 +35,77 @@ import com.opencsv.exceptions.CsvValidationException;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class ExportImportHelper {
 
     // Internal state
     final Resources mRes;
     final DatabaseAdapter mDbAdapter;
+    ProgressReporter mProgressReporter = new ProgressReporter(null);
+    int mExportThreads = 1;
+    int mImportThreads = 1;
+    int mExportCompression = COMPRESSION_NONE;
+    int mLastSnapshotChangeSeq = -1;
 
     public final static String JSON_CHARSET = "UTF-8";
 
+    // Size of the buffer between the export writers and the output stream
+    private final static int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    // Size of the buffer between the input stream and the CSV import reader
+    private final static int IMPORT_BUFFER_SIZE = 64 * 1024;
+
+    // Compression formats for JSON and single-file CSV exports. Imports detect the
+    // format from the first bytes of the file.
+    public final static int COMPRESSION_NONE = 0;
+    public final static int COMPRESSION_GZIP = 1;
+    public final static int COMPRESSION_ZIP = 2;
+    public final static String GZIP_FILE_EXT = ".gz";
+    public final static String ZIP_FILE_EXT = ".zip";
+    public final static String ZIP_ENTRY_JSON = "coin-collection.json";
+    public final static String ZIP_ENTRY_CSV = "coin-collection.csv";
+    public final static String ZIP_ENTRY_SNAPSHOT = "coin-collection" + BackupSnapshot.SNAPSHOT_FILE_EXT;
+    private final static byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    private final static byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+
+    // File types that can be imported from a single file. The type is detected from the
+    // name of the file inside a zip, or else from the start of the (uncompressed) file.
+    public final static int IMPORT_TYPE_JSON = 0;
+    public final static int IMPORT_TYPE_CSV = 1;
+    public final static int IMPORT_TYPE_SNAPSHOT = 2;
+    private final static int IMPORT_TYPE_SNIFF_LENGTH = 64;
+
     // JSON keys
     public final static String JSON_DB_VERSION = "databaseVersion";
     public final static String JSON_COLLECTIONS = "collections";
@@ -94,6 +147,210 @@ public class ExportImportHelper {
         mDbAdapter = dbAdapter;
     }
 
+    /**
+     * Sets the progress reporter to update as collections are imported or exported
+     *
+     * @param progressReporter progress reporter
+     */
+    public void setProgressReporter(ProgressReporter progressReporter) {
+        mProgressReporter = progressReporter;
+    }
+
+    /**
+     * Sets the number of threads used to serialize collections when exporting to JSON or
+     * single-file CSV. With more than one thread, collections are serialized in parallel
+     * and then written out in display order, so the file is the same either way.
+     *
+     * @param numThreads number of threads (1 to serialize each collection in turn)
+     */
+    public void setExportThreads(int numThreads) {
+        mExportThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Sets the number of threads used to parse the collection files when importing from
+     * legacy CSV. The collections are still written to the database in order on the
+     * importing thread.
+     *
+     * @param numThreads number of threads (1 to parse each file in turn)
+     */
+    public void setImportThreads(int numThreads) {
+        mImportThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Sets the compression used for JSON and single-file CSV exports
+     *
+     * @param compression COMPRESSION_NONE, COMPRESSION_GZIP or COMPRESSION_ZIP
+     */
+    public void setExportCompression(int compression) {
+        mExportCompression = compression;
+    }
+
+    /**
+     * Wraps the export output stream to count the bytes written and apply the export compression
+     *
+     * @param outputStream output stream to write to
+     * @param zipEntryName name of the file inside the zip, if zip compression is used
+     * @return stream to write the uncompressed export to
+     * @throws IOException if an error occurs
+     */
+    private OutputStream openExportStream(OutputStream outputStream, String zipEntryName) throws IOException {
+        OutputStream countingStream = mProgressReporter.wrap(outputStream);
+        switch (mExportCompression) {
+            case COMPRESSION_GZIP:
+                return new GZIPOutputStream(countingStream, EXPORT_BUFFER_SIZE);
+            case COMPRESSION_ZIP:
+                ZipOutputStream zipStream = new ZipOutputStream(countingStream);
+                zipStream.putNextEntry(new ZipEntry(zipEntryName));
+                return zipStream;
+            default:
+                return countingStream;
+        }
+    }
+
+    /**
+     * Uncompressed import stream, which remembers the name of the file inside a zip so
+     * the file type can be detected
+     */
+    private static class ImportStream extends BufferedInputStream {
+        final String mZipEntryName;
+
+        ImportStream(InputStream inputStream, String zipEntryName) {
+            super(inputStream);
+            mZipEntryName = zipEntryName;
+        }
+    }
+
+    /**
+     * Wraps the import input stream to count the bytes read, and decompresses it if the file
+     * starts with a gzip or zip header. For a zip file, the first file inside it is imported.
+     * If the stream was already opened (Ex: by importCollectionsFromFile), it's returned as is.
+     *
+     * @param inputStream input stream to read from
+     * @return stream to read the uncompressed import from
+     * @throws IOException if an error occurs
+     */
+    private ImportStream openImportStream(InputStream inputStream) throws IOException {
+        if (inputStream instanceof ImportStream) {
+            return (ImportStream) inputStream;
+        }
+        BufferedInputStream bufferedStream = new BufferedInputStream(mProgressReporter.wrap(inputStream));
+        byte[] header = new byte[ZIP_MAGIC.length];
+        bufferedStream.mark(header.length);
+        int numRead = 0;
+        while (numRead < header.length) {
+            int result = bufferedStream.read(header, numRead, header.length - numRead);
+            if (result == -1) {
+                break;
+            }
+            numRead += result;
+        }
+        bufferedStream.reset();
+
+        if (startsWith(header, numRead, GZIP_MAGIC)) {
+            return new ImportStream(new GZIPInputStream(bufferedStream, EXPORT_BUFFER_SIZE), null);
+        } else if (startsWith(header, numRead, ZIP_MAGIC)) {
+            ZipInputStream zipStream = new ZipInputStream(bufferedStream);
+            ZipEntry zipEntry = zipStream.getNextEntry();
+            if (zipEntry == null) {
+                throw new IOException(mRes.getString(R.string.error_empty_zip));
+            }
+            return new ImportStream(zipStream, zipEntry.getName());
+        }
+        return new ImportStream(bufferedStream, null);
+    }
+
+    /**
+     * Detects the type of file being imported. For a zip file the name of the file inside
+     * it is used, otherwise the start of the uncompressed file is checked: snapshots start
+     * with the snapshot magic bytes, JSON files with '{' and anything else is read as CSV.
+     *
+     * @param importStream opened import stream, which is left at the same position
+     * @return IMPORT_TYPE_JSON, IMPORT_TYPE_CSV or IMPORT_TYPE_SNAPSHOT
+     * @throws IOException if an error occurs
+     */
+    private static int getImportFileType(ImportStream importStream) throws IOException {
+        if (importStream.mZipEntryName != null) {
+            String entryName = importStream.mZipEntryName.toLowerCase(Locale.ROOT);
+            if (entryName.endsWith(".csv")) {
+                return IMPORT_TYPE_CSV;
+            } else if (entryName.endsWith(BackupSnapshot.SNAPSHOT_FILE_EXT)) {
+                return IMPORT_TYPE_SNAPSHOT;
+            } else if (entryName.endsWith(".json")) {
+                return IMPORT_TYPE_JSON;
+            }
+        }
+
+        byte[] header = new byte[IMPORT_TYPE_SNIFF_LENGTH];
+        importStream.mark(header.length);
+        int numRead = 0;
+        while (numRead < header.length) {
+            int result = importStream.read(header, numRead, header.length - numRead);
+            if (result == -1) {
+                break;
+            }
+            numRead += result;
+        }
+        importStream.reset();
+
+        if (startsWith(header, numRead, BackupSnapshot.MAGIC)) {
+            return IMPORT_TYPE_SNAPSHOT;
+        }
+        for (int i = 0; i < numRead; i++) {
+            int b = header[i] & 0xff;
+            // Skip a UTF-8 byte order mark and whitespace
+            if (b == 0xef || b == 0xbb || b == 0xbf || Character.isWhitespace(b)) {
+                continue;
+            }
+            return (b == '{') ? IMPORT_TYPE_JSON : IMPORT_TYPE_CSV;
+        }
+        return IMPORT_TYPE_CSV;
+    }
+
+    /**
+     * This method imports collections from a JSON, single-file CSV or snapshot file, which
+     * may be compressed. The file type is detected from the file itself, since the name of
+     * a compressed file doesn't say what's inside it.
+     *
+     * @param inputStream input stream to read from
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importCollectionsFromFile(InputStream inputStream) {
+        try (ImportStream importStream = openImportStream(inputStream)) {
+            switch (getImportFileType(importStream)) {
+                case IMPORT_TYPE_CSV:
+                    return importCollectionsFromSingleCSV(importStream);
+                case IMPORT_TYPE_SNAPSHOT:
+                    return importCollectionsFromSnapshot(importStream);
+                default:
+                    return importCollectionsFromJson(importStream);
+            }
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether a file header starts with the given magic bytes
+     *
+     * @param header     header bytes read from the file
+     * @param headerSize number of header bytes read
+     * @param magic      magic bytes to look for
+     * @return true if the header starts with the magic bytes
+     */
+    private static boolean startsWith(byte[] header, int headerSize, byte[] magic) {
+        if (headerSize < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * This method imports collections from the external storage (legacy storage). New versions
      * of the app export to JSON and store in a user-accessible storage location
@@ -126,7 +383,6 @@ public class ExportImportHelper {
         File inputFile = new File(dir, LEGACY_EXPORT_DB_VERSION_FILE);
         int importDatabaseVersion;
         ArrayList<CollectionListInfo> importedCollectionInfoList = new ArrayList<>();
-        ArrayList<ArrayList<CoinSlot>> importedCollectionContents = new ArrayList<>();
         try {
             ArrayList<String[]> fileContents = getCsvFileContents(inputFile);
             if (!fileContents.isEmpty() && fileContents.get(0).length > 0) {
@@ -149,48 +405,134 @@ public class ExportImportHelper {
             return mRes.getString(R.string.error_open_file_reading, inputFile.getAbsolutePath());
         }
 
-        // We loaded in the collection "metadata" table, so now load in each collection
+        // We loaded in the collection "metadata" table, so now load in each collection. The
+        // files are parsed ahead on worker threads (if enabled) while each parsed collection is
+        // written to the database here, in order and in a single transaction.
         ArrayList<String> collectionErrorMessages = new ArrayList<>();
-        for (int i = 0; i < importedCollectionInfoList.size(); i++) {
-            CollectionListInfo collectionData = importedCollectionInfoList.get(i);
-            // If any '/''s exist in the collection name, change them to "_SL_" to match
-            // the export logic (used to prevent slashes from being confused as path
-            // delimiters when opening the file.)
-            String collectionFileName = collectionData.getName().replaceAll("/", "_SL_");
-            inputFile = new File(dir, collectionFileName + ".csv");
-
-            if (!inputFile.isFile()) {
-                collectionErrorMessages.add(mRes.getString(R.string.cannot_find_input_file, inputFile.getAbsolutePath()));
-                continue;
+        int numCollections = importedCollectionInfoList.size();
+        ExecutorService executor = (mImportThreads > 1) ? Executors.newFixedThreadPool(mImportThreads) : null;
+        mDbAdapter.beginTransaction();
+        try {
+            replaceCollectionsForImport();
+            mProgressReporter.setCollectionsTotal(numCollections);
+            ArrayDeque<Future<LegacyCollectionFile>> pending = new ArrayDeque<>();
+            int numSubmitted = 0;
+            for (int i = 0; i < numCollections; i++) {
+                LegacyCollectionFile collectionFile;
+                if (executor != null) {
+                    while (numSubmitted < numCollections && pending.size() < mImportThreads * 2) {
+                        CollectionListInfo collectionData = importedCollectionInfoList.get(numSubmitted++);
+                        pending.add(executor.submit(() -> readLegacyCollectionFile(dir, collectionData)));
+                    }
+                    collectionFile = getLegacyCollectionFile(pending.remove());
+                } else {
+                    collectionFile = readLegacyCollectionFile(dir, importedCollectionInfoList.get(i));
+                }
+
+                // After an error nothing is imported, but the remaining files are still
+                // read so that every problem is reported
+                if (collectionFile.mErrorMessage != null) {
+                    collectionErrorMessages.add(collectionFile.mErrorMessage);
+                } else if (collectionErrorMessages.isEmpty()) {
+                    importCollection(importedCollectionInfoList.get(i), collectionFile.mCoinList, i);
+                }
             }
 
-            // Read in the file
-            ArrayList<CoinSlot> collectionContent = new ArrayList<>();
-            try {
-                ArrayList<String[]> fileContents = getCsvFileContents(inputFile);
-                int coinIndex = 0;
-                for (String[] items : fileContents) {
-                    collectionContent.add(new CoinSlot(items, coinIndex++));
+            if (!collectionErrorMessages.isEmpty()) {
+                // An error occurred in one or more of the databases so show an error
+                StringBuilder problems = new StringBuilder();
+                for (String message : collectionErrorMessages) {
+                    problems.append("\n").append(message);
                 }
-            } catch (IOException | CsvValidationException ignored) {
-                collectionErrorMessages.add(mRes.getString(R.string.error_open_file_reading, inputFile.getAbsolutePath()));
-                continue;
+                return mRes.getString(R.string.error_exporting_collections, problems.toString());
+            }
+
+            upgradeImportedCollections(importDatabaseVersion);
+            mDbAdapter.setTransactionSuccessful();
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
-            importedCollectionContents.add(collectionContent);
+            mDbAdapter.endTransaction();
+        }
+
+        // Success!
+        return "";
+    }
+
+    /**
+     * Coins parsed from a legacy CSV collection file, or the error if it couldn't be read
+     */
+    private static class LegacyCollectionFile {
+        final ArrayList<CoinSlot> mCoinList;
+        final String mErrorMessage;
+
+        LegacyCollectionFile(ArrayList<CoinSlot> coinList, String errorMessage) {
+            mCoinList = coinList;
+            mErrorMessage = errorMessage;
         }
+    }
 
-        if (!collectionErrorMessages.isEmpty()) {
-            // An error occurred in one or more of the databases so show an error
-            StringBuilder problems = new StringBuilder();
-            for (String message : collectionErrorMessages) {
-                problems.append("\n").append(message);
+    /**
+     * Reads the coins for a collection from its legacy CSV file. Each row is converted to a
+     * CoinSlot as it's read, rather than holding the whole file as rows of strings first.
+     * This may be called on a worker thread.
+     *
+     * @param dir            import directory
+     * @param collectionData collection to read
+     * @return the coins, or an error message
+     */
+    private LegacyCollectionFile readLegacyCollectionFile(File dir, CollectionListInfo collectionData) {
+        // If any '/''s exist in the collection name, change them to "_SL_" to match
+        // the export logic (used to prevent slashes from being confused as path
+        // delimiters when opening the file.)
+        String collectionFileName = collectionData.getName().replaceAll("/", "_SL_");
+        File inputFile = new File(dir, collectionFileName + ".csv");
+
+        if (!inputFile.isFile()) {
+            return new LegacyCollectionFile(null,
+                    mRes.getString(R.string.cannot_find_input_file, inputFile.getAbsolutePath()));
+        }
+
+        // Read in the file
+        ArrayList<CoinSlot> collectionContent = new ArrayList<>();
+        try (CSVReader csvReader = getLegacyCsvReader(inputFile)) {
+            String[] items;
+            int coinIndex = 0;
+            while (null != (items = csvReader.readNext())) {
+                collectionContent.add(new CoinSlot(items, coinIndex++));
             }
-            return mRes.getString(R.string.error_exporting_collections, problems.toString());
+        } catch (IOException | CsvValidationException ignored) {
+            return new LegacyCollectionFile(null,
+                    mRes.getString(R.string.error_open_file_reading, inputFile.getAbsolutePath()));
         }
+        return new LegacyCollectionFile(collectionContent, null);
+    }
 
-        // All data has been parsed from CSV files so perform the DB steps to import
-        return updateDatabaseFromImport(importDatabaseVersion, importedCollectionInfoList,
-                importedCollectionContents);
+    /**
+     * Waits for a collection file to be read on a worker thread, rethrowing any unexpected
+     * error from the worker thread
+     *
+     * @param future read result
+     * @return the coins, or an error message
+     * @throws SQLException if the import was interrupted
+     */
+    private static LegacyCollectionFile getLegacyCollectionFile(Future<LegacyCollectionFile> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Import interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("Failed to read collection file", cause);
+        }
     }
 
     /**
@@ -258,6 +600,7 @@ public class ExportImportHelper {
         }
 
         // Write out all of the other tables
+        mProgressReporter.setCollectionsTotal(collectionListEntries.size());
         for (int i = 0; i < collectionListEntries.size(); i++) {
             CollectionListInfo item = collectionListEntries.get(i);
             String name = item.getName();
@@ -278,6 +621,7 @@ public class ExportImportHelper {
             } catch (IOException e) {
                 return mRes.getString(R.string.error_exporting, e.getMessage());
             }
+            mProgressReporter.addCollectionDone(coinList.size());
         }
         return mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME);
     }
@@ -291,10 +635,15 @@ public class ExportImportHelper {
     public String importCollectionsFromJson(InputStream inputStream) {
 
         int importDatabaseVersion = 0;
-        ArrayList<CollectionListInfo> importedCollectionInfoList = new ArrayList<>();
-        ArrayList<ArrayList<CoinSlot>> importedCollectionContents = new ArrayList<>();
+        int numImported = 0;
+
+        // Each collection is written to the database as soon as it's parsed, so only one
+        // collection is held in memory at a time. Everything happens in one transaction, so
+        // the existing collections are only replaced if the whole import succeeds.
+        mDbAdapter.beginTransaction();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(openImportStream(inputStream), JSON_CHARSET))) {
+            replaceCollectionsForImport();
 
-        try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, JSON_CHARSET))) {
             // Parse the JSON file
             reader.beginObject();
             while (reader.hasNext()) {
@@ -307,8 +656,8 @@ public class ExportImportHelper {
                         reader.beginArray();
                         while (reader.hasNext()) {
                             ArrayList<CoinSlot> coinList = new ArrayList<>();
-                            importedCollectionInfoList.add(new CollectionListInfo(reader, coinList));
-                            importedCollectionContents.add(coinList);
+                            CollectionListInfo collectionListInfo = new CollectionListInfo(reader, coinList);
+                            importCollection(collectionListInfo, coinList, numImported++);
                         }
                         reader.endArray();
                         break;
@@ -318,64 +667,227 @@ public class ExportImportHelper {
                 }
             }
             reader.endObject();
-            // All data has been parsed from CSV files so perform the DB steps to import
-            return updateDatabaseFromImport(importDatabaseVersion, importedCollectionInfoList,
-                    importedCollectionContents);
-        } catch (IOException e) {
+
+            // The database version may come after the collections, so upgrade once all
+            // collections are in place
+            upgradeImportedCollections(importDatabaseVersion);
+            mDbAdapter.setTransactionSuccessful();
+        } catch (IOException | IllegalStateException e) {
             return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            mDbAdapter.endTransaction();
         }
+
+        // Success!
+        return "";
     }
 
     /**
-     * Update the database with the imported data
+     * This method merges collections from a JSON file into the existing collections, rather
+     * than replacing them. Imported collections are matched to existing collections by name
+     * (ignoring case) and coins are matched by identifier, mint and sort order. Only coins
+     * that are new or have different attributes are written, and existing collections and
+     * coins that aren't in the import are left alone. Collections that don't exist yet are
+     * added after the existing ones.
+     * <p>
+     * The whole merge happens in one transaction, so an error part way through leaves the
+     * existing collections unchanged. Merging the same file again is safe since coins that
+     * already match aren't changed.
+     * <p>
+     * Collections are merged as they're read when the database version comes first in the
+     * file (as it does in exported files), otherwise they're read into memory until the
+     * version is known. Collections can't be upgraded once merged, so only files from the
+     * current database version can be merged.
      *
-     * @param importDatabaseVersion      imported database version
-     * @param importedCollectionInfoList imported list of CollectionListInfo
-     * @param importedCollectionContents imported list of coins
-     * @return "" if successful, otherwise an error string
+     * @param inputStream  input stream to read from
+     * @param dryRun       if true, the database isn't changed and the results only report
+     *                     what would change
+     * @param mergeResults populated with the results for each imported collection
+     * @return "" if successful, otherwise an error message to display
      */
-    private String updateDatabaseFromImport(int importDatabaseVersion,
-                                            ArrayList<CollectionListInfo> importedCollectionInfoList,
-                                            ArrayList<ArrayList<CoinSlot>> importedCollectionContents) {
+    public String mergeCollectionsFromJson(InputStream inputStream, boolean dryRun,
+                                           ArrayList<CollectionMergeResult> mergeResults) {
 
-        // Drop existing tables
-        ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
-        mDbAdapter.getAllTables(existingCollections);
-        for (int i = 0; i < existingCollections.size(); i++) {
-            CollectionListInfo info = existingCollections.get(i);
-            mDbAdapter.dropCollectionTable(info.getName());
+        int importDatabaseVersion = -1;
+        if (!dryRun) {
+            mDbAdapter.beginTransaction();
         }
-        mDbAdapter.dropCollectionInfoTable();
+        try (ImportStream importStream = openImportStream(inputStream)) {
+            if (getImportFileType(importStream) != IMPORT_TYPE_JSON) {
+                return mRes.getString(R.string.error_merge_format);
+            }
+            JsonReader reader = new JsonReader(new InputStreamReader(importStream, JSON_CHARSET));
+
+            // Look up the existing collections by their case-folded names
+            ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
+            mDbAdapter.getAllTables(existingCollections);
+            HashMap<String, CollectionListInfo> existingCollectionsByName = new HashMap<>();
+            for (CollectionListInfo collectionListInfo : existingCollections) {
+                existingCollectionsByName.put(DatabaseAdapter.foldCollectionName(collectionListInfo.getName()), collectionListInfo);
+            }
+            HashSet<String> importedNames = new HashSet<>();
+            int nextDisplayOrder = mDbAdapter.getNextDisplayOrder();
 
-        // Take the data we've stored and replace what's in the database with it
-        try {
-            // Add new collections
-            mDbAdapter.createCollectionInfoTable();
-            for (int i = 0; i < importedCollectionInfoList.size(); i++) {
-                CollectionListInfo collectionListInfo = importedCollectionInfoList.get(i);
-                ArrayList<CoinSlot> collectionContent = importedCollectionContents.get(i);
-
-                // Check for duplicate or illegal names
-                int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
-                if (checkName != -1) {
-                    return mRes.getString(R.string.error_import);
+            // Collections read before the database version, if any
+            ArrayList<CollectionListInfo> bufferedCollections = new ArrayList<>();
+            ArrayList<ArrayList<CoinSlot>> bufferedCoinLists = new ArrayList<>();
+
+            // Parse the JSON file
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case JSON_DB_VERSION:
+                        importDatabaseVersion = reader.nextInt();
+                        break;
+                    case JSON_COLLECTIONS:
+                        if (importDatabaseVersion != -1 && importDatabaseVersion != MainApplication.DATABASE_VERSION) {
+                            return mRes.getString(R.string.error_merge_version, importDatabaseVersion);
+                        }
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            ArrayList<CoinSlot> coinList = new ArrayList<>();
+                            CollectionListInfo collectionListInfo = new CollectionListInfo(reader, coinList);
+                            if (importDatabaseVersion == -1) {
+                                bufferedCollections.add(collectionListInfo);
+                                bufferedCoinLists.add(coinList);
+                            } else if (mergeCollection(collectionListInfo, coinList, existingCollectionsByName,
+                                    importedNames, nextDisplayOrder, dryRun, mergeResults)) {
+                                nextDisplayOrder++;
+                            }
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
-                mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, collectionContent);
             }
+            reader.endObject();
 
-            // Update any imported tables, if necessary
             if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
-                mDbAdapter.upgradeDbForImport(importDatabaseVersion);
+                if (importDatabaseVersion == -1) {
+                    return mRes.getString(R.string.error_merge_no_version);
+                }
+                return mRes.getString(R.string.error_merge_version, importDatabaseVersion);
             }
+            for (int i = 0; i < bufferedCollections.size(); i++) {
+                if (mergeCollection(bufferedCollections.get(i), bufferedCoinLists.get(i), existingCollectionsByName,
+                        importedNames, nextDisplayOrder, dryRun, mergeResults)) {
+                    nextDisplayOrder++;
+                }
+            }
+            if (!dryRun) {
+                mDbAdapter.setTransactionSuccessful();
+            }
+        } catch (IOException | IllegalStateException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
         } catch (SQLException e) {
             // Report an import error message to display on the UI thread
             return mRes.getString(R.string.error_import);
+        } finally {
+            if (!dryRun) {
+                mDbAdapter.endTransaction();
+            }
         }
 
         // Success!
         return "";
     }
 
+    /**
+     * Merges one imported collection into the existing collection with the same name (ignoring
+     * case), or adds it as a new collection if there isn't one
+     *
+     * @param collectionListInfo        imported collection info
+     * @param coinList                  imported coins
+     * @param existingCollectionsByName existing collections, by case-folded name
+     * @param importedNames             case-folded names of the collections merged so far
+     * @param displayOrder              display order to use if the collection is new
+     * @param dryRun                    if true, the database isn't changed
+     * @param mergeResults              the result for the collection is added to this
+     * @return true if the collection is new
+     * @throws IOException  if the collection is in the file more than once or the name is invalid
+     * @throws SQLException if a database error occurs
+     */
+    private boolean mergeCollection(CollectionListInfo collectionListInfo, ArrayList<CoinSlot> coinList,
+                                    HashMap<String, CollectionListInfo> existingCollectionsByName,
+                                    HashSet<String> importedNames, int displayOrder, boolean dryRun,
+                                    ArrayList<CollectionMergeResult> mergeResults) throws IOException, SQLException {
+        String foldedName = DatabaseAdapter.foldCollectionName(collectionListInfo.getName());
+        if (!importedNames.add(foldedName)) {
+            throw new IOException("Collection " + collectionListInfo.getName() + " is in the file more than once");
+        }
+        boolean isNew = false;
+        CollectionListInfo existingCollection = existingCollectionsByName.get(foldedName);
+        if (existingCollection != null) {
+            mergeResults.add(mDbAdapter.mergeIntoCollection(existingCollection.getName(), coinList, dryRun));
+        } else {
+            int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
+            if (checkName != -1) {
+                throw new IOException(mRes.getString(checkName));
+            }
+            if (!dryRun) {
+                mDbAdapter.createAndPopulateNewTable(collectionListInfo, displayOrder, coinList);
+            }
+            mergeResults.add(new CollectionMergeResult(collectionListInfo.getName(), true, coinList.size(), 0));
+            isNew = true;
+        }
+        mProgressReporter.addCollectionDone(coinList.size());
+        return isNew;
+    }
+
+    /**
+     * Drops the existing collections and creates an empty collection info table.
+     * This must be called inside the import transaction.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    private void replaceCollectionsForImport() throws SQLException {
+        ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
+        mDbAdapter.getAllTables(existingCollections);
+        for (int i = 0; i < existingCollections.size(); i++) {
+            CollectionListInfo info = existingCollections.get(i);
+            mDbAdapter.dropCollectionTable(info.getName());
+        }
+        mDbAdapter.dropCollectionInfoTable();
+        mDbAdapter.createCollectionInfoTable();
+    }
+
+    /**
+     * Adds an imported collection to the database
+     *
+     * @param collectionListInfo imported collection info
+     * @param coinList           imported coins
+     * @param displayOrder       display order of the collection
+     * @throws SQLException if the name is invalid or a database error occurs
+     */
+    private void importCollection(CollectionListInfo collectionListInfo, ArrayList<CoinSlot> coinList,
+                                  int displayOrder) throws SQLException {
+        // Check for duplicate or illegal names
+        int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
+        if (checkName != -1) {
+            throw new SQLException();
+        }
+        mDbAdapter.createAndPopulateNewTable(collectionListInfo, displayOrder, coinList);
+        mProgressReporter.addCollectionDone(coinList.size());
+    }
+
+    /**
+     * Updates the imported collections, if they came from an older database version
+     *
+     * @param importDatabaseVersion imported database version
+     * @throws SQLException if a database error occurs
+     */
+    private void upgradeImportedCollections(int importDatabaseVersion) throws SQLException {
+        if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
+            mDbAdapter.upgradeDbForImport(importDatabaseVersion, mProgressReporter);
+        }
+    }
+
     /**
      * Exports the collection information to JSON
      *
@@ -389,15 +901,29 @@ public class ExportImportHelper {
         ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
         mDbAdapter.getAllTables(collectionListEntries);
 
-        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(outputStream, JSON_CHARSET))) {
+        mProgressReporter.setCollectionsTotal(collectionListEntries.size());
+        try (Writer bufferedWriter = new BufferedWriter(new OutputStreamWriter(
+                openExportStream(outputStream, ZIP_ENTRY_JSON), JSON_CHARSET), EXPORT_BUFFER_SIZE);
+             JsonWriter writer = new JsonWriter(bufferedWriter)) {
             writer.beginObject();
             writer.name(JSON_DB_VERSION).value(MainApplication.DATABASE_VERSION);
             writer.name(JSON_COLLECTIONS).beginArray();
-            for (int i = 0; i < collectionListEntries.size(); i++) {
-                // Add the collection and coin info
-                CollectionListInfo collectionListInfo = collectionListEntries.get(i);
-                ArrayList<CoinSlot> coinList = mDbAdapter.getCoinList(collectionListInfo.getName(), true);
-                collectionListInfo.writeToJson(writer, mDbAdapter, coinList);
+            if (mExportThreads > 1) {
+                // Each collection is serialized as a standalone JSON object and appended to the
+                // array here, with the same separator JsonWriter would have written
+                writer.flush();
+                writeCollectionsInParallel(bufferedWriter, collectionListEntries, ",", collectionListInfo -> {
+                    StringWriter stringWriter = new StringWriter();
+                    try (JsonWriter collectionWriter = new JsonWriter(stringWriter)) {
+                        int numCoins = writeCollectionToJson(collectionWriter, collectionListInfo);
+                        return new SerializedCollection(stringWriter, numCoins);
+                    }
+                });
+            } else {
+                for (int i = 0; i < collectionListEntries.size(); i++) {
+                    int numCoins = writeCollectionToJson(writer, collectionListEntries.get(i));
+                    mProgressReporter.addCollectionDone(numCoins);
+                }
             }
             writer.endArray();
             writer.endObject();
@@ -407,6 +933,311 @@ public class ExportImportHelper {
         }
     }
 
+    /**
+     * Exports the collection information to a binary snapshot
+     *
+     * @param outputStream output stream to write to
+     * @param filePath     file path being written to
+     * @return A message to be displayed to the user, whether successful or not
+     */
+    public String exportCollectionsToSnapshot(OutputStream outputStream, String filePath) {
+
+        // Read the change sequence first, so that anything changed during the export is
+        // also included in the next differential snapshot
+        int changeSeq = mDbAdapter.fetchChangeSequence();
+
+        // Get all collection lists from the database
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTables(collectionListEntries);
+
+        mProgressReporter.setCollectionsTotal(collectionListEntries.size());
+        try (OutputStream snapshotStream = new BufferedOutputStream(
+                openExportStream(outputStream, ZIP_ENTRY_SNAPSHOT), EXPORT_BUFFER_SIZE)) {
+            BackupSnapshot.writeHeader(snapshotStream, MainApplication.DATABASE_VERSION, changeSeq,
+                    collectionListEntries.size());
+            writeSnapshotBlocks(snapshotStream, collectionListEntries);
+            mLastSnapshotChangeSeq = changeSeq;
+            return mRes.getString(R.string.success_export, filePath);
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_exporting, e.getMessage());
+        }
+    }
+
+    /**
+     * Exports the collections that changed since a previous snapshot to a differential snapshot.
+     * To restore it, it's applied on top of the base snapshot (and any differential snapshots
+     * made in between) with restoreSnapshotChain.
+     *
+     * @param outputStream  output stream to write to
+     * @param filePath      file path being written to
+     * @param baseChangeSeq change sequence number of the previous snapshot, which can be read
+     *                      with getSnapshotChangeSeq
+     * @return A message to be displayed to the user, whether successful or not
+     */
+    public String exportDifferentialSnapshot(OutputStream outputStream, String filePath, int baseChangeSeq) {
+
+        // As with full snapshots, read the change sequence first
+        int changeSeq = mDbAdapter.fetchChangeSequence();
+        if (baseChangeSeq > changeSeq) {
+            return mRes.getString(R.string.error_exporting, "The base snapshot is newer than the database");
+        }
+        HashSet<String> changedNames = new HashSet<>(mDbAdapter.getCollectionsChangedSince(baseChangeSeq));
+
+        // Every collection is listed in the header, but only the changed ones are written
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTables(collectionListEntries);
+        ArrayList<String> collectionNames = new ArrayList<>();
+        ArrayList<CollectionListInfo> changedEntries = new ArrayList<>();
+        for (CollectionListInfo collectionListInfo : collectionListEntries) {
+            collectionNames.add(collectionListInfo.getName());
+            if (changedNames.contains(collectionListInfo.getName())) {
+                changedEntries.add(collectionListInfo);
+            }
+        }
+
+        mProgressReporter.setCollectionsTotal(changedEntries.size());
+        try (OutputStream snapshotStream = new BufferedOutputStream(
+                openExportStream(outputStream, ZIP_ENTRY_SNAPSHOT), EXPORT_BUFFER_SIZE)) {
+            BackupSnapshot.writeDifferentialHeader(snapshotStream, MainApplication.DATABASE_VERSION, changeSeq,
+                    baseChangeSeq, collectionNames, changedEntries.size());
+            writeSnapshotBlocks(snapshotStream, changedEntries);
+            mLastSnapshotChangeSeq = changeSeq;
+            return mRes.getString(R.string.success_export, filePath);
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_exporting, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a snapshot block for each collection
+     *
+     * @param snapshotStream        stream to write to
+     * @param collectionListEntries collections to write
+     * @throws IOException if an error occurs
+     */
+    private void writeSnapshotBlocks(OutputStream snapshotStream, ArrayList<CollectionListInfo> collectionListEntries)
+            throws IOException {
+        for (CollectionListInfo collectionListInfo : collectionListEntries) {
+            BackupSnapshot.BlockWriter block;
+            try (CoinRowWriter coinRows = mDbAdapter.getCoinRowWriter(collectionListInfo.getName())) {
+                block = BackupSnapshot.encodeCollection(collectionListInfo, mDbAdapter, coinRows);
+            }
+            BackupSnapshot.writeBlock(snapshotStream, block);
+            mProgressReporter.addCollectionDone(block.getNumCoins());
+        }
+    }
+
+    /**
+     * Gets the change sequence number recorded in a snapshot, which is used as the base when
+     * making the next differential snapshot
+     *
+     * @param inputStream input stream to read from
+     * @return change sequence number of the snapshot
+     * @throws IOException if the file isn't a snapshot, or an error occurs
+     */
+    public int getSnapshotChangeSeq(InputStream inputStream) throws IOException {
+        try (InputStream snapshotStream = openImportStream(inputStream)) {
+            return new BackupSnapshot.SnapshotReader(snapshotStream).mChangeSeq;
+        }
+    }
+
+    /**
+     * Gets the change sequence number of the last snapshot exported or restored by this
+     * helper, which can be saved and used as the base of the next differential snapshot
+     *
+     * @return change sequence number, or -1 if no snapshot was exported or restored
+     */
+    public int getLastSnapshotChangeSeq() {
+        return mLastSnapshotChangeSeq;
+    }
+
+    /**
+     * Works out the order to restore a set of snapshots in: the full snapshot first, followed
+     * by each differential snapshot based on the one before it. This lets the user pick the
+     * files of a snapshot chain in any order.
+     *
+     * @param inputStreams input streams to read the snapshot headers from. These are closed
+     *                     once read, so the snapshots must be re-opened to restore them.
+     * @return indexes into inputStreams, in the order to restore them in
+     * @throws IOException if the snapshots don't form a single chain, or an error occurs
+     */
+    public int[] getSnapshotChainOrder(List<InputStream> inputStreams) throws IOException {
+        ArrayList<BackupSnapshot.SnapshotReader> readers = new ArrayList<>();
+        try {
+            for (InputStream inputStream : inputStreams) {
+                try (InputStream snapshotStream = openImportStream(inputStream)) {
+                    readers.add(new BackupSnapshot.SnapshotReader(snapshotStream));
+                }
+            }
+        } finally {
+            for (InputStream inputStream : inputStreams) {
+                inputStream.close();
+            }
+        }
+
+        // Start from the full snapshot, then follow the base change sequence numbers
+        int[] order = new int[readers.size()];
+        boolean[] used = new boolean[readers.size()];
+        for (int i = 0; i < order.length; i++) {
+            int next = -1;
+            for (int j = 0; j < readers.size(); j++) {
+                BackupSnapshot.SnapshotReader reader = readers.get(j);
+                boolean isNext = (i == 0) ? (reader.mType == BackupSnapshot.TYPE_FULL)
+                        : (reader.mType == BackupSnapshot.TYPE_DIFFERENTIAL
+                        && reader.mBaseChangeSeq == readers.get(order[i - 1]).mChangeSeq);
+                if (!used[j] && isNext) {
+                    if (next != -1) {
+                        throw new IOException("The snapshots don't form a single chain");
+                    }
+                    next = j;
+                }
+            }
+            if (next == -1) {
+                throw new IOException((i == 0) ? "A differential snapshot must be restored after its base snapshot"
+                        : "The differential snapshot isn't based on the previous snapshot");
+            }
+            order[i] = next;
+            used[next] = true;
+        }
+        return order;
+    }
+
+    /**
+     * This method imports collections from a binary snapshot
+     *
+     * @param inputStream input stream to read from
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importCollectionsFromSnapshot(InputStream inputStream) {
+        return restoreSnapshotChain(Collections.singletonList(inputStream));
+    }
+
+    /**
+     * This method restores a full snapshot followed by a chain of differential snapshots,
+     * each of which must be based on the one before it
+     *
+     * @param inputStreams input streams to read from, starting with the full snapshot
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String restoreSnapshotChain(List<InputStream> inputStreams) {
+
+        // As with JSON imports, each collection is written to the database as soon as it's
+        // decoded, and everything happens in one transaction
+        int priorChangeSeq = mDbAdapter.fetchChangeSequence();
+        mDbAdapter.beginTransaction();
+        try {
+            int dbVersion = MainApplication.DATABASE_VERSION;
+            int changeSeq = 0;
+            for (int i = 0; i < inputStreams.size(); i++) {
+                try (InputStream snapshotStream = openImportStream(inputStreams.get(i))) {
+                    BackupSnapshot.SnapshotReader reader = new BackupSnapshot.SnapshotReader(snapshotStream);
+                    if (i == 0) {
+                        if (reader.mType != BackupSnapshot.TYPE_FULL) {
+                            throw new IOException("A differential snapshot must be restored after its base snapshot");
+                        }
+                        dbVersion = reader.mDbVersion;
+                        restoreFullSnapshot(reader);
+                    } else {
+                        // Each snapshot must pick up where the previous one left off. Upgrades
+                        // are applied once at the end, so the versions must match too.
+                        if (reader.mType != BackupSnapshot.TYPE_DIFFERENTIAL
+                                || reader.mBaseChangeSeq != changeSeq || reader.mDbVersion != dbVersion) {
+                            throw new IOException("The differential snapshot isn't based on the previous snapshot");
+                        }
+                        applyDifferentialSnapshot(reader);
+                    }
+                    changeSeq = reader.mChangeSeq;
+                }
+            }
+            upgradeImportedCollections(dbVersion);
+
+            // Match the restored collections to the last snapshot, so that the next differential
+            // snapshot can be based on it. This is skipped if it would move the sequence back,
+            // since older backups of this database would no longer be a valid base, or if the
+            // collections were upgraded and no longer match the snapshot.
+            if (priorChangeSeq < changeSeq && dbVersion == MainApplication.DATABASE_VERSION) {
+                mDbAdapter.resetChangeSequence(changeSeq);
+            }
+            mDbAdapter.setTransactionSuccessful();
+
+            // Either way, every collection changed after the last snapshot is newer than it,
+            // so the last snapshot can be the base of the next differential snapshot
+            mLastSnapshotChangeSeq = changeSeq;
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            mDbAdapter.endTransaction();
+        }
+
+        // Success!
+        return "";
+    }
+
+    /**
+     * Replaces the collections in the database with the ones in a full snapshot.
+     * This must be called inside the import transaction.
+     *
+     * @param reader snapshot to read from
+     * @throws IOException    if the snapshot is not valid
+     * @throws SQLException if a database error occurs
+     */
+    private void restoreFullSnapshot(BackupSnapshot.SnapshotReader reader) throws IOException, SQLException {
+        replaceCollectionsForImport();
+        mProgressReporter.setCollectionsTotal(reader.mNumCollections);
+        for (int i = 0; i < reader.mNumCollections; i++) {
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            CollectionListInfo collectionListInfo = BackupSnapshot.decodeCollection(reader.readBlock(), coinList);
+            importCollection(collectionListInfo, coinList, i);
+        }
+    }
+
+    /**
+     * Applies a differential snapshot to the collections in the database. Collections that
+     * aren't in the snapshot's list of names are removed, the changed collections are replaced
+     * and then everything is put in the snapshot's display order.
+     * This must be called inside the import transaction.
+     *
+     * @param reader snapshot to read from
+     * @throws IOException    if the snapshot is not valid
+     * @throws SQLException if a database error occurs
+     */
+    private void applyDifferentialSnapshot(BackupSnapshot.SnapshotReader reader) throws IOException, SQLException {
+        HashSet<String> snapshotNames = new HashSet<>(reader.mCollectionNames);
+        HashSet<String> existingNames = new HashSet<>();
+        ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
+        mDbAdapter.getAllTables(existingCollections);
+        for (CollectionListInfo collectionListInfo : existingCollections) {
+            String name = collectionListInfo.getName();
+            if (snapshotNames.contains(name)) {
+                existingNames.add(name);
+            } else {
+                mDbAdapter.dropCollectionTable(name);
+            }
+        }
+
+        mProgressReporter.setCollectionsTotal(reader.mNumCollections);
+        for (int i = 0; i < reader.mNumCollections; i++) {
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            CollectionListInfo collectionListInfo = BackupSnapshot.decodeCollection(reader.readBlock(), coinList);
+            String name = collectionListInfo.getName();
+            if (!snapshotNames.contains(name)) {
+                throw new IOException("Collection " + name + " is missing from the snapshot");
+            }
+            if (existingNames.contains(name)) {
+                mDbAdapter.dropCollectionTable(name);
+            }
+            importCollection(collectionListInfo, coinList, i);
+        }
+
+        // This fails if a collection in the list wasn't in the database or the snapshot
+        for (int i = 0; i < reader.mCollectionNames.size(); i++) {
+            mDbAdapter.updateDisplayOrder(reader.mCollectionNames.get(i), i);
+        }
+    }
+
     /**
      * Extract the contents from a CSV file into a 2D list of strings
      *
@@ -415,21 +1246,31 @@ public class ExportImportHelper {
      * @throws IOException if an error occurs
      */
     private ArrayList<String[]> getCsvFileContents(File inputFile) throws IOException, CsvValidationException {
+        ArrayList<String[]> lineList = new ArrayList<>();
+        try (CSVReader csvReader = getLegacyCsvReader(inputFile)) {
+            String[] lineValues;
+            while (null != (lineValues = csvReader.readNext())) {
+                lineList.add(lineValues);
+            }
+        }
+        return lineList;
+    }
+
+    /**
+     * Opens a legacy CSV file for reading
+     *
+     * @param inputFile file to read
+     * @return CSV reader, which must be closed when done
+     * @throws IOException if the file can't be opened
+     */
+    private static CSVReader getLegacyCsvReader(File inputFile) throws IOException {
         // Tell the CSVReader to use the NULL character as the escape
         // character to effectively allow no escape characters
         // (otherwise, '\' is the escape character, and it can be
         // typed by users!)
         CSVParser parser = new CSVParserBuilder().withEscapeChar('\0').build();
-        CSVReader csvReader = new CSVReaderBuilder(new FileReader(inputFile))
+        return new CSVReaderBuilder(new FileReader(inputFile))
                 .withCSVParser(parser).build();
-
-        ArrayList<String[]> lineList = new ArrayList<>();
-        String[] lineValues;
-        while (null != (lineValues = csvReader.readNext())) {
-            lineList.add(lineValues);
-        }
-        csvReader.close();
-        return lineList;
     }
 
     /**
@@ -456,20 +1297,27 @@ public class ExportImportHelper {
     public String importCollectionsFromSingleCSV(InputStream inputStream) {
 
         int importDatabaseVersion = 0;
-        ArrayList<CollectionListInfo> importedCollectionInfoList = new ArrayList<>();
-        ArrayList<ArrayList<CoinSlot>> importedCollectionContents = new ArrayList<>();
+        int numImported = 0;
 
         SectionType currSectionType = SectionType.UNKNOWN;
         String[] lineValues;
-        ArrayList<CoinSlot> currCoinList = new ArrayList<>();
+        CollectionListInfo currCollectionInfo = null;
+        CoinRowInserter currCoinRows = null;
         int coinIndex = 0;
 
+        // Each coin is written to the database as soon as it's read, so the memory used doesn't
+        // depend on the size of the file. Everything happens in one transaction, so the existing
+        // collections are only replaced if the whole import succeeds.
+        mDbAdapter.beginTransaction();
+
         // Tell the CSVReader to use the NULL character as the escape
         // character to effectively allow no escape characters
         // (otherwise, '\' is the escape character, and it can be
         // typed by users!)
-        try (CSVReader csvReader = new CSVReaderBuilder(new InputStreamReader(inputStream))
+        try (CSVReader csvReader = new CSVReaderBuilder(new BufferedReader(
+                    new InputStreamReader(openImportStream(inputStream)), IMPORT_BUFFER_SIZE))
                     .withCSVParser(new CSVParserBuilder().withEscapeChar('\0').build()).build()) {
+            replaceCollectionsForImport();
 
             while (null != (lineValues = csvReader.readNext())) {
 
@@ -503,24 +1351,79 @@ public class ExportImportHelper {
                         importDatabaseVersion = Integer.parseInt(lineValues[0]);
                         break;
                     case COLLECTIONS:
-                        importedCollectionInfoList.add(new CollectionListInfo(lineValues));
-                        currCoinList = new ArrayList<>();
-                        importedCollectionContents.add(currCoinList);
+                        // Coins are added to the most recent collection, so the previous
+                        // collection is complete once the next one starts
+                        if (currCoinRows != null) {
+                            finishCsvCollection(currCollectionInfo, currCoinRows);
+                            currCoinRows = null;
+                        }
+                        currCollectionInfo = new CollectionListInfo(lineValues);
+                        currCoinRows = startCsvCollection(currCollectionInfo, numImported++);
                         break;
                     case COIN_LIST:
-                        currCoinList.add(new CoinSlot(lineValues, coinIndex++));
+                        CoinSlot coinSlot = new CoinSlot(lineValues, coinIndex++);
+                        // Coins listed before any collection are ignored
+                        if (currCoinRows != null) {
+                            currCoinRows.insert(coinSlot);
+                        }
                         break;
                     default:
                         break;
                 }
             }
+            if (currCoinRows != null) {
+                finishCsvCollection(currCollectionInfo, currCoinRows);
+                currCoinRows = null;
+            }
+
+            // The database version may come after the collections, so upgrade once all
+            // collections are in place
+            upgradeImportedCollections(importDatabaseVersion);
+            mDbAdapter.setTransactionSuccessful();
         } catch (IOException | CsvValidationException e) {
             return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            if (currCoinRows != null) {
+                currCoinRows.close();
+            }
+            mDbAdapter.endTransaction();
+        }
+
+        // Success!
+        return "";
+    }
+
+    /**
+     * Adds a collection being imported from CSV, which its coins are then inserted into as
+     * they're read
+     *
+     * @param collectionListInfo imported collection info
+     * @param displayOrder       display order of the collection
+     * @return inserter for the collection's coins
+     * @throws SQLException if the name is invalid or a database error occurs
+     */
+    private CoinRowInserter startCsvCollection(CollectionListInfo collectionListInfo, int displayOrder) throws SQLException {
+        // Check for duplicate or illegal names
+        int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
+        if (checkName != -1) {
+            throw new SQLException();
         }
+        return mDbAdapter.createStreamedTable(collectionListInfo, displayOrder);
+    }
 
-        // All data has been parsed from the CSV file so perform the DB steps to import
-        return updateDatabaseFromImport(importDatabaseVersion, importedCollectionInfoList,
-                importedCollectionContents);
+    /**
+     * Finishes a collection imported from CSV once all of its coins have been inserted
+     *
+     * @param collectionListInfo imported collection info
+     * @param coinRows           inserter used for the collection's coins
+     * @throws SQLException if a database error occurs
+     */
+    private void finishCsvCollection(CollectionListInfo collectionListInfo, CoinRowInserter coinRows) throws SQLException {
+        mDbAdapter.finishStreamedTable(collectionListInfo, coinRows);
+        mProgressReporter.addCollectionDone(coinRows.getNumCoins());
     }
 
     /**
@@ -536,7 +1439,10 @@ public class ExportImportHelper {
         ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
         mDbAdapter.getAllTables(collectionListEntries);
 
-        try (CSVWriter csvWriter = new CSVWriter(new OutputStreamWriter(outputStream))) {
+        mProgressReporter.setCollectionsTotal(collectionListEntries.size());
+        try (Writer bufferedWriter = new BufferedWriter(new OutputStreamWriter(
+                openExportStream(outputStream, ZIP_ENTRY_CSV)), EXPORT_BUFFER_SIZE);
+             CSVWriter csvWriter = new CSVWriter(bufferedWriter)) {
 
             // Write database version
             csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.DATABASE_VERSION.label});
@@ -545,19 +1451,19 @@ public class ExportImportHelper {
             csvWriter.writeNext(new String[]{String.valueOf(MainApplication.DATABASE_VERSION)});
 
             // Write collections
-            for (int i = 0; i < collectionListEntries.size(); i++) {
-                // Get the collection and coin info
-                CollectionListInfo collectionListInfo = collectionListEntries.get(i);
-                ArrayList<CoinSlot> coinList = mDbAdapter.getCoinList(collectionListInfo.getName(), true);
-
-                csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COLLECTIONS.label});
-                csvWriter.writeNext(CollectionListInfo.getCsvExportHeader());
-                csvWriter.writeNext(collectionListInfo.getCsvExportProperties(mDbAdapter));
-
-                csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COIN_LIST.label});
-                csvWriter.writeNext(CoinSlot.getCsvExportHeader());
-                for (CoinSlot coinSlot : coinList) {
-                    csvWriter.writeNext(coinSlot.getCsvExportProperties());
+            if (mExportThreads > 1) {
+                csvWriter.flush();
+                writeCollectionsInParallel(bufferedWriter, collectionListEntries, "", collectionListInfo -> {
+                    StringWriter stringWriter = new StringWriter();
+                    try (CSVWriter collectionWriter = new CSVWriter(stringWriter)) {
+                        int numCoins = writeCollectionToCsv(collectionWriter, collectionListInfo);
+                        return new SerializedCollection(stringWriter, numCoins);
+                    }
+                });
+            } else {
+                for (int i = 0; i < collectionListEntries.size(); i++) {
+                    int numCoins = writeCollectionToCsv(csvWriter, collectionListEntries.get(i));
+                    mProgressReporter.addCollectionDone(numCoins);
                 }
             }
             return mRes.getString(R.string.success_export, filePath);
@@ -565,4 +1471,118 @@ public class ExportImportHelper {
             return mRes.getString(R.string.error_exporting, e.getMessage());
         }
     }
+
+    /**
+     * Writes a collection and its coins to JSON, streaming the coins from the database
+     *
+     * @param writer             JsonWriter to write to
+     * @param collectionListInfo collection to write
+     * @return number of coins written
+     * @throws IOException if an error occurs
+     */
+    private int writeCollectionToJson(JsonWriter writer, CollectionListInfo collectionListInfo) throws IOException {
+        try (CoinRowWriter coinRows = mDbAdapter.getCoinRowWriter(collectionListInfo.getName())) {
+            return collectionListInfo.writeToJson(writer, mDbAdapter, coinRows);
+        }
+    }
+
+    /**
+     * Writes a collection and its coins to CSV, streaming the coins from the database
+     *
+     * @param csvWriter          CSVWriter to write to
+     * @param collectionListInfo collection to write
+     * @return number of coins written
+     */
+    private int writeCollectionToCsv(CSVWriter csvWriter, CollectionListInfo collectionListInfo) {
+        csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COLLECTIONS.label});
+        csvWriter.writeNext(CollectionListInfo.getCsvExportHeader());
+        csvWriter.writeNext(collectionListInfo.getCsvExportProperties(mDbAdapter));
+
+        csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COIN_LIST.label});
+        csvWriter.writeNext(CoinSlot.getCsvExportHeader());
+        try (CoinRowWriter coinRows = mDbAdapter.getCoinRowWriter(collectionListInfo.getName())) {
+            return coinRows.writeAllToCsv(csvWriter);
+        }
+    }
+
+    /**
+     * Serializes one collection for a parallel export
+     */
+    private interface CollectionSerializer {
+        SerializedCollection serialize(CollectionListInfo collectionListInfo) throws IOException;
+    }
+
+    /**
+     * Serialized collection text, waiting to be written to the export file
+     */
+    private static class SerializedCollection {
+        final String mText;
+        final int mNumCoins;
+
+        SerializedCollection(StringWriter stringWriter, int numCoins) {
+            mText = stringWriter.toString();
+            mNumCoins = numCoins;
+        }
+    }
+
+    /**
+     * Serializes collections on a pool of worker threads and writes them out in display order.
+     * The workers read from the database at the same time, which write-ahead logging allows.
+     * Only a few collections are serialized ahead of the one being written, to limit the
+     * memory used.
+     *
+     * @param writer                writer to append the serialized collections to
+     * @param collectionListEntries collections to export, in display order
+     * @param separator             text to write between collections
+     * @param serializer            serializes a single collection
+     * @throws IOException if an error occurs
+     */
+    private void writeCollectionsInParallel(Writer writer, ArrayList<CollectionListInfo> collectionListEntries,
+                                            String separator, CollectionSerializer serializer) throws IOException {
+        // Use a separate pool rather than the task scheduler, since the export is itself
+        // running on one of the scheduler's threads
+        ExecutorService executor = Executors.newFixedThreadPool(mExportThreads);
+        try {
+            ArrayDeque<Future<SerializedCollection>> pending = new ArrayDeque<>();
+            int numSubmitted = 0;
+            for (int i = 0; i < collectionListEntries.size(); i++) {
+                while (numSubmitted < collectionListEntries.size() && pending.size() < mExportThreads * 2) {
+                    CollectionListInfo collectionListInfo = collectionListEntries.get(numSubmitted++);
+                    pending.add(executor.submit(() -> serializer.serialize(collectionListInfo)));
+                }
+                SerializedCollection serializedCollection = getSerializedCollection(pending.remove());
+                if (i != 0) {
+                    writer.write(separator);
+                }
+                writer.write(serializedCollection.mText);
+                mProgressReporter.addCollectionDone(serializedCollection.mNumCoins);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for a collection to be serialized, rethrowing any error from the worker thread
+     *
+     * @param future serialization result
+     * @return the serialized collection
+     * @throws IOException if the serialization failed or was interrupted
+     */
+    private static SerializedCollection getSerializedCollection(Future<SerializedCollection> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
 }
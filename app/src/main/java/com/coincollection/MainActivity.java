@@ -20,7 +20,11 @@
 
 package com.coincollection;
 
+import static com.coincollection.BackupSnapshot.SNAPSHOT_FILE_EXT;
 import static com.coincollection.CollectionListInfo.COL_NAME;
+import static com.coincollection.ExportImportHelper.COMPRESSION_GZIP;
+import static com.coincollection.ExportImportHelper.COMPRESSION_NONE;
+import static com.coincollection.ExportImportHelper.GZIP_FILE_EXT;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_FOLDER_NAME;
 import static com.coincollection.ReorderCollections.REORDER_COLLECTION;
 import static com.spencerpages.MainApplication.APP_NAME;
@@ -28,8 +32,10 @@ import static com.spencerpages.MainApplication.APP_NAME;
 import android.Manifest;
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
+import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.Cursor;
@@ -55,6 +61,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.FragmentTransaction;
 
+import com.coincollection.helper.NonLeakingAlertDialogBuilder;
 import com.spencerpages.BuildConfig;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
@@ -86,7 +93,15 @@ public class MainActivity extends BaseActivity {
     private boolean mIsImportingCollection = false;
     private boolean mImportExportLegacyCsv = false;
     private boolean mExportSingleFileCsv = false;
+    private boolean mExportCompressedJson = false;
+    private boolean mExportSnapshot = false;
+    private boolean mExportDifferentialSnapshot = false;
     private Uri mImportExportFileUri = null;
+    // Set when the user picks several snapshot files to restore as a chain
+    private ArrayList<Uri> mImportSnapshotChainUris = new ArrayList<>();
+    // A merge first runs as a dry run, so the changes can be shown before they're made
+    private boolean mMergeDryRun = false;
+    private ArrayList<CollectionMergeResult> mMergeResults = new ArrayList<>();
 
     // App permission requests
     private final static int IMPORT_PERMISSIONS_REQUEST = 0;
@@ -94,6 +109,16 @@ public class MainActivity extends BaseActivity {
     private final static int PICK_IMPORT_FILE = 2;
     private final static int PICK_EXPORT_FILE = 3;
 
+    // Preference holding the change sequence number of the last snapshot exported or restored,
+    // which is the base of the next differential snapshot
+    private final static String LAST_SNAPSHOT_CHANGE_SEQ = "last_snapshot_change_seq";
+
+    // Maximum number of threads used to serialize collections during export
+    private final static int MAX_EXPORT_THREADS = 4;
+
+    // Maximum number of threads used to parse collection files during legacy CSV import
+    private final static int MAX_IMPORT_THREADS = 4;
+
     // Default list item view positions
     //  0. Add Collection
     //  1. Remove Collection
@@ -288,31 +313,62 @@ public class MainActivity extends BaseActivity {
         switch (taskId) {
             case TASK_IMPORT_COLLECTIONS: {
                 ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+                helper.setProgressReporter(getTaskProgressReporter());
                 if (mImportExportLegacyCsv) {
+                    helper.setImportThreads(Math.min(Runtime.getRuntime().availableProcessors(), MAX_IMPORT_THREADS));
                     return helper.importCollectionsFromLegacyCSV(getLegacyExportFolderName());
+                } else if (!mImportSnapshotChainUris.isEmpty()) {
+                    String result = restoreSnapshotChain(helper, mImportSnapshotChainUris);
+                    saveLastSnapshotChangeSeq(helper);
+                    return result;
                 } else {
                     try (InputStream inputStream = getContentResolver().openInputStream(mImportExportFileUri)) {
-                        String fileName = getFileNameFromUri(mImportExportFileUri);
-                        if (fileName.endsWith(".csv")) {
-                            return helper.importCollectionsFromSingleCSV(inputStream);
-                        } else {
-                            return helper.importCollectionsFromJson(inputStream);
-                        }
+                        // The helper detects the compression and file type from the file itself
+                        String result = helper.importCollectionsFromFile(inputStream);
+                        saveLastSnapshotChangeSeq(helper);
+                        return result;
                     } catch (IOException e) {
                         return mRes.getString(R.string.error_importing, e.getMessage());
                     }
                 }
             }
+            case TASK_MERGE_COLLECTIONS: {
+                ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+                helper.setProgressReporter(getTaskProgressReporter());
+                ArrayList<CollectionMergeResult> mergeResults = new ArrayList<>();
+                try (InputStream inputStream = getContentResolver().openInputStream(mImportExportFileUri)) {
+                    String result = helper.mergeCollectionsFromJson(inputStream, mMergeDryRun, mergeResults);
+                    // Read on the UI thread once the result has been posted
+                    mMergeResults = mergeResults;
+                    return result;
+                } catch (IOException e) {
+                    return mRes.getString(R.string.error_importing, e.getMessage());
+                }
+            }
             case TASK_EXPORT_COLLECTIONS: {
                 ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+                helper.setProgressReporter(getTaskProgressReporter());
+                helper.setExportThreads(Math.min(Runtime.getRuntime().availableProcessors(), MAX_EXPORT_THREADS));
                 if (mImportExportLegacyCsv) {
                     return helper.exportCollectionsToLegacyCSV(getLegacyExportFolderName());
                 } else {
                     try (OutputStream outputStream = getContentResolver().openOutputStream(mImportExportFileUri)) {
+                        // The format comes from the option the user chose, since the document
+                        // provider may have changed the file name
                         String fileName = getFileNameFromUri(mImportExportFileUri);
-                        if (fileName.endsWith(".csv")) {
+                        if (mExportSingleFileCsv) {
                             return helper.exportCollectionsToSingleCSV(outputStream, fileName);
+                        } else if (mExportSnapshot) {
+                            String result = helper.exportCollectionsToSnapshot(outputStream, fileName);
+                            saveLastSnapshotChangeSeq(helper);
+                            return result;
+                        } else if (mExportDifferentialSnapshot) {
+                            String result = helper.exportDifferentialSnapshot(outputStream, fileName,
+                                    getLastSnapshotChangeSeq());
+                            saveLastSnapshotChangeSeq(helper);
+                            return result;
                         } else {
+                            helper.setExportCompression(mExportCompressedJson ? COMPRESSION_GZIP : COMPRESSION_NONE);
                             return helper.exportCollectionsToJson(outputStream, fileName);
                         }
                     } catch (IOException e) {
@@ -324,13 +380,75 @@ public class MainActivity extends BaseActivity {
         return "";
     }
 
+    /**
+     * Restores a chain of snapshots picked by the user, in whatever order they were picked
+     *
+     * @param helper helper to restore with
+     * @param uris   the full snapshot and its differential snapshots
+     * @return "" if successful, otherwise an error message to display
+     */
+    private String restoreSnapshotChain(ExportImportHelper helper, List<Uri> uris) {
+        ArrayList<InputStream> inputStreams = new ArrayList<>();
+        try {
+            for (Uri uri : uris) {
+                inputStreams.add(getContentResolver().openInputStream(uri));
+            }
+            // Reading the headers closes the files, so they're opened again in chain order
+            int[] order = helper.getSnapshotChainOrder(inputStreams);
+            inputStreams.clear();
+            for (int index : order) {
+                inputStreams.add(getContentResolver().openInputStream(uris.get(index)));
+            }
+            return helper.restoreSnapshotChain(inputStreams);
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        } finally {
+            for (InputStream inputStream : inputStreams) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    if (BuildConfig.DEBUG) {
+                        Log.e(APP_NAME, "Failed to close snapshot " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the change sequence number of the last snapshot exported or restored
+     *
+     * @return change sequence number, or -1 if there isn't one
+     */
+    private int getLastSnapshotChangeSeq() {
+        SharedPreferences mainPreferences = getSharedPreferences(MainApplication.PREFS, MODE_PRIVATE);
+        return mainPreferences.getInt(LAST_SNAPSHOT_CHANGE_SEQ, -1);
+    }
+
+    /**
+     * Saves the change sequence number of the snapshot the helper last exported or restored,
+     * if there was one, so the next differential snapshot can be based on it
+     *
+     * @param helper helper used for the export or import
+     */
+    private void saveLastSnapshotChangeSeq(ExportImportHelper helper) {
+        int changeSeq = helper.getLastSnapshotChangeSeq();
+        if (changeSeq != -1) {
+            SharedPreferences mainPreferences = getSharedPreferences(MainApplication.PREFS, MODE_PRIVATE);
+            mainPreferences.edit().putInt(LAST_SNAPSHOT_CHANGE_SEQ, changeSeq).apply();
+        }
+    }
+
     @Override
     public void asyncProgressOnPostExecute(int taskId, String resultStr) {
         super.asyncProgressOnPostExecute(taskId, resultStr);
         dismissProgressDialog();
-        if (taskId == TASK_IMPORT_COLLECTIONS) {
+        if (taskId == TASK_IMPORT_COLLECTIONS || taskId == TASK_MERGE_COLLECTIONS) {
             mIsImportingCollection = false;
         }
+        if (taskId == TASK_MERGE_COLLECTIONS && mMergeDryRun && resultStr.isEmpty()) {
+            showMergeConfirmation(mMergeResults);
+        }
         updateCollectionListFromDatabaseAndUpdateViewForUIThread();
     }
 
@@ -397,8 +515,11 @@ public class MainActivity extends BaseActivity {
             Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
             intent.setType("*/*");
-            String[] mimeTypes = {"text/comma-separated-values", "text/csv", "application/json"};
+            String[] mimeTypes = {"text/comma-separated-values", "text/csv", "application/json",
+                    "application/gzip", "application/x-gzip", "application/zip", "application/octet-stream"};
             intent.putExtra(Intent.EXTRA_MIME_TYPES, mimeTypes);
+            // A full snapshot can be picked along with its differential snapshots
+            intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 // The files should preferably be placed in the downloads folder
                 Uri pickerInitialUri = Uri.parse(Environment.DIRECTORY_DOWNLOADS);
@@ -444,6 +565,15 @@ public class MainActivity extends BaseActivity {
             if (mExportSingleFileCsv) {
                 intent.setType("text/csv");
                 intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString() + ".csv");
+            } else if (mExportSnapshot) {
+                intent.setType("application/octet-stream");
+                intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString() + SNAPSHOT_FILE_EXT);
+            } else if (mExportDifferentialSnapshot) {
+                intent.setType("application/octet-stream");
+                intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString() + "-changes" + SNAPSHOT_FILE_EXT);
+            } else if (mExportCompressedJson) {
+                intent.setType("application/gzip");
+                intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString() + ".json" + GZIP_FILE_EXT);
             } else {
                 intent.setType("application/json");
                 intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString() + ".json");
@@ -552,6 +682,15 @@ public class MainActivity extends BaseActivity {
                 case PICK_IMPORT_FILE: {
                     if (resultData != null) {
                         mImportExportFileUri = resultData.getData();
+                        mImportSnapshotChainUris = new ArrayList<>();
+                        ClipData clipData = resultData.getClipData();
+                        if (clipData != null && clipData.getItemCount() > 1) {
+                            for (int i = 0; i < clipData.getItemCount(); i++) {
+                                mImportSnapshotChainUris.add(clipData.getItemAt(i).getUri());
+                            }
+                        } else if (clipData != null && mImportExportFileUri == null) {
+                            mImportExportFileUri = clipData.getItemAt(0).getUri();
+                        }
                         if (mNumberOfCollections != 0) {
                             showImportConfirmation();
                         } else {
@@ -743,13 +882,14 @@ public class MainActivity extends BaseActivity {
     }
 
     /**
-     * Show dialog for user to confirm import
+     * Show dialog for user to confirm import. For a backup file, the user can also choose
+     * to merge it into the existing collections.
      */
     private void showImportConfirmation() {
 
-        showAlert(newBuilder()
+        NonLeakingAlertDialogBuilder builder = newBuilder()
                 .setTitle(mRes.getString(R.string.warning))
-                .setMessage(mRes.getString(R.string.import_warning))
+                .setMessage(mRes.getString(mImportExportLegacyCsv ? R.string.import_warning : R.string.import_warning_merge))
                 .setCancelable(false)
                 .setPositiveButton(mRes.getString(R.string.yes), (dialog, id) -> {
                     // Finish the import using AsyncTaskRunner to do the heavy lifting
@@ -757,7 +897,56 @@ public class MainActivity extends BaseActivity {
                     mIsImportingCollection = true;
                     kickOffAsyncTaskRunner(TASK_IMPORT_COLLECTIONS);
                 })
-                .setNegativeButton(mRes.getString(R.string.no), (dialog, id) -> dialog.cancel()));
+                .setNegativeButton(mRes.getString(R.string.no), (dialog, id) -> dialog.cancel());
+        if (!mImportExportLegacyCsv && mImportSnapshotChainUris.isEmpty()) {
+            builder.setNeutralButton(mRes.getString(R.string.merge), (dialog, id) -> {
+                // Work out what would change first, so the user can confirm it
+                dialog.dismiss();
+                mIsImportingCollection = true;
+                mMergeDryRun = true;
+                kickOffAsyncTaskRunner(TASK_MERGE_COLLECTIONS);
+            });
+        }
+        showAlert(builder);
+    }
+
+    /**
+     * Show the changes a merge would make, for the user to confirm before they're made
+     *
+     * @param mergeResults results of the merge dry run
+     */
+    private void showMergeConfirmation(ArrayList<CollectionMergeResult> mergeResults) {
+
+        StringBuilder message = new StringBuilder();
+        for (CollectionMergeResult mergeResult : mergeResults) {
+            if (mergeResult.isNewCollection()) {
+                message.append(mRes.getString(R.string.merge_summary_new_collection,
+                        mergeResult.getName(), mergeResult.getNumInserted()));
+            } else if (mergeResult.getNumChanged() != 0) {
+                message.append(mRes.getString(R.string.merge_summary_collection,
+                        mergeResult.getName(), mergeResult.getNumInserted(), mergeResult.getNumUpdated()));
+            } else {
+                continue;
+            }
+            message.append("\n");
+        }
+        if (message.length() == 0) {
+            showCancelableAlert(mRes.getString(R.string.merge_no_changes));
+            return;
+        }
+
+        showAlert(newBuilder()
+                .setTitle(mRes.getString(R.string.merge_summary_title))
+                .setMessage(message.toString().trim())
+                .setCancelable(false)
+                .setPositiveButton(mRes.getString(R.string.merge), (dialog, id) -> {
+                    // Make the changes using AsyncTaskRunner to do the heavy lifting
+                    dialog.dismiss();
+                    mIsImportingCollection = true;
+                    mMergeDryRun = false;
+                    kickOffAsyncTaskRunner(TASK_MERGE_COLLECTIONS);
+                })
+                .setNegativeButton(mRes.getString(R.string.cancel), (dialog, id) -> dialog.cancel()));
     }
 
     /**
@@ -1002,22 +1191,37 @@ public class MainActivity extends BaseActivity {
         // In API 30+, access to the SD card is disabled, so don't show this option after that
         boolean showLegacyExport = (Build.VERSION.SDK_INT <= Build.VERSION_CODES.Q);
 
+        // A differential snapshot needs a previous snapshot to be based on
+        boolean showDifferentialExport = (getLastSnapshotChangeSeq() != -1);
+
         // Populate a menu of actions for export
-        CharSequence[] actionsList = new CharSequence[showLegacyExport ? 3 : 2];
-        actionsList[0] = mRes.getString(R.string.json_file);
-        actionsList[1] = mRes.getString(R.string.csv_file);
+        ArrayList<CharSequence> actionsList = new ArrayList<>();
+        actionsList.add(mRes.getString(R.string.json_file));
+        actionsList.add(mRes.getString(R.string.csv_file));
+        actionsList.add(mRes.getString(R.string.json_gz_file));
+        actionsList.add(mRes.getString(R.string.snapshot_file));
+        if (showDifferentialExport) {
+            actionsList.add(mRes.getString(R.string.differential_snapshot_file));
+        }
         if (showLegacyExport) {
-            actionsList[2] = mRes.getString(R.string.legacy_storage);
+            actionsList.add(mRes.getString(R.string.legacy_storage));
         }
         showAlert(newBuilder()
                 .setTitle(mRes.getString(R.string.export_format_message))
-                .setItems(actionsList, (dialog, item) -> {
+                .setItems(actionsList.toArray(new CharSequence[0]), (dialog, item) -> {
+                    // Skip over the differential snapshot position if it isn't shown
+                    if (item >= 4 && !showDifferentialExport) {
+                        item++;
+                    }
                     switch (item) {
                         case 0: {
                             // JSON file
                             dialog.dismiss();
                             mImportExportLegacyCsv = false;
                             mExportSingleFileCsv = false;
+                            mExportCompressedJson = false;
+                            mExportSnapshot = false;
+                            mExportDifferentialSnapshot = false;
                             launchExportTask();
                             break;
                         }
@@ -1026,14 +1230,53 @@ public class MainActivity extends BaseActivity {
                             dialog.dismiss();
                             mImportExportLegacyCsv = false;
                             mExportSingleFileCsv = true;
+                            mExportCompressedJson = false;
+                            mExportSnapshot = false;
+                            mExportDifferentialSnapshot = false;
                             launchExportTask();
                             break;
                         }
                         case 2: {
+                            // Compressed JSON file
+                            dialog.dismiss();
+                            mImportExportLegacyCsv = false;
+                            mExportSingleFileCsv = false;
+                            mExportCompressedJson = true;
+                            mExportSnapshot = false;
+                            mExportDifferentialSnapshot = false;
+                            launchExportTask();
+                            break;
+                        }
+                        case 3: {
+                            // Binary snapshot
+                            dialog.dismiss();
+                            mImportExportLegacyCsv = false;
+                            mExportSingleFileCsv = false;
+                            mExportCompressedJson = false;
+                            mExportSnapshot = true;
+                            mExportDifferentialSnapshot = false;
+                            launchExportTask();
+                            break;
+                        }
+                        case 4: {
+                            // Differential snapshot
+                            dialog.dismiss();
+                            mImportExportLegacyCsv = false;
+                            mExportSingleFileCsv = false;
+                            mExportCompressedJson = false;
+                            mExportSnapshot = false;
+                            mExportDifferentialSnapshot = true;
+                            launchExportTask();
+                            break;
+                        }
+                        case 5: {
                             // Legacy CSV
                             dialog.dismiss();
                             mImportExportLegacyCsv = true;
                             mExportSingleFileCsv = false;
+                            mExportCompressedJson = false;
+                            mExportSnapshot = false;
+                            mExportDifferentialSnapshot = false;
                             launchExportTask();
                             break;
                         }
@@ -0,0 +1,249 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tracks the progress of a long-running task (Ex: import, export or database upgrade) and
+ * reports it to a callback. Reports are throttled so that they're sent at most once per
+ * interval, regardless of how often the counters are updated. If the task has a
+ * cancellation token, updating the progress throws a CancellationException once the task
+ * is cancelled, so long-running work stops at the next collection or block of bytes.
+ */
+public class ProgressReporter {
+
+    public final static long DEFAULT_REPORT_INTERVAL_MS = 250;
+
+    /**
+     * Receives progress reports. This is called on the thread updating the progress.
+     */
+    public interface Callback {
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * Snapshot of the progress of a task
+     */
+    public static class Progress {
+        public final int mCollectionsDone;
+        public final int mCollectionsTotal;
+        public final long mRowsDone;
+        public final long mBytesDone;
+        public final long mEtaMs;
+
+        /**
+         * Constructor
+         *
+         * @param collectionsDone  number of collections processed
+         * @param collectionsTotal total number of collections, or -1 if not known yet
+         * @param rowsDone         number of coins processed
+         * @param bytesDone        number of bytes read or written
+         * @param etaMs            estimated time remaining, or -1 if not known
+         */
+        public Progress(int collectionsDone, int collectionsTotal, long rowsDone, long bytesDone, long etaMs) {
+            mCollectionsDone = collectionsDone;
+            mCollectionsTotal = collectionsTotal;
+            mRowsDone = rowsDone;
+            mBytesDone = bytesDone;
+            mEtaMs = etaMs;
+        }
+    }
+
+    private final Callback mCallback;
+    private final long mReportIntervalNs;
+    private final long mStartNs;
+    private long mLastReportNs;
+    private int mCollectionsDone = 0;
+    private int mCollectionsTotal = -1;
+    private long mRowsDone = 0;
+    private long mBytesDone = 0;
+    private volatile TaskScheduler.CancellationToken mCancellationToken = null;
+
+    /**
+     * Constructor
+     *
+     * @param callback callback to report progress to, or null to disable reporting
+     */
+    public ProgressReporter(Callback callback) {
+        this(callback, DEFAULT_REPORT_INTERVAL_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param callback         callback to report progress to, or null to disable reporting
+     * @param reportIntervalMs minimum time between reports
+     */
+    public ProgressReporter(Callback callback, long reportIntervalMs) {
+        mCallback = callback;
+        mReportIntervalNs = reportIntervalMs * 1000000;
+        mStartNs = System.nanoTime();
+        mLastReportNs = mStartNs;
+    }
+
+    /**
+     * Sets the cancellation token of the task being tracked
+     *
+     * @param cancellationToken the task's cancellation token
+     */
+    public void setCancellationToken(TaskScheduler.CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    /**
+     * Stops the task if it has been cancelled
+     *
+     * @throws CancellationException if the task has been cancelled
+     */
+    public void checkCancelled() throws CancellationException {
+        TaskScheduler.CancellationToken cancellationToken = mCancellationToken;
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Sets the total number of collections to process
+     *
+     * @param collectionsTotal total number of collections
+     */
+    public synchronized void setCollectionsTotal(int collectionsTotal) {
+        mCollectionsTotal = collectionsTotal;
+        mCollectionsDone = 0;
+    }
+
+    /**
+     * Records that a collection has been processed
+     *
+     * @param numRows number of coins in the collection
+     * @throws CancellationException if the task has been cancelled
+     */
+    public void addCollectionDone(int numRows) throws CancellationException {
+        checkCancelled();
+        synchronized (this) {
+            mCollectionsDone++;
+            mRowsDone += numRows;
+        }
+        maybeReport();
+    }
+
+    /**
+     * Records bytes read or written
+     *
+     * @param numBytes number of bytes
+     * @throws CancellationException if the task has been cancelled
+     */
+    public void addBytes(long numBytes) throws CancellationException {
+        checkCancelled();
+        synchronized (this) {
+            mBytesDone += numBytes;
+        }
+        maybeReport();
+    }
+
+    /**
+     * Gets a snapshot of the current progress
+     *
+     * @return the current progress
+     */
+    public synchronized Progress getProgress() {
+        long etaMs = -1;
+        if (mCollectionsTotal > 0 && mCollectionsDone > 0) {
+            long elapsedMs = (System.nanoTime() - mStartNs) / 1000000;
+            etaMs = elapsedMs * (mCollectionsTotal - mCollectionsDone) / mCollectionsDone;
+        }
+        return new Progress(mCollectionsDone, mCollectionsTotal, mRowsDone, mBytesDone, etaMs);
+    }
+
+    /**
+     * Reports the progress if the report interval has passed since the last report
+     */
+    private void maybeReport() {
+        if (mCallback == null) {
+            return;
+        }
+        Progress progress;
+        synchronized (this) {
+            long nowNs = System.nanoTime();
+            if (nowNs - mLastReportNs < mReportIntervalNs) {
+                return;
+            }
+            mLastReportNs = nowNs;
+            progress = getProgress();
+        }
+        mCallback.onProgress(progress);
+    }
+
+    /**
+     * Wraps an input stream so that the bytes read are reported
+     *
+     * @param inputStream stream to wrap
+     * @return the wrapped stream
+     */
+    public InputStream wrap(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                if (value != -1) {
+                    addBytes(1);
+                }
+                return value;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int numRead = super.read(b, off, len);
+                if (numRead > 0) {
+                    addBytes(numRead);
+                }
+                return numRead;
+            }
+        };
+    }
+
+    /**
+     * Wraps an output stream so that the bytes written are reported
+     *
+     * @param outputStream stream to wrap
+     * @return the wrapped stream
+     */
+    public OutputStream wrap(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                addBytes(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                addBytes(len);
+            }
+        };
+    }
+}
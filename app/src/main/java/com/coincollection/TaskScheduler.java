@@ -0,0 +1,242 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs background tasks on a bounded thread pool.
+ * - Queued tasks run in priority order, so interactive tasks (Ex: opening the database or
+ *   creating a collection) start ahead of bulk tasks (Ex: import/export) that are waiting
+ * - Read-only tasks (Ex: export) can run alongside each other, while tasks that write to
+ *   the database run on their own. This keeps a write from changing the collections part
+ *   way through an export.
+ * - Each task has a cancellation token, which the task can check while it runs. If a task
+ *   is cancelled before it starts, it isn't run at all.
+ * Tasks are only handed to a thread once they're able to start, so a task never holds a
+ * thread while it waits on another task.
+ */
+public class TaskScheduler {
+
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_BULK = 1;
+
+    // Number of threads used by the app's scheduler
+    public static final int DEFAULT_NUM_THREADS = 3;
+
+    private final static long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mNumThreads;
+
+    // Scheduler state
+    // - Only accessed while synchronized on this
+    private final PriorityQueue<ScheduledTask> mPendingTasks = new PriorityQueue<>();
+    private long mSequence = 0;
+    private int mNumRunning = 0;
+    private boolean mWriteRunning = false;
+
+    /**
+     * Work to be performed by the scheduler
+     */
+    public interface Task {
+        /**
+         * Performs the task on a background thread
+         *
+         * @param token cancellation token that long-running tasks should check periodically
+         */
+        void run(CancellationToken token);
+
+        /**
+         * Called instead of run() if the task is cancelled before it starts. This is called
+         * on the thread that cancelled the task, or on the background thread if the task
+         * was about to start.
+         */
+        default void onCancelled() {
+        }
+    }
+
+    /**
+     * Token used to request that a task is cancelled
+     */
+    public static class CancellationToken {
+        private final Runnable mOnCancel;
+        private volatile boolean mCancelled = false;
+
+        /**
+         * Constructor
+         *
+         * @param onCancel called the first time the token is cancelled
+         */
+        CancellationToken(Runnable onCancel) {
+            mOnCancel = onCancel;
+        }
+
+        /**
+         * Requests that the task is cancelled. A task that hasn't started yet is removed
+         * from the queue, and a running task stops the next time it checks the token.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+            }
+            mOnCancel.run();
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param numThreads maximum number of tasks that can run at the same time
+     */
+    public TaskScheduler(int numThreads) {
+        mNumThreads = numThreads;
+        mExecutor = new ThreadPoolExecutor(numThreads, numThreads, THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules a task to run in the background
+     *
+     * @param priority PRIORITY_INTERACTIVE or PRIORITY_BULK
+     * @param readOnly true if the task only reads from the database, so it can run alongside
+     *                 other read-only tasks
+     * @param task     the task to run
+     * @return token that can be used to cancel the task
+     */
+    public synchronized CancellationToken schedule(int priority, boolean readOnly, Task task) {
+        ScheduledTask scheduledTask = new ScheduledTask(priority, mSequence++, readOnly, task);
+        mPendingTasks.add(scheduledTask);
+        startPendingTasks();
+        return scheduledTask.mToken;
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks that were already started still run, and pending
+     * tasks are dropped.
+     */
+    public synchronized void shutdown() {
+        mPendingTasks.clear();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Starts the highest priority pending tasks, for as long as threads are free and the
+     * next task is able to run alongside the ones already running. A waiting write task
+     * holds back the tasks behind it, so it isn't starved.
+     */
+    private synchronized void startPendingTasks() {
+        while (mNumRunning < mNumThreads && !mPendingTasks.isEmpty()) {
+            ScheduledTask nextTask = mPendingTasks.peek();
+            if (mWriteRunning || (!nextTask.mReadOnly && mNumRunning != 0)) {
+                return;
+            }
+            mPendingTasks.poll();
+            mNumRunning++;
+            mWriteRunning = !nextTask.mReadOnly;
+            mExecutor.execute(nextTask);
+        }
+    }
+
+    /**
+     * Called when a task finishes, to start any tasks that were waiting on it
+     *
+     * @param task the task that finished
+     */
+    private synchronized void onTaskFinished(ScheduledTask task) {
+        mNumRunning--;
+        if (!task.mReadOnly) {
+            mWriteRunning = false;
+        }
+        startPendingTasks();
+    }
+
+    /**
+     * Called when a task's token is cancelled. If the task hasn't started, it's removed from
+     * the queue and told that it was cancelled.
+     *
+     * @param task the task that was cancelled
+     */
+    private void onTaskCancelled(ScheduledTask task) {
+        boolean wasPending;
+        synchronized (this) {
+            wasPending = mPendingTasks.remove(task);
+            if (wasPending) {
+                // The cancelled task may have been holding back the tasks behind it
+                startPendingTasks();
+            }
+        }
+        if (wasPending) {
+            task.mTask.onCancelled();
+        }
+    }
+
+    /**
+     * Task wrapper that orders tasks by priority, then by the order they were scheduled
+     */
+    private class ScheduledTask implements Runnable, Comparable<ScheduledTask> {
+        private final int mPriority;
+        private final long mSequenceNum;
+        private final boolean mReadOnly;
+        private final Task mTask;
+        private final CancellationToken mToken;
+
+        ScheduledTask(int priority, long sequenceNum, boolean readOnly, Task task) {
+            mPriority = priority;
+            mSequenceNum = sequenceNum;
+            mReadOnly = readOnly;
+            mTask = task;
+            mToken = new CancellationToken(() -> onTaskCancelled(this));
+        }
+
+        @Override
+        public void run() {
+            try {
+                // The task may have been cancelled after it was handed to the thread
+                if (mToken.isCancelled()) {
+                    mTask.onCancelled();
+                } else {
+                    mTask.run(mToken);
+                }
+            } finally {
+                onTaskFinished(this);
+            }
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            }
+            return Long.compare(mSequenceNum, other.mSequenceNum);
+        }
+    }
+}
@@ -34,6 +34,7 @@ public class NonLeakingAlertDialogBuilder extends AlertDialog.Builder {
 
     private DetachableDialogAlertOnClickListener mPositiveButtonOnClickListener = null;
     private DetachableDialogAlertOnClickListener mNegativeButtonOnClickListener = null;
+    private DetachableDialogAlertOnClickListener mNeutralButtonOnClickListener = null;
     private DetachableDialogAlertOnClickListener mSetItemsOnClickListener = null;
 
     public NonLeakingAlertDialogBuilder(Context context) {
@@ -52,6 +53,9 @@ public class NonLeakingAlertDialogBuilder extends AlertDialog.Builder {
         if (mNegativeButtonOnClickListener != null) {
             mNegativeButtonOnClickListener.setOnWindowDetachedListener(alertDialog);
         }
+        if (mNeutralButtonOnClickListener != null) {
+            mNeutralButtonOnClickListener.setOnWindowDetachedListener(alertDialog);
+        }
         if (mSetItemsOnClickListener != null) {
             mSetItemsOnClickListener.setOnWindowDetachedListener(alertDialog);
         }
@@ -86,6 +90,20 @@ public class NonLeakingAlertDialogBuilder extends AlertDialog.Builder {
         return this;
     }
 
+    @Override
+    public NonLeakingAlertDialogBuilder setNeutralButton(int textId, DialogInterface.OnClickListener listener) {
+        super.setNeutralButton(textId, listener);
+        mNeutralButtonOnClickListener = DetachableDialogAlertOnClickListener.wrapOnClickListener(listener);
+        return this;
+    }
+
+    @Override
+    public NonLeakingAlertDialogBuilder setNeutralButton(CharSequence text, DialogInterface.OnClickListener listener) {
+        super.setNeutralButton(text, listener);
+        mNeutralButtonOnClickListener = DetachableDialogAlertOnClickListener.wrapOnClickListener(listener);
+        return this;
+    }
+
     @Override
     public NonLeakingAlertDialogBuilder setItems(int itemsId, DialogInterface.OnClickListener listener) {
         super.setItems(itemsId, listener);
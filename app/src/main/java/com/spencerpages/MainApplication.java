@@ -237,8 +237,12 @@ public class MainApplication extends Application {
      * Version 19 - Used in Version 3.5.0 of the app
      * Version 20 - Used in Version 3.6.0 of the app
      * Version 21-23 - Used in Version 3.7.0 of the app
+     * Version 24 - Adds the cached collected count to collection_info
+     * Version 25 - Adds sort order and identifier/mint indexes to each collection
+     * Version 26 - Adds change sequence numbers, used for differential backups
+     * Version 27 - Moves the coins of all collections into a single indexed coins table
      */
-    public static final int DATABASE_VERSION = 23;
+    public static final int DATABASE_VERSION = 27;
 
     /**
      * Get the collection index from collection type name
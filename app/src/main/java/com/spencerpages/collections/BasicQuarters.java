@@ -21,7 +21,7 @@
 package com.spencerpages.collections;
 
 import static com.coincollection.CoinSlot.COIN_SLOT_NAME_MINT_WHERE_CLAUSE;
-import static com.coincollection.DatabaseHelper.runSqlDelete;
+import static com.coincollection.DatabaseHelper.runCoinSqlDelete;
 
 import android.database.sqlite.SQLiteDatabase;
 
@@ -169,9 +169,9 @@ public class BasicQuarters extends CollectionInfo {
 
         if (oldVersion <= 2) {
             // Remove 1965 - 1967 D quarters
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1965", "D"});
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1966", "D"});
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1967", "D"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1965", "D"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1966", "D"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1967", "D"});
         }
 
         if (oldVersion <= 15) {
@@ -22,7 +22,7 @@ package com.spencerpages.collections;
 
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
 import static com.coincollection.CoinSlot.COL_COIN_MINT;
-import static com.coincollection.DatabaseHelper.runSqlDelete;
+import static com.coincollection.DatabaseHelper.runCoinSqlDelete;
 
 import android.database.sqlite.SQLiteDatabase;
 
@@ -138,11 +138,11 @@ public class EisenhowerDollar extends CollectionInfo {
 
             // Take out Eisenhower dollars > 1978
             for (int i = 1979; i <= 2012; i++) {
-                total -= runSqlDelete(db, tableName, COL_COIN_IDENTIFIER + "=?", new String[]{String.valueOf(i)});
+                total -= runCoinSqlDelete(db, tableName, COL_COIN_IDENTIFIER + "=?", new String[]{String.valueOf(i)});
             }
 
             // Take out Eisenhower dollars with S marks
-            total -= runSqlDelete(db, tableName, COL_COIN_MINT + "=?", new String[]{"S"});
+            total -= runCoinSqlDelete(db, tableName, COL_COIN_MINT + "=?", new String[]{"S"});
         }
 
         return total;
@@ -21,7 +21,7 @@
 package com.spencerpages.collections;
 
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
-import static com.coincollection.DatabaseHelper.runSqlUpdate;
+import static com.coincollection.DatabaseHelper.runCoinSqlUpdate;
 
 import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
@@ -216,19 +216,19 @@ public class FirstSpouseGoldCoins extends CollectionInfo {
 
             // Replace all the ’ characters with ' characters
             values.put(COL_COIN_IDENTIFIER, "Thomas Jefferson's Liberty");
-            runSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Thomas Jefferson’s Liberty"});
+            runCoinSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Thomas Jefferson’s Liberty"});
             values.clear();
 
             values.put(COL_COIN_IDENTIFIER, "Andrew Jackson's Liberty");
-            runSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Andrew Jackson’s Liberty"});
+            runCoinSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Andrew Jackson’s Liberty"});
             values.clear();
 
             values.put(COL_COIN_IDENTIFIER, "Martin Van Buren's Liberty");
-            runSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Martin Van Buren’s Liberty"});
+            runCoinSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Martin Van Buren’s Liberty"});
             values.clear();
 
             values.put(COL_COIN_IDENTIFIER, "James Buchanan's Liberty");
-            runSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"James Buchanan’s Liberty"});
+            runCoinSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"James Buchanan’s Liberty"});
             values.clear();
         }
 
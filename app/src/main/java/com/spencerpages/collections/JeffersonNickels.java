@@ -21,7 +21,7 @@
 package com.spencerpages.collections;
 
 import static com.coincollection.CoinSlot.COIN_SLOT_NAME_MINT_WHERE_CLAUSE;
-import static com.coincollection.DatabaseHelper.runSqlDelete;
+import static com.coincollection.DatabaseHelper.runCoinSqlDelete;
 
 import android.database.sqlite.SQLiteDatabase;
 
@@ -205,11 +205,11 @@ public class JeffersonNickels extends CollectionInfo {
 
         if (oldVersion <= 2) {
             // Remove 1955s nickel
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1955", "S"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1955", "S"});
             // Remove 1965-1967 D Nickel
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1965", "D"});
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1966", "D"});
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1967", "D"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1965", "D"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1966", "D"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1967", "D"});
         }
 
         if (oldVersion <= 3) {
@@ -22,8 +22,8 @@ package com.spencerpages.collections;
 
 import static com.coincollection.CoinSlot.COIN_SLOT_NAME_MINT_WHERE_CLAUSE;
 import static com.coincollection.CoinSlot.COL_COIN_MINT;
-import static com.coincollection.DatabaseHelper.runSqlDelete;
-import static com.coincollection.DatabaseHelper.runSqlUpdate;
+import static com.coincollection.DatabaseHelper.runCoinSqlDelete;
+import static com.coincollection.DatabaseHelper.runCoinSqlUpdate;
 
 import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
@@ -193,7 +193,7 @@ public class LincolnCents extends CollectionInfo {
 
         if (oldVersion <= 2) {
             // Remove 1921 D Penny
-            total -= runSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1921", "D"});
+            total -= runCoinSqlDelete(db, tableName, COIN_SLOT_NAME_MINT_WHERE_CLAUSE, new String[]{"1921", "D"});
         }
 
         if (oldVersion <= 3) {
@@ -202,7 +202,7 @@ public class LincolnCents extends CollectionInfo {
             ContentValues values = new ContentValues();
             values.put(COL_COIN_MINT, "");
             // This shortcut works because pennies never carried the "P" mint mark
-            runSqlUpdate(db, tableName, values, COL_COIN_MINT + "=?", new String[]{"P"});
+            runCoinSqlUpdate(db, tableName, values, COL_COIN_MINT + "=?", new String[]{"P"});
 
             // 3. 1909 V.D.B. - Can't do anything since it is in the middle of the collection
 
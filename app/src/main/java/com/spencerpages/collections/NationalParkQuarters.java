@@ -21,7 +21,7 @@
 package com.spencerpages.collections;
 
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
-import static com.coincollection.DatabaseHelper.runSqlUpdate;
+import static com.coincollection.DatabaseHelper.runCoinSqlUpdate;
 
 import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
@@ -274,11 +274,11 @@ public class NationalParkQuarters extends CollectionInfo {
 
             // Replace all the ’ characters with ' characters
             values.put(COL_COIN_IDENTIFIER, "Perry's Victory");
-            runSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Perry’s Victory"});
+            runCoinSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Perry’s Victory"});
             values.clear();
 
             values.put(COL_COIN_IDENTIFIER, "Harper's Ferry");
-            runSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Harper’s Ferry"});
+            runCoinSqlUpdate(db, tableName, values, COL_COIN_IDENTIFIER + "=?", new String[]{"Harper’s Ferry"});
             values.clear();
         }
 
@@ -21,7 +21,7 @@
 package com.spencerpages.collections;
 
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
-import static com.coincollection.DatabaseHelper.runSqlDelete;
+import static com.coincollection.DatabaseHelper.runCoinSqlDelete;
 
 import android.database.sqlite.SQLiteDatabase;
 
@@ -143,7 +143,7 @@ public class SusanBAnthonyDollars extends CollectionInfo {
 
         if (oldVersion <= 2) {
             // Remove 1982 Susan B Anthony's
-            total -= runSqlDelete(db, tableName, COL_COIN_IDENTIFIER + "=?", new String[]{"1982"});
+            total -= runCoinSqlDelete(db, tableName, COL_COIN_IDENTIFIER + "=?", new String[]{"1982"});
         }
 
         return total;
@@ -0,0 +1,211 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import static com.coincollection.BaseActivity.TASK_EXPORT_COLLECTIONS;
+import static com.coincollection.BaseActivity.TASK_IMPORT_COLLECTIONS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import com.spencerpages.BaseTestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that task events are handed off to a new listener (Ex: an activity recreated after
+ * a configuration change) as soon as it attaches
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AsyncTaskRunnerTests extends BaseTestCase {
+
+    private final static int TIMEOUT_SECONDS = 10;
+    // The previous implementation polled for a listener every 500ms
+    private final static long MAX_HANDOFF_LATENCY_MS = 250;
+
+    /**
+     * Listener that records the events it receives
+     */
+    private static class RecordingListener implements AsyncProgressInterface {
+        final List<String> mEvents = new ArrayList<>();
+        final CountDownLatch mBackgroundStarted = new CountDownLatch(1);
+        final CountDownLatch mReleaseBackground = new CountDownLatch(1);
+        final CountDownLatch mBackgroundDone = new CountDownLatch(1);
+        long mBackgroundStartNs = 0;
+
+        @Override
+        public String asyncProgressDoInBackground(int taskId) {
+            mBackgroundStartNs = System.nanoTime();
+            mBackgroundStarted.countDown();
+            try {
+                mReleaseBackground.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            mBackgroundDone.countDown();
+            return "result" + taskId;
+        }
+
+        @Override
+        public void asyncProgressOnPreExecute(int taskId) {
+            mEvents.add("pre" + taskId);
+        }
+
+        @Override
+        public void asyncProgressOnPostExecute(int taskId, String resultStr) {
+            mEvents.add("post" + taskId + ":" + resultStr);
+        }
+    }
+
+    /**
+     * Test that a result finished while no listener was attached is delivered to the next
+     * listener as soon as it attaches
+     */
+    @Test
+    public void test_resultDeliveredToNewListener() throws InterruptedException {
+        RecordingListener oldListener = new RecordingListener();
+        AsyncTaskRunner runner = new AsyncTaskRunner(oldListener);
+        runner.execute(TASK_IMPORT_COLLECTIONS);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue(oldListener.mBackgroundStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Simulate the activity being destroyed while the task is running
+        runner.clearListener();
+        oldListener.mReleaseBackground.countDown();
+        assertTrue(oldListener.mBackgroundDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        waitForMainLooperTasks();
+
+        // Attach the recreated activity
+        RecordingListener newListener = new RecordingListener();
+        long attachNs = System.nanoTime();
+        runner.setListener(newListener);
+        shadowOf(Looper.getMainLooper()).idle();
+        long latencyMs = (System.nanoTime() - attachNs) / 1000000;
+        System.out.println("Result handoff latency: " + latencyMs + " ms");
+
+        assertEquals(Arrays.asList("pre" + TASK_IMPORT_COLLECTIONS), oldListener.mEvents);
+        assertEquals(Arrays.asList("post" + TASK_IMPORT_COLLECTIONS + ":result" + TASK_IMPORT_COLLECTIONS), newListener.mEvents);
+        assertTrue(latencyMs < MAX_HANDOFF_LATENCY_MS);
+    }
+
+    /**
+     * Test that a task started while no listener was attached begins as soon as one attaches,
+     * and the new listener receives both the pre-execute and post-execute events
+     */
+    @Test
+    public void test_backgroundStartsWhenListenerAttaches() throws InterruptedException {
+        RecordingListener oldListener = new RecordingListener();
+        AsyncTaskRunner runner = new AsyncTaskRunner(oldListener);
+        runner.clearListener();
+        runner.execute(TASK_EXPORT_COLLECTIONS);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        RecordingListener newListener = new RecordingListener();
+        newListener.mReleaseBackground.countDown();
+        long attachNs = System.nanoTime();
+        runner.setListener(newListener);
+        assertTrue(newListener.mBackgroundStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long latencyMs = (newListener.mBackgroundStartNs - attachNs) / 1000000;
+        System.out.println("Background start latency: " + latencyMs + " ms");
+        assertTrue(newListener.mBackgroundDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        waitForMainLooperTasks();
+
+        assertTrue(oldListener.mEvents.isEmpty());
+        assertEquals(Arrays.asList("pre" + TASK_EXPORT_COLLECTIONS,
+                "post" + TASK_EXPORT_COLLECTIONS + ":result" + TASK_EXPORT_COLLECTIONS), newListener.mEvents);
+        assertTrue(latencyMs < MAX_HANDOFF_LATENCY_MS);
+    }
+
+    /**
+     * Test that the pre-execute events of several tasks started while no listener was attached
+     * are all delivered, in order, when a listener attaches
+     */
+    @Test
+    public void test_allPendingPreExecuteEventsDelivered() throws InterruptedException {
+        RecordingListener oldListener = new RecordingListener();
+        AsyncTaskRunner runner = new AsyncTaskRunner(oldListener);
+        runner.clearListener();
+        runner.execute(TASK_EXPORT_COLLECTIONS);
+        runner.execute(TASK_IMPORT_COLLECTIONS);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        RecordingListener newListener = new RecordingListener();
+        newListener.mReleaseBackground.countDown();
+        runner.setListener(newListener);
+        shadowOf(Looper.getMainLooper()).idle();
+        waitForMainLooperTasks();
+
+        assertTrue(oldListener.mEvents.isEmpty());
+        assertEquals(4, newListener.mEvents.size());
+        assertEquals(Arrays.asList("pre" + TASK_EXPORT_COLLECTIONS, "pre" + TASK_IMPORT_COLLECTIONS),
+                newListener.mEvents.subList(0, 2));
+        assertTrue(newListener.mEvents.contains("post" + TASK_EXPORT_COLLECTIONS + ":result" + TASK_EXPORT_COLLECTIONS));
+        assertTrue(newListener.mEvents.contains("post" + TASK_IMPORT_COLLECTIONS + ":result" + TASK_IMPORT_COLLECTIONS));
+    }
+
+    /**
+     * Test that cancelling a task waiting behind a write skips its background work, and
+     * that the listener is still told the task finished
+     */
+    @Test
+    public void test_cancelPendingTask() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        AsyncTaskRunner runner = new AsyncTaskRunner(listener);
+        runner.execute(TASK_IMPORT_COLLECTIONS);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue(listener.mBackgroundStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The export waits for the import, and is cancelled before it starts
+        runner.execute(TASK_EXPORT_COLLECTIONS);
+        shadowOf(Looper.getMainLooper()).idle();
+        runner.cancel();
+        assertTrue(runner.isCancelled());
+        waitForMainLooperTasks();
+        assertEquals(Arrays.asList("pre" + TASK_IMPORT_COLLECTIONS, "pre" + TASK_EXPORT_COLLECTIONS,
+                "post" + TASK_EXPORT_COLLECTIONS + ":"), listener.mEvents);
+
+        listener.mReleaseBackground.countDown();
+        assertTrue(listener.mBackgroundDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        waitForMainLooperTasks();
+        assertEquals(4, listener.mEvents.size());
+        assertEquals("post" + TASK_IMPORT_COLLECTIONS + ":result" + TASK_IMPORT_COLLECTIONS, listener.mEvents.get(3));
+    }
+
+    /**
+     * Runs tasks posted to the main looper from the background thread. The result is
+     * posted right after the background work finishes, so allow a short time for it.
+     */
+    private void waitForMainLooperTasks() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.coincollection;
+
+import static com.coincollection.CollectionPage.ADVANCED_DISPLAY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.spencerpages.BaseTestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+/**
+ * Tests that CollectionPage keeps unsaved advanced info edits when it's recreated. After a
+ * configuration change the coin list is kept in a view model, and if the process is killed
+ * only the changed coins are saved in the instance state.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CollectionPageStateTests extends BaseTestCase {
+
+    private final static String UNSAVED_NOTES = "Unsaved notes";
+    private final static int UNSAVED_GRADE = 3;
+    private final static int UNSAVED_QUANTITY = 2;
+
+    /**
+     * Test that unsaved advanced info changes survive the page being recreated, and that
+     * the coin list is kept rather than reloaded from the database
+     */
+    @Test
+    public void test_unsavedAdvancedInfoSurvivesRecreate() {
+        String[] collectionName = new String[1];
+        int[] collectionTypeIndex = new int[1];
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+                activity.mDbAdapter.getAllTables(collectionListEntries);
+                collectionName[0] = collectionListEntries.get(0).getName();
+                collectionTypeIndex[0] = collectionListEntries.get(0).getCollectionTypeIndex();
+                activity.mDbAdapter.updateTableDisplay(collectionName[0], ADVANCED_DISPLAY);
+            });
+        }
+
+        long[] changedCoinId = new long[1];
+        CoinSlot[] changedCoinSlot = new CoinSlot[1];
+        try (ActivityScenario<CollectionPage> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX, collectionTypeIndex[0])
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName[0]))) {
+            scenario.onActivity(activity -> {
+                assertTrue(activity.mCoinList.size() > 1);
+                // Edit a coin other than the first, the way the advanced view does
+                CoinSlot coinSlot = activity.mCoinList.get(1);
+                changedCoinId[0] = coinSlot.getDatabaseId();
+                changedCoinSlot[0] = coinSlot;
+                coinSlot.setAdvancedNotes(UNSAVED_NOTES);
+                coinSlot.setAdvancedGrades(UNSAVED_GRADE);
+                coinSlot.setAdvancedQuantities(UNSAVED_QUANTITY);
+                coinSlot.setAdvInfoChanged(true);
+            });
+
+            scenario.recreate();
+
+            scenario.onActivity(activity -> {
+                // The list from before the recreate is used, with the edits
+                CoinSlot coinSlot = activity.mCoinList.get(1);
+                assertSame(changedCoinSlot[0], coinSlot);
+                assertEquals(changedCoinId[0], coinSlot.getDatabaseId());
+                assertEquals(UNSAVED_NOTES, coinSlot.getAdvancedNotes());
+                assertEquals(UNSAVED_GRADE, coinSlot.getAdvancedGrades());
+                assertEquals(UNSAVED_QUANTITY, coinSlot.getAdvancedQuantities());
+                assertTrue(coinSlot.hasAdvInfoChanged());
+                assertFalse(activity.mCoinList.get(0).hasAdvInfoChanged());
+
+                // The edits still haven't been written to the database
+                CoinSlot savedCoinSlot = activity.mDbAdapter.getCoinList(collectionName[0], true).get(1);
+                assertEquals(changedCoinId[0], savedCoinSlot.getDatabaseId());
+                assertNotEquals(UNSAVED_NOTES, savedCoinSlot.getAdvancedNotes());
+            });
+        }
+    }
+
+    /**
+     * Test that the coins saved in the instance state are overlaid on the list reloaded
+     * from the database, which is how the page is restored after the process is killed
+     */
+    @Test
+    public void test_applyChangedCoins() {
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            coinList.add(new CoinSlot(i + 1, "Coin " + i, "", false, 0, 0, "", i, false, 0));
+        }
+        CoinSlot firstCoinSlot = coinList.get(0);
+        CoinSlot changedCoinSlot = coinList.get(2).copy("Coin 2", "", false);
+        changedCoinSlot.setDatabaseId(coinList.get(2).getDatabaseId());
+        changedCoinSlot.setAdvancedNotes(UNSAVED_NOTES);
+        changedCoinSlot.setAdvInfoChanged(true);
+        // A coin deleted since the state was saved is ignored
+        CoinSlot deletedCoinSlot = new CoinSlot(100, "Deleted", "", false, 0, 0, UNSAVED_NOTES, 100, false, 0);
+        ArrayList<CoinSlot> changedCoinList = new ArrayList<>();
+        changedCoinList.add(deletedCoinSlot);
+        changedCoinList.add(changedCoinSlot);
+
+        CollectionPage.applyChangedCoins(coinList, changedCoinList);
+        assertEquals(4, coinList.size());
+        assertSame(firstCoinSlot, coinList.get(0));
+        assertSame(changedCoinSlot, coinList.get(2));
+        assertFalse(coinList.contains(deletedCoinSlot));
+        assertEquals(UNSAVED_NOTES, coinList.get(2).getAdvancedNotes());
+    }
+}
@@ -484,15 +484,45 @@ public class BaseTestCase {
             compareCoinSlotLists(coinList, checkCoinList, populateAdvInfo);
 
             // Test coin slot database methods
+            int startCacheMisses = activity.mDbAdapter.getStatementCacheMisses();
             for (CoinSlot coinSlot : coinList) {
                 assertEquals(activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot),
                         (coinSlot.isInCollection() ? 1 : 0));
                 activity.mDbAdapter.toggleInCollection(tableName, coinSlot);
                 assertEquals(activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot),
                         (coinSlot.isInCollection() ? 0 : 1));
+                // Setting the same value again should leave the coin unchanged
+                assertFalse(activity.mDbAdapter.updateInCollection(tableName,
+                        coinSlot.getDatabaseId(), !coinSlot.isInCollection()));
+            }
+
+            // The compiled query should only have been created once for the whole collection
+            assertTrue(activity.mDbAdapter.getStatementCacheMisses() - startCacheMisses <= 1);
+
+            // Make sure the cached collected count tracked the toggles
+            int expectedCollected = coinList.size() - collectionListInfo.getCollected();
+            assertEquals(expectedCollected, getCollectedFromDb(activity, tableName));
+            activity.mDbAdapter.recalculateTotalCollected();
+            assertEquals(expectedCollected, getCollectedFromDb(activity, tableName));
+        }
+    }
 
+    /**
+     * Gets the number of coins collected for a collection from the list of collections
+     *
+     * @param activity  activity for database access
+     * @param tableName collection name
+     * @return collected count
+     */
+    private int getCollectedFromDb(BaseActivity activity, String tableName) {
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        activity.mDbAdapter.getAllTables(collectionListEntries);
+        for (CollectionListInfo collectionListEntry : collectionListEntries) {
+            if (collectionListEntry.getName().equals(tableName)) {
+                return collectionListEntry.getCollected();
             }
         }
+        return -1;
     }
 
     /**
@@ -128,6 +128,34 @@ public class CollectionPageActivityTests extends BaseTestCase {
         }
     }
 
+    /**
+     * Test copying the same coin enough times that the sort order gaps run out
+     */
+    @Test
+    public void test_copyCoinSortOrderRebalance() {
+        FullCollection collection = mCollectionList.get(0);
+        String collectionName = collection.mCollectionListInfo.getName();
+        int coinTypeIdx = collection.mCollectionListInfo.getCollectionTypeIndex();
+        try (ActivityScenario<CollectionPage> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX, coinTypeIdx)
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName))) {
+            scenario.onActivity(activity -> {
+                assertFalse(activity.mCoinList.isEmpty());
+                for (int i = 0; i < 25; i++) {
+                    activity.copyCoinSlot(activity.mCoinList.get(0), 1);
+                }
+                int lastIndex = activity.mCoinList.size() - 1;
+                activity.copyCoinSlot(activity.mCoinList.get(lastIndex), lastIndex + 1);
+
+                ArrayList<CoinSlot> checkCoinList = activity.mDbAdapter.getCoinList(collectionName, true);
+                compareCoinSlotLists(activity.mCoinList, checkCoinList, true);
+                checkCoinSortOrdersUnique(activity.mCoinList);
+                assertEquals(getSortOrderList(activity.mCoinList), getSortOrderList(checkCoinList));
+            });
+        }
+    }
+
     /**
      * Test that all classes listed in COLLECTION_TYPES are included in
      * BASIC_COLLECTIONS and ADVANCED_COLLECTIONS
@@ -20,12 +20,29 @@
 
 package com.spencerpages;
 
+import static com.coincollection.CoinSlot.TBL_COINS;
+import static com.spencerpages.MainApplication.DATABASE_NAME;
+import static com.spencerpages.MainApplication.DATABASE_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
+import androidx.test.core.app.ActivityScenario;
 import androidx.test.core.app.ApplicationProvider;
 
 import com.coincollection.CoinPageCreator;
+import com.coincollection.CoinSlot;
 import com.coincollection.CollectionInfo;
+import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseHelper;
+import com.coincollection.MainActivity;
 import com.coincollection.helper.ParcelableHashMap;
 import com.spencerpages.collections.AmericanEagleSilverDollars;
 import com.spencerpages.collections.BarberDimes;
@@ -58,7 +75,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
 
 @RunWith(RobolectricTestRunner.class)
 public class CollectionUpgradeTests extends BaseTestCase {
@@ -971,4 +992,222 @@ public class CollectionUpgradeTests extends BaseTestCase {
         // Compare against a new database
         validateUpdatedDb(collection, collectionName);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that upgrading a version 23 database moves the coins into the coins table
+     */
+    @Test
+    public void test_coinsTableUpgradeFromV23() {
+        validateCoinsTableUpgrade(23);
+    }
+
+    /**
+     * Test that upgrading a version 24 database moves the coins into the coins table
+     */
+    @Test
+    public void test_coinsTableUpgradeFromV24() {
+        validateCoinsTableUpgrade(24);
+    }
+
+    /**
+     * Test that upgrading a version 25 database moves the coins into the coins table
+     */
+    @Test
+    public void test_coinsTableUpgradeFromV25() {
+        validateCoinsTableUpgrade(25);
+    }
+
+    /**
+     * Test that upgrading a version 26 database moves the coins into the coins table
+     */
+    @Test
+    public void test_coinsTableUpgradeFromV26() {
+        validateCoinsTableUpgrade(26);
+    }
+
+    /**
+     * Creates a database with the structure of an older version, where each collection has
+     * its own table, and checks that opening it moves every coin into the coins table.
+     * One of the collections is named "Coins" so its table conflicts with the coins table.
+     *
+     * @param version database version to create
+     */
+    private void validateCoinsTableUpgrade(int version) {
+        Context context = ApplicationProvider.getApplicationContext();
+        File dbFile = context.getDatabasePath(DATABASE_NAME);
+        context.deleteDatabase(DATABASE_NAME);
+
+        // Collections with every coin field set, and sort orders that don't match the ids
+        String[] collectionNames = new String[]{"Barber Dimes Upgrade", "Coins"};
+        String[] coinTypes = new String[]{"Barber Dimes", "Indian Head Cents"};
+        int[][] years = new int[][]{{1892, 1916}, {1859, 1909}};
+        ArrayList<ArrayList<CoinSlot>> coinLists = new ArrayList<>();
+        for (int[] yearRange : years) {
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            int numCoins = yearRange[1] - yearRange[0] + 1;
+            for (int i = 0; i < numCoins; i++) {
+                coinList.add(new CoinSlot(0, Integer.toString(yearRange[0] + i), "", (i % 3 == 0),
+                        i % 4, i % 2, "Notes " + i, (numCoins - i) * 10, (i == 0), i % 5 - 1));
+            }
+            coinLists.add(coinList);
+        }
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        createLegacyCollectionInfoTable(db, version);
+        for (int i = 0; i < collectionNames.length; i++) {
+            createLegacyCollection(db, version, collectionNames[i], coinTypes[i], years[i], i, coinLists.get(i));
+        }
+        db.setVersion(version);
+        db.close();
+
+        // Opening the app upgrades the database
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+                activity.mDbAdapter.getAllTables(collectionListEntries);
+                assertEquals(collectionNames.length, collectionListEntries.size());
+                for (int i = 0; i < collectionNames.length; i++) {
+                    ArrayList<CoinSlot> coinList = coinLists.get(i);
+                    CollectionListInfo collectionListInfo = collectionListEntries.get(i);
+                    assertEquals(collectionNames[i], collectionListInfo.getName());
+                    assertEquals(coinList.size(), collectionListInfo.getMax());
+                    int numCollected = 0;
+                    for (CoinSlot coinSlot : coinList) {
+                        numCollected += coinSlot.isInCollectionInt();
+                    }
+                    assertEquals(numCollected, collectionListInfo.getCollected());
+
+                    // The coins were inserted in reverse sort order
+                    ArrayList<CoinSlot> expectedCoinList = new ArrayList<>(coinList);
+                    Collections.reverse(expectedCoinList);
+                    ArrayList<CoinSlot> dbCoinList = activity.mDbAdapter.getCoinList(collectionNames[i], true);
+                    compareCoinSlotLists(expectedCoinList, dbCoinList, true);
+                    for (int j = 0; j < expectedCoinList.size(); j++) {
+                        assertEquals(expectedCoinList.get(j).getSortOrder(), dbCoinList.get(j).getSortOrder());
+                    }
+
+                    // Make sure the coins can still be updated
+                    CoinSlot coinSlot = dbCoinList.get(0);
+                    activity.mDbAdapter.toggleInCollection(collectionNames[i], coinSlot);
+                    assertEquals(coinSlot.isInCollection() ? 0 : 1,
+                            activity.mDbAdapter.fetchIsInCollection(collectionNames[i], coinSlot));
+                }
+            });
+        }
+
+        // The collection tables and their indexes are replaced by the coins table
+        db = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        assertEquals(DATABASE_VERSION, db.getVersion());
+        HashSet<String> tableNames = new HashSet<>();
+        HashSet<String> indexNames = new HashSet<>();
+        try (Cursor cursor = db.rawQuery("SELECT type, name FROM sqlite_master", null)) {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(1).toLowerCase(Locale.ROOT);
+                if ("table".equals(cursor.getString(0))) {
+                    tableNames.add(name);
+                } else if ("index".equals(cursor.getString(0))) {
+                    indexNames.add(name);
+                }
+            }
+        }
+        assertTrue(tableNames.contains(TBL_COINS));
+        assertFalse(tableNames.contains(collectionNames[0].toLowerCase(Locale.ROOT)));
+        assertTrue(indexNames.contains(DatabaseHelper.IDX_COINS_SORT_ORDER.toLowerCase(Locale.ROOT)));
+        assertTrue(indexNames.contains(DatabaseHelper.IDX_COINS_NAME_MINT.toLowerCase(Locale.ROOT)));
+        for (String indexName : indexNames) {
+            assertFalse(indexName.endsWith("__idx_sortorder"));
+        }
+        assertEquals(coinLists.get(0).size() + coinLists.get(1).size(),
+                DatabaseUtils.queryNumEntries(db, TBL_COINS));
+        db.close();
+    }
+
+    /**
+     * Creates the collection info table with the structure it had in an older version
+     *
+     * @param db      database
+     * @param version database version
+     */
+    private void createLegacyCollectionInfoTable(SQLiteDatabase db, int version) {
+        db.execSQL("CREATE TABLE collection_info (_id integer primary key,"
+                + " name text not null,"
+                + " coinType text not null,"
+                + " total integer,"
+                + " display integer default 0,"
+                + " displayOrder integer,"
+                + " startYear integer default 0,"
+                + " endYear integer default 0,"
+                + " showMintMarks integer default 0,"
+                + " showCheckboxes integer default 0,"
+                + " showMintMarksStr text not null default '',"
+                + " showCheckboxesStr text not null default ''"
+                + ((version >= 24) ? ", collected integer default 0" : "")
+                + ((version >= 26) ? ", changeSeq integer default 0" : "")
+                + ");");
+        if (version >= 26) {
+            db.execSQL("CREATE TABLE change_sequence (_id integer primary key, sequence integer not null);");
+            db.execSQL("INSERT INTO change_sequence (_id, sequence) VALUES (1, 0)");
+        }
+    }
+
+    /**
+     * Adds a collection stored in its own table, the way versions before 27 did
+     *
+     * @param db             database
+     * @param version        database version
+     * @param collectionName collection name
+     * @param coinType       coin type
+     * @param years          start and end year of the collection
+     * @param displayOrder   display order of the collection
+     * @param coinList       coins to add
+     */
+    private void createLegacyCollection(SQLiteDatabase db, int version, String collectionName, String coinType,
+                                        int[] years, int displayOrder, ArrayList<CoinSlot> coinList) {
+        db.execSQL("CREATE TABLE [" + collectionName + "] (_id integer primary key,"
+                + " coinIdentifier text not null,"
+                + " coinMint text,"
+                + " inCollection integer,"
+                + " advGradeIndex integer default 0,"
+                + " advQuantityIndex integer default 0,"
+                + " advNotes text default \"\","
+                + " sortOrder integer not null,"
+                + " customCoin integer default 0,"
+                + " imageId integer default -1);");
+        if (version >= 25) {
+            db.execSQL("CREATE INDEX [" + collectionName + "__idx_sortOrder] ON [" + collectionName + "] (sortOrder)");
+            db.execSQL("CREATE INDEX [" + collectionName + "__idx_coinIdentifier_coinMint] ON ["
+                    + collectionName + "] (coinIdentifier, coinMint)");
+        }
+
+        int numCollected = 0;
+        for (CoinSlot coinSlot : coinList) {
+            ContentValues values = new ContentValues();
+            values.put("coinIdentifier", coinSlot.getIdentifier());
+            values.put("coinMint", coinSlot.getMint());
+            values.put("inCollection", coinSlot.isInCollectionInt());
+            values.put("advGradeIndex", coinSlot.getAdvancedGrades());
+            values.put("advQuantityIndex", coinSlot.getAdvancedQuantities());
+            values.put("advNotes", coinSlot.getAdvancedNotes());
+            values.put("sortOrder", coinSlot.getSortOrder());
+            values.put("customCoin", coinSlot.isCustomCoinInt());
+            values.put("imageId", coinSlot.getImageId());
+            db.insert("[" + collectionName + "]", null, values);
+            numCollected += coinSlot.isInCollectionInt();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("name", collectionName);
+        values.put("coinType", coinType);
+        values.put("total", coinList.size());
+        values.put("displayOrder", displayOrder);
+        values.put("startYear", years[0]);
+        values.put("endYear", years[1]);
+        values.put("showMintMarksStr", "0");
+        values.put("showCheckboxesStr", "0");
+        if (version >= 24) {
+            values.put("collected", numCollected);
+        }
+        db.insert("collection_info", null, values);
+    }
+}
@@ -0,0 +1,878 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.spencerpages;
+
+import static com.coincollection.CoinSlot.COIN_SLOT_COLLECTION_WHERE_CLAUSE;
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_ID;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_CUSTOM_COIN;
+import static com.coincollection.CoinSlot.COL_IMAGE_ID;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.COL_SORT_ORDER;
+import static com.coincollection.CoinSlot.TBL_COINS;
+import static com.coincollection.BackupSnapshot.SNAPSHOT_FILE_EXT;
+import static com.coincollection.ExportImportHelper.COMPRESSION_GZIP;
+import static com.coincollection.ExportImportHelper.COMPRESSION_NONE;
+import static com.coincollection.ExportImportHelper.COMPRESSION_ZIP;
+import static com.coincollection.ExportImportHelper.CSV_SEPARATOR;
+import static com.coincollection.ExportImportHelper.JSON_CHARSET;
+import static com.coincollection.ExportImportHelper.JSON_COLLECTIONS;
+import static com.coincollection.ExportImportHelper.JSON_DB_VERSION;
+import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_COLLECTION_LIST_FILE_EXT;
+import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME;
+import static com.spencerpages.MainApplication.COLLECTION_TYPES;
+import static com.spencerpages.MainApplication.DATABASE_NAME;
+import static com.spencerpages.MainApplication.DATABASE_VERSION;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Environment;
+import android.util.JsonWriter;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CoinSlot;
+import com.coincollection.CollectionInfo;
+import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseAdapter;
+import com.coincollection.DatabaseHelper;
+import com.coincollection.DatabaseUpgradeStats;
+import com.coincollection.ExportImportHelper;
+import com.coincollection.ExportImportHelper.SectionType;
+import com.coincollection.ProgressReporter;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Benchmarks for database operations. These print timing results and check that the
+ * operations completed correctly, but don't fail based on timing.
+ * <p>
+ * The benchmarks use large databases and take a while, so they're skipped unless the
+ * runBenchmarks system property is set (Ex: ./gradlew test -DrunBenchmarks=true). The
+ * functional checks are covered by ExportImportTests.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseBenchmarkTests extends BaseTestCase {
+
+    private final static int NUM_COPIES_PER_COLLECTION_TYPE = 3;
+    private final static int UPGRADE_FROM_VERSION = 2;
+    private final static int NUM_COIN_LIST_ROWS = 10000;
+    private final static int NUM_COIN_LIST_ITERATIONS = 5;
+    private final static int NUM_EXPORT_COLLECTIONS = 50;
+    private final static int NUM_EXPORT_COINS_PER_COLLECTION = 10000;
+    private final static int NUM_PARALLEL_EXPORT_COLLECTIONS = 300;
+    private final static int NUM_PARALLEL_EXPORT_COINS_PER_COLLECTION = 500;
+    private final static int[] PARALLEL_EXPORT_THREAD_COUNTS = new int[]{1, 2, 4};
+    private final static int NUM_INDEX_BUILD_COINS = 200000;
+    private final static int NUM_V1_UPGRADE_COPIES = 10;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    /**
+     * Skips the benchmarks unless they were requested
+     */
+    @Before
+    public void checkBenchmarksEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+    }
+
+    /**
+     * Print a benchmark result
+     *
+     * @param name      benchmark name
+     * @param elapsedNs elapsed time in nanoseconds
+     */
+    static void printResult(String name, long elapsedNs) {
+        System.out.println("Benchmark " + name + ": " + (elapsedNs / 1000000) + " ms");
+    }
+
+    /**
+     * Print a benchmark allocation result
+     *
+     * @param name           benchmark name
+     * @param allocatedBytes bytes allocated, or -1 if not supported by the JVM
+     * @param numRows        number of rows processed
+     */
+    static void printAllocations(String name, long allocatedBytes, int numRows) {
+        if (allocatedBytes < 0) {
+            System.out.println("Benchmark " + name + ": allocation tracking not supported");
+        } else {
+            System.out.println("Benchmark " + name + ": " + (allocatedBytes / numRows) + " bytes/row");
+        }
+    }
+
+    /**
+     * Gets the number of bytes allocated by the current thread so far
+     *
+     * @return bytes allocated, or -1 if not supported by the JVM
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Compare loading a large coin list with the row mapper against looking up each
+     * column index by name for every row
+     */
+    @Test
+    public void test_coinListRowMapper() {
+        Context context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+
+        FullCollection collection = getRandomTestScenarios(COLLECTION_TYPES[0], 0).get(0);
+        String tableName = collection.mCollectionListInfo.getName();
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < NUM_COIN_LIST_ROWS; i++) {
+            coinList.add(new CoinSlot("Coin " + i, (i % 2 == 0) ? "" : " D", i));
+        }
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(context);
+        dbAdapter.open();
+        dbAdapter.createAndPopulateNewTable(collection.mCollectionListInfo, 0, coinList);
+
+        // Warm up both paths so the timings don't include class loading
+        ArrayList<CoinSlot> mappedList = dbAdapter.getCoinList(tableName, true);
+        DatabaseHelper dbHelper = new DatabaseHelper(context);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        ArrayList<CoinSlot> lookupList = getCoinListByColumnName(db, tableName);
+        assertEquals(NUM_COIN_LIST_ROWS, mappedList.size());
+        compareCoinSlotLists(mappedList, lookupList, true);
+
+        long startBytes = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < NUM_COIN_LIST_ITERATIONS; i++) {
+            getCoinListByColumnName(db, tableName);
+        }
+        long lookupNs = System.nanoTime() - startTime;
+        long lookupBytes = (startBytes < 0) ? -1 : getAllocatedBytes() - startBytes;
+
+        startBytes = getAllocatedBytes();
+        startTime = System.nanoTime();
+        for (int i = 0; i < NUM_COIN_LIST_ITERATIONS; i++) {
+            dbAdapter.getCoinList(tableName, true);
+        }
+        long mappedNs = System.nanoTime() - startTime;
+        long mappedBytes = (startBytes < 0) ? -1 : getAllocatedBytes() - startBytes;
+
+        int numRows = NUM_COIN_LIST_ROWS * NUM_COIN_LIST_ITERATIONS;
+        printResult("coin list with per-row column lookups", lookupNs);
+        printResult("coin list with row mapper", mappedNs);
+        printAllocations("coin list with per-row column lookups", lookupBytes, numRows);
+        printAllocations("coin list with row mapper", mappedBytes, numRows);
+
+        db.close();
+        dbHelper.close();
+        dbAdapter.close();
+    }
+
+    /**
+     * Loads the coin list looking up each column index by name for every row, the way
+     * the coin list was loaded before the row mapper was added
+     *
+     * @param db        database
+     * @param tableName collection name
+     * @return coin list
+     */
+    private ArrayList<CoinSlot> getCoinListByColumnName(SQLiteDatabase db, String tableName) {
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        Cursor cursor = db.query(TBL_COINS, new String[]{COL_COIN_ID, COL_COIN_IDENTIFIER,
+                        COL_COIN_MINT, COL_IN_COLLECTION, COL_SORT_ORDER, COL_CUSTOM_COIN, COL_IMAGE_ID,
+                        COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX, COL_ADV_NOTES},
+                COIN_SLOT_COLLECTION_WHERE_CLAUSE, new String[]{tableName}, null, null, COL_SORT_ORDER);
+        if (cursor.moveToFirst()) {
+            do {
+                coinList.add(new CoinSlot(
+                        cursor.getLong(cursor.getColumnIndexOrThrow(COL_COIN_ID)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_IDENTIFIER)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COL_COIN_MINT)),
+                        (cursor.getInt(cursor.getColumnIndexOrThrow(COL_IN_COLLECTION)) != 0),
+                        Integer.valueOf(cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_GRADE_INDEX))),
+                        Integer.valueOf(cursor.getInt(cursor.getColumnIndexOrThrow(COL_ADV_QUANTITY_INDEX))),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COL_ADV_NOTES)),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_SORT_ORDER)),
+                        (cursor.getInt(cursor.getColumnIndexOrThrow(COL_CUSTOM_COIN)) != 0),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(COL_IMAGE_ID))));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return coinList;
+    }
+
+    /**
+     * Compare exporting a synthetic 500k coin database by streaming rows from the database
+     * against loading each collection's coin list first, the way exports worked before
+     */
+    @Test
+    public void test_streamingExportLargeDatabase() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = createExportDatabase(NUM_EXPORT_COLLECTIONS, NUM_EXPORT_COINS_PER_COLLECTION);
+        int numRows = NUM_EXPORT_COLLECTIONS * NUM_EXPORT_COINS_PER_COLLECTION;
+        ExportImportHelper helper = new ExportImportHelper(context.getResources(), dbAdapter);
+
+        // JSON
+        File listJsonFile = mTempFolder.newFile("list-export.json");
+        long startBytes = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        exportJsonFromCoinLists(dbAdapter, listJsonFile);
+        long listJsonNs = System.nanoTime() - startTime;
+        long listJsonBytes = (startBytes < 0) ? -1 : getAllocatedBytes() - startBytes;
+
+        File streamJsonFile = mTempFolder.newFile("stream-export.json");
+        startBytes = getAllocatedBytes();
+        startTime = System.nanoTime();
+        exportWithHelper(streamJsonFile, outputStream -> helper.exportCollectionsToJson(outputStream, ""));
+        long streamJsonNs = System.nanoTime() - startTime;
+        long streamJsonBytes = (startBytes < 0) ? -1 : getAllocatedBytes() - startBytes;
+        assertArrayEquals(getFileDigest(listJsonFile), getFileDigest(streamJsonFile));
+
+        // CSV
+        File listCsvFile = mTempFolder.newFile("list-export.csv");
+        startBytes = getAllocatedBytes();
+        startTime = System.nanoTime();
+        exportCsvFromCoinLists(dbAdapter, listCsvFile);
+        long listCsvNs = System.nanoTime() - startTime;
+        long listCsvBytes = (startBytes < 0) ? -1 : getAllocatedBytes() - startBytes;
+
+        File streamCsvFile = mTempFolder.newFile("stream-export.csv");
+        startBytes = getAllocatedBytes();
+        startTime = System.nanoTime();
+        exportWithHelper(streamCsvFile, outputStream -> helper.exportCollectionsToSingleCSV(outputStream, ""));
+        long streamCsvNs = System.nanoTime() - startTime;
+        long streamCsvBytes = (startBytes < 0) ? -1 : getAllocatedBytes() - startBytes;
+        assertArrayEquals(getFileDigest(listCsvFile), getFileDigest(streamCsvFile));
+
+        printResult("JSON export from coin lists", listJsonNs);
+        printResult("JSON export streamed from cursor", streamJsonNs);
+        printResult("CSV export from coin lists", listCsvNs);
+        printResult("CSV export streamed from cursor", streamCsvNs);
+        printAllocations("JSON export from coin lists", listJsonBytes, numRows);
+        printAllocations("JSON export streamed from cursor", streamJsonBytes, numRows);
+        printAllocations("CSV export from coin lists", listCsvBytes, numRows);
+        printAllocations("CSV export streamed from cursor", streamCsvBytes, numRows);
+        dbAdapter.close();
+    }
+
+    /**
+     * Compare export times with collections serialized on different numbers of threads,
+     * on a database with several hundred collections
+     */
+    @Test
+    public void test_parallelExport() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = createExportDatabase(NUM_PARALLEL_EXPORT_COLLECTIONS, NUM_PARALLEL_EXPORT_COINS_PER_COLLECTION);
+        System.out.println("Benchmark parallel export: " + Runtime.getRuntime().availableProcessors() + " processors");
+
+        byte[] sequentialJsonDigest = null;
+        byte[] sequentialCsvDigest = null;
+        for (int numThreads : PARALLEL_EXPORT_THREAD_COUNTS) {
+            ExportImportHelper helper = new ExportImportHelper(context.getResources(), dbAdapter);
+            helper.setExportThreads(numThreads);
+
+            File jsonFile = mTempFolder.newFile("parallel-export-" + numThreads + ".json");
+            long startTime = System.nanoTime();
+            exportWithHelper(jsonFile, outputStream -> helper.exportCollectionsToJson(outputStream, ""));
+            printResult("JSON export with " + numThreads + " thread(s)", System.nanoTime() - startTime);
+
+            File csvFile = mTempFolder.newFile("parallel-export-" + numThreads + ".csv");
+            startTime = System.nanoTime();
+            exportWithHelper(csvFile, outputStream -> helper.exportCollectionsToSingleCSV(outputStream, ""));
+            printResult("CSV export with " + numThreads + " thread(s)", System.nanoTime() - startTime);
+
+            // The output must not depend on the number of threads
+            if (sequentialJsonDigest == null) {
+                sequentialJsonDigest = getFileDigest(jsonFile);
+                sequentialCsvDigest = getFileDigest(csvFile);
+            } else {
+                assertArrayEquals(sequentialJsonDigest, getFileDigest(jsonFile));
+                assertArrayEquals(sequentialCsvDigest, getFileDigest(csvFile));
+            }
+        }
+        dbAdapter.close();
+    }
+
+    /**
+     * Compare legacy CSV import times with the collection files parsed on different numbers
+     * of threads, on a database with several hundred collections
+     */
+    @Test
+    public void test_parallelLegacyCsvImport() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = createExportDatabase(NUM_PARALLEL_EXPORT_COLLECTIONS, NUM_PARALLEL_EXPORT_COINS_PER_COLLECTION);
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        File exportDir = mTempFolder.newFolder("parallel-legacy-import");
+        ExportImportHelper helper = new ExportImportHelper(context.getResources(), dbAdapter);
+        helper.exportCollectionsToLegacyCSV(exportDir.getAbsolutePath());
+        System.out.println("Benchmark parallel legacy import: " + Runtime.getRuntime().availableProcessors() + " processors");
+
+        for (int numThreads : PARALLEL_EXPORT_THREAD_COUNTS) {
+            helper.setImportThreads(numThreads);
+            long startTime = System.nanoTime();
+            assertEquals("", helper.importCollectionsFromLegacyCSV(exportDir.getAbsolutePath()));
+            printResult("Legacy CSV import with " + numThreads + " thread(s)", System.nanoTime() - startTime);
+            ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+            dbAdapter.getAllTables(collectionListEntries);
+            assertEquals(NUM_PARALLEL_EXPORT_COLLECTIONS, collectionListEntries.size());
+        }
+        dbAdapter.close();
+    }
+
+    /**
+     * Compare the size and export/import time of the uncompressed, gzip and zip backup
+     * formats on a synthetic 500k coin database
+     */
+    @Test
+    public void test_compressedExportLargeDatabase() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = createExportDatabase(NUM_EXPORT_COLLECTIONS, NUM_EXPORT_COINS_PER_COLLECTION);
+        int[] compressions = new int[]{COMPRESSION_NONE, COMPRESSION_GZIP, COMPRESSION_ZIP};
+        String[] compressionNames = new String[]{"uncompressed", "gzip", "zip"};
+
+        for (boolean useCsv : new boolean[]{false, true}) {
+            for (int i = 0; i < compressions.length; i++) {
+                String name = (useCsv ? "CSV " : "JSON ") + compressionNames[i];
+                ExportImportHelper helper = new ExportImportHelper(context.getResources(), dbAdapter);
+                helper.setExportCompression(compressions[i]);
+
+                File exportFile = mTempFolder.newFile("compressed-export-" + i + (useCsv ? ".csv" : ".json"));
+                long startTime = System.nanoTime();
+                exportWithHelper(exportFile, outputStream -> useCsv
+                        ? helper.exportCollectionsToSingleCSV(outputStream, "")
+                        : helper.exportCollectionsToJson(outputStream, ""));
+                printResult(name + " export", System.nanoTime() - startTime);
+                System.out.println("Benchmark " + name + " size: " + (exportFile.length() / 1024) + " KB");
+
+                startTime = System.nanoTime();
+                try (InputStream inputStream = new FileInputStream(exportFile)) {
+                    assertEquals("", useCsv
+                            ? helper.importCollectionsFromSingleCSV(inputStream)
+                            : helper.importCollectionsFromJson(inputStream));
+                }
+                printResult(name + " import", System.nanoTime() - startTime);
+            }
+        }
+
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        dbAdapter.getAllTables(collectionListEntries);
+        assertEquals(NUM_EXPORT_COLLECTIONS, collectionListEntries.size());
+        dbAdapter.close();
+    }
+
+    /**
+     * Compare restoring a synthetic 500k coin database from a binary snapshot against
+     * restoring it from JSON
+     */
+    @Test
+    public void test_snapshotRestoreLargeDatabase() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = createExportDatabase(NUM_EXPORT_COLLECTIONS, NUM_EXPORT_COINS_PER_COLLECTION);
+        ExportImportHelper helper = new ExportImportHelper(context.getResources(), dbAdapter);
+
+        File jsonFile = mTempFolder.newFile("restore.json");
+        long startTime = System.nanoTime();
+        exportWithHelper(jsonFile, outputStream -> helper.exportCollectionsToJson(outputStream, ""));
+        printResult("JSON export", System.nanoTime() - startTime);
+
+        File snapshotFile = mTempFolder.newFile("restore" + SNAPSHOT_FILE_EXT);
+        startTime = System.nanoTime();
+        exportWithHelper(snapshotFile, outputStream -> helper.exportCollectionsToSnapshot(outputStream, ""));
+        printResult("snapshot export", System.nanoTime() - startTime);
+
+        startTime = System.nanoTime();
+        try (InputStream inputStream = new FileInputStream(jsonFile)) {
+            assertEquals("", helper.importCollectionsFromJson(inputStream));
+        }
+        printResult("JSON restore", System.nanoTime() - startTime);
+
+        startTime = System.nanoTime();
+        try (InputStream inputStream = new FileInputStream(snapshotFile)) {
+            assertEquals("", helper.importCollectionsFromSnapshot(inputStream));
+        }
+        printResult("snapshot restore", System.nanoTime() - startTime);
+
+        System.out.println("Benchmark JSON size: " + (jsonFile.length() / 1024) + " KB");
+        System.out.println("Benchmark snapshot size: " + (snapshotFile.length() / 1024) + " KB");
+
+        // The restored database exports to the same JSON file
+        File checkJsonFile = mTempFolder.newFile("restore-check.json");
+        exportWithHelper(checkJsonFile, outputStream -> helper.exportCollectionsToJson(outputStream, ""));
+        assertArrayEquals(getFileDigest(jsonFile), getFileDigest(checkJsonFile));
+        dbAdapter.close();
+    }
+
+    /**
+     * Compare a full snapshot against a differential snapshot after a single coin has changed
+     * in a synthetic 500k coin database, and check that restoring the chain matches
+     */
+    @Test
+    public void test_differentialSnapshotLargeDatabase() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = createExportDatabase(NUM_EXPORT_COLLECTIONS, NUM_EXPORT_COINS_PER_COLLECTION);
+        ExportImportHelper helper = new ExportImportHelper(context.getResources(), dbAdapter);
+
+        File baseFile = mTempFolder.newFile("base" + SNAPSHOT_FILE_EXT);
+        exportWithHelper(baseFile, outputStream -> helper.exportCollectionsToSnapshot(outputStream, ""));
+        int baseChangeSeq;
+        try (InputStream inputStream = new FileInputStream(baseFile)) {
+            baseChangeSeq = helper.getSnapshotChangeSeq(inputStream);
+        }
+
+        // Change a single coin, then make a full and a differential snapshot
+        ArrayList<CoinSlot> coinList = dbAdapter.getCoinList("Export 0", true);
+        dbAdapter.updateInCollection("Export 0", coinList.get(1).getDatabaseId(), true);
+
+        File fullFile = mTempFolder.newFile("full" + SNAPSHOT_FILE_EXT);
+        long startTime = System.nanoTime();
+        exportWithHelper(fullFile, outputStream -> helper.exportCollectionsToSnapshot(outputStream, ""));
+        printResult("full snapshot export", System.nanoTime() - startTime);
+
+        File deltaFile = mTempFolder.newFile("delta" + SNAPSHOT_FILE_EXT);
+        startTime = System.nanoTime();
+        exportWithHelper(deltaFile, outputStream -> helper.exportDifferentialSnapshot(outputStream, "", baseChangeSeq));
+        printResult("differential snapshot export", System.nanoTime() - startTime);
+
+        System.out.println("Benchmark full snapshot size: " + (fullFile.length() / 1024) + " KB");
+        System.out.println("Benchmark differential snapshot size: " + (deltaFile.length() / 1024) + " KB");
+        assertTrue(deltaFile.length() * NUM_EXPORT_COLLECTIONS / 2 < fullFile.length());
+
+        // Restoring the base plus the differential snapshot exports to the same JSON file
+        File jsonFile = mTempFolder.newFile("differential.json");
+        exportWithHelper(jsonFile, outputStream -> helper.exportCollectionsToJson(outputStream, ""));
+        startTime = System.nanoTime();
+        try (InputStream baseStream = new FileInputStream(baseFile);
+             InputStream deltaStream = new FileInputStream(deltaFile)) {
+            assertEquals("", helper.restoreSnapshotChain(Arrays.asList(baseStream, deltaStream)));
+        }
+        printResult("differential snapshot restore", System.nanoTime() - startTime);
+        File checkJsonFile = mTempFolder.newFile("differential-check.json");
+        exportWithHelper(checkJsonFile, outputStream -> helper.exportCollectionsToJson(outputStream, ""));
+        assertArrayEquals(getFileDigest(jsonFile), getFileDigest(checkJsonFile));
+        dbAdapter.close();
+    }
+
+    /**
+     * Time importing a synthetic 500k coin database from a single CSV file, with the coins
+     * streamed into the database as they're read, and report the peak heap growth sampled
+     * after each collection
+     */
+    @Test
+    public void test_streamingCsvImportLargeDatabase() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        DatabaseAdapter dbAdapter = createExportDatabase(NUM_EXPORT_COLLECTIONS, NUM_EXPORT_COINS_PER_COLLECTION);
+        ExportImportHelper helper = new ExportImportHelper(context.getResources(), dbAdapter);
+
+        File csvFile = mTempFolder.newFile("streaming-import.csv");
+        exportWithHelper(csvFile, outputStream -> helper.exportCollectionsToSingleCSV(outputStream, ""));
+
+        Runtime runtime = Runtime.getRuntime();
+        long[] peakUsedBytes = new long[1];
+        helper.setProgressReporter(new ProgressReporter(progress ->
+                peakUsedBytes[0] = Math.max(peakUsedBytes[0], runtime.totalMemory() - runtime.freeMemory()), 0));
+        System.gc();
+        long startUsedBytes = runtime.totalMemory() - runtime.freeMemory();
+        long startAllocatedBytes = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        try (InputStream inputStream = new FileInputStream(csvFile)) {
+            assertEquals("", helper.importCollectionsFromSingleCSV(inputStream));
+        }
+        printResult("streaming CSV import", System.nanoTime() - startTime);
+        long allocatedBytes = (startAllocatedBytes >= 0) ? getAllocatedBytes() - startAllocatedBytes : -1;
+        printAllocations("streaming CSV import", allocatedBytes, NUM_EXPORT_COLLECTIONS * NUM_EXPORT_COINS_PER_COLLECTION);
+        System.out.println("Benchmark CSV size: " + (csvFile.length() / 1024) + " KB");
+        System.out.println("Benchmark streaming CSV import peak heap growth: "
+                + (Math.max(peakUsedBytes[0] - startUsedBytes, 0) / 1024) + " KB");
+
+        // The imported database exports to the same CSV file
+        helper.setProgressReporter(new ProgressReporter(null));
+        File checkCsvFile = mTempFolder.newFile("streaming-import-check.csv");
+        exportWithHelper(checkCsvFile, outputStream -> helper.exportCollectionsToSingleCSV(outputStream, ""));
+        assertArrayEquals(getFileDigest(csvFile), getFileDigest(checkCsvFile));
+        dbAdapter.close();
+    }
+
+    /**
+     * Compare populating a large collection with the coins table indexes in place against
+     * dropping the indexes and building them again afterwards. Rebuilding covers the coins
+     * of every collection, which is why createAndPopulateNewTable keeps the indexes.
+     */
+    @Test
+    public void test_importIndexBuildOrder() {
+        Context context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+
+        // Shuffle the identifiers so the identifier/mint index isn't filled in order
+        int numCoins = NUM_INDEX_BUILD_COINS;
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < numCoins; i++) {
+            coinList.add(new CoinSlot("Coin " + i, (i % 2 == 0) ? "" : "D", 0));
+        }
+        Collections.shuffle(coinList, new Random(0));
+        for (int i = 0; i < numCoins; i++) {
+            coinList.get(i).setSortOrder(i);
+        }
+
+        // Create the empty collections, then populate them outside of the adapter
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(context);
+        dbAdapter.open();
+        CollectionListInfo baseInfo = getRandomTestScenarios(COLLECTION_TYPES[0], 0).get(0).mCollectionListInfo;
+        dbAdapter.createAndPopulateNewTable(baseInfo.copy("Indexes First"), 0, new ArrayList<>());
+        dbAdapter.createAndPopulateNewTable(baseInfo.copy("Indexes After"), 1, new ArrayList<>());
+        dbAdapter.close();
+        DatabaseHelper dbHelper = new DatabaseHelper(context);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        long startTime = System.nanoTime();
+        db.beginTransaction();
+        try {
+            DatabaseHelper.insertCoinList(db, "Indexes First", coinList);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        printResult("populate with indexes created first", System.nanoTime() - startTime);
+
+        startTime = System.nanoTime();
+        db.beginTransaction();
+        try {
+            DatabaseHelper.dropCoinsIndexes(db);
+            DatabaseHelper.insertCoinList(db, "Indexes After", coinList);
+            DatabaseHelper.createCoinsIndexes(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        printResult("populate with indexes created after", System.nanoTime() - startTime);
+
+        assertEquals(numCoins, DatabaseUtils.queryNumEntries(db, TBL_COINS,
+                COIN_SLOT_COLLECTION_WHERE_CLAUSE, new String[]{"Indexes After"}));
+        db.close();
+        dbHelper.close();
+    }
+
+    /**
+     * Creates a new database with synthetic collections for the export benchmarks
+     *
+     * @param numCollections     number of collections to create
+     * @param coinsPerCollection number of coins in each collection
+     * @return open database adapter
+     */
+    private DatabaseAdapter createExportDatabase(int numCollections, int coinsPerCollection) {
+        Context context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(context);
+        dbAdapter.open();
+        CollectionListInfo baseInfo = getRandomTestScenarios(COLLECTION_TYPES[0], 0).get(0).mCollectionListInfo;
+        for (int i = 0; i < numCollections; i++) {
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            for (int j = 0; j < coinsPerCollection; j++) {
+                CoinSlot coinSlot = new CoinSlot("Coin " + j, (j % 2 == 0) ? "" : " D", j);
+                coinSlot.setInCollection(j % 3 == 0);
+                coinSlot.setAdvancedNotes((j % 5 == 0) ? "Notes, \"quoted\" " + j : "");
+                coinList.add(coinSlot);
+            }
+            dbAdapter.createAndPopulateNewTable(baseInfo.copy("Export " + i), i, coinList);
+        }
+        return dbAdapter;
+    }
+
+    /**
+     * Export operation to run against a file output stream
+     */
+    private interface ExportOperation {
+        String export(OutputStream outputStream);
+    }
+
+    /**
+     * Runs an ExportImportHelper export into a file
+     *
+     * @param file   file to write
+     * @param export export to run
+     * @throws IOException if an error occurs
+     */
+    private void exportWithHelper(File file, ExportOperation export) throws IOException {
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            export.export(outputStream);
+        }
+    }
+
+    /**
+     * Exports to JSON by loading each collection's coin list, the way exports worked before
+     * rows were streamed from the database
+     *
+     * @param dbAdapter database adapter
+     * @param file      file to write
+     * @throws IOException if an error occurs
+     */
+    private void exportJsonFromCoinLists(DatabaseAdapter dbAdapter, File file) throws IOException {
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        dbAdapter.getAllTables(collectionListEntries);
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), JSON_CHARSET))) {
+            writer.beginObject();
+            writer.name(JSON_DB_VERSION).value(DATABASE_VERSION);
+            writer.name(JSON_COLLECTIONS).beginArray();
+            for (CollectionListInfo collectionListInfo : collectionListEntries) {
+                ArrayList<CoinSlot> coinList = dbAdapter.getCoinList(collectionListInfo.getName(), true);
+                collectionListInfo.writeToJson(writer, dbAdapter, coinList);
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+
+    /**
+     * Exports to a single CSV file by loading each collection's coin list, the way exports
+     * worked before rows were streamed from the database
+     *
+     * @param dbAdapter database adapter
+     * @param file      file to write
+     * @throws IOException if an error occurs
+     */
+    private void exportCsvFromCoinLists(DatabaseAdapter dbAdapter, File file) throws IOException {
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        dbAdapter.getAllTables(collectionListEntries);
+        try (CSVWriter csvWriter = new CSVWriter(new OutputStreamWriter(new FileOutputStream(file)))) {
+            csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.DATABASE_VERSION.label});
+            csvWriter.writeNext(new String[]{String.valueOf(DATABASE_VERSION)});
+            for (CollectionListInfo collectionListInfo : collectionListEntries) {
+                ArrayList<CoinSlot> coinList = dbAdapter.getCoinList(collectionListInfo.getName(), true);
+                csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COLLECTIONS.label});
+                csvWriter.writeNext(CollectionListInfo.getCsvExportHeader());
+                csvWriter.writeNext(collectionListInfo.getCsvExportProperties(dbAdapter));
+                csvWriter.writeNext(new String[]{CSV_SEPARATOR, SectionType.COIN_LIST.label});
+                csvWriter.writeNext(CoinSlot.getCsvExportHeader());
+                for (CoinSlot coinSlot : coinList) {
+                    csvWriter.writeNext(coinSlot.getCsvExportProperties());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the SHA-256 digest of a file
+     *
+     * @param file file to read
+     * @return file digest
+     * @throws IOException if an error occurs
+     */
+    static byte[] getFileDigest(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int numRead;
+            while ((numRead = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, numRead);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Compare the collection upgrade time with and without the collection table indexes
+     */
+    @Test
+    public void test_upgradeWithAndWithoutIndexes() {
+        ArrayList<FullCollection> collections = new ArrayList<>();
+        for (int i = 0; i < NUM_COPIES_PER_COLLECTION_TYPE; i++) {
+            for (CollectionInfo collectionInfo : COLLECTION_TYPES) {
+                collections.addAll(getRandomTestScenarios(collectionInfo, 0));
+            }
+        }
+
+        long withoutIndexesNs = timeCollectionUpgrade(collections, false, UPGRADE_FROM_VERSION);
+        long withIndexesNs = timeCollectionUpgrade(collections, true, UPGRADE_FROM_VERSION);
+        printResult("upgrade from v" + UPGRADE_FROM_VERSION + " without indexes", withoutIndexesNs);
+        printResult("upgrade from v" + UPGRADE_FROM_VERSION + " with indexes", withIndexesNs);
+    }
+
+    /**
+     * Creates a database with the collections, then times the collection upgrades
+     *
+     * @param collections collections to populate the database with
+     * @param useIndexes  if false, the coins table indexes are dropped before the upgrade
+     * @param oldVersion  version to upgrade from
+     * @return elapsed time in nanoseconds
+     */
+    private long timeCollectionUpgrade(ArrayList<FullCollection> collections, boolean useIndexes, int oldVersion) {
+        Context context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(context);
+        dbAdapter.open();
+        for (int i = 0; i < collections.size(); i++) {
+            FullCollection collection = collections.get(i);
+            dbAdapter.createAndPopulateNewTable(collection.mCollectionListInfo, i, collection.mCoinList);
+        }
+        dbAdapter.close();
+
+        DatabaseHelper dbHelper = new DatabaseHelper(context);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        if (!useIndexes) {
+            DatabaseHelper.dropCoinsIndexes(db);
+        }
+
+        // Run the same upgrade path used when importing an old backup
+        long startTime = System.nanoTime();
+        db.beginTransaction();
+        try {
+            DatabaseHelper.upgradeDb(db, oldVersion, DATABASE_VERSION, true);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long elapsedNs = System.nanoTime() - startTime;
+
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        DatabaseHelper.getAllTables(db, collectionListEntries, false);
+        assertEquals(collections.size(), collectionListEntries.size());
+        db.close();
+        dbHelper.close();
+        return elapsedNs;
+    }
+
+    /**
+     * Time upgrading databases from every historical database version, printing the time
+     * taken by each upgrade step. The version 1 database is built with the version 1
+     * structure from the version 1 export test files and is upgraded when it's opened, like
+     * the first launch after updating from a very old version. The structure of later
+     * versions can't be recreated (the structure upgrades always run through to the latest
+     * version), so for those the collections are created with the latest structure and the
+     * collection upgrades are run from that version, like importing an old backup.
+     */
+    @Test
+    public void test_upgradeFromEveryVersion() throws IOException, CsvValidationException {
+        Context context = ApplicationProvider.getApplicationContext();
+
+        // Version 1
+        context.deleteDatabase(DATABASE_NAME);
+        File v1Dir = new File("src/test/data/v1-coin-collection-files");
+        ArrayList<String[]> v1CollectionList = readCsvFile(new File(v1Dir,
+                LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME + LEGACY_EXPORT_COLLECTION_LIST_FILE_EXT));
+        TestDatabaseHelper testDbHelper = new TestDatabaseHelper(context);
+        SQLiteDatabase db = testDbHelper.getWritableDatabase();
+        for (String[] collectionRow : v1CollectionList) {
+            ArrayList<Object[]> coinList = new ArrayList<>();
+            for (String[] coinRow : readCsvFile(new File(v1Dir, collectionRow[0] + ".csv"))) {
+                coinList.add(new Object[]{coinRow[0], coinRow[1], Integer.parseInt(coinRow[2])});
+            }
+            for (int i = 0; i < NUM_V1_UPGRADE_COPIES; i++) {
+                createV1Collection(db, collectionRow[0] + " " + i, collectionRow[1], coinList);
+            }
+        }
+        db.close();
+        testDbHelper.close();
+
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(context);
+        long startTime = System.nanoTime();
+        dbAdapter.open();
+        printResult("upgrade from v1 when opened", System.nanoTime() - startTime);
+        printUpgradeStats(1);
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        dbAdapter.getAllTables(collectionListEntries);
+        assertEquals(v1CollectionList.size() * NUM_V1_UPGRADE_COPIES, collectionListEntries.size());
+        dbAdapter.close();
+
+        // Later versions
+        ArrayList<FullCollection> collections = new ArrayList<>();
+        for (int i = 0; i < NUM_COPIES_PER_COLLECTION_TYPE; i++) {
+            for (CollectionInfo collectionInfo : COLLECTION_TYPES) {
+                collections.addAll(getRandomTestScenarios(collectionInfo, 0));
+            }
+        }
+        for (int version = 2; version < DATABASE_VERSION; version++) {
+            long elapsedNs = timeCollectionUpgrade(collections, true, version);
+            printResult("upgrade from v" + version + " on import", elapsedNs);
+            printUpgradeStats(version);
+        }
+    }
+
+    /**
+     * Prints the step timings of the last database upgrade
+     *
+     * @param oldVersion version the upgrade should have been from
+     */
+    private static void printUpgradeStats(int oldVersion) {
+        DatabaseUpgradeStats stats = DatabaseHelper.getLastUpgradeStats();
+        assertNotNull(stats);
+        assertEquals(oldVersion, stats.getOldVersion());
+        assertEquals(DATABASE_VERSION, stats.getNewVersion());
+        System.out.println("Benchmark " + stats);
+    }
+
+    /**
+     * Reads all the rows of a CSV file
+     *
+     * @param file file to read
+     * @return the rows
+     */
+    private static ArrayList<String[]> readCsvFile(File file) throws IOException, CsvValidationException {
+        ArrayList<String[]> rows = new ArrayList<>();
+        try (CSVReader csvReader = new CSVReader(new FileReader(file))) {
+            String[] row;
+            while ((row = csvReader.readNext()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
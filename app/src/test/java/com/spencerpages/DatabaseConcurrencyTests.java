@@ -0,0 +1,137 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.spencerpages;
+
+import static com.spencerpages.MainApplication.COLLECTION_TYPES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseAdapter;
+import com.coincollection.MainActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseConcurrencyTests extends BaseTestCase {
+
+    private final static int NUM_READERS = 4;
+    private final static int NUM_READS_PER_READER = 25;
+    private final static int TIMEOUT_SECONDS = 30;
+
+    /**
+     * Test that readers make progress while a long import transaction is in progress
+     */
+    @Test
+    public void test_readersProgressDuringImport() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                DatabaseAdapter dbAdapter = activity.mDbAdapter;
+                int numCommittedCollections = getCollectionNames(activity).size();
+
+                CountDownLatch writerStarted = new CountDownLatch(1);
+                CountDownLatch readersFinished = new CountDownLatch(NUM_READERS);
+                AtomicInteger numReads = new AtomicInteger(0);
+                AtomicReference<Throwable> failure = new AtomicReference<>(null);
+                AtomicReference<Boolean> readersFinishedDuringWrite = new AtomicReference<>(false);
+
+                // Writer - imports many collections inside a single transaction, and holds the
+                // transaction open until the readers finish (or time out)
+                Thread writer = new Thread(() -> {
+                    try {
+                        dbAdapter.runInTransaction(() -> {
+                            for (int i = 0; i < 10; i++) {
+                                FullCollection collection = getRandomTestScenarios(COLLECTION_TYPES[i % COLLECTION_TYPES.length], 0).get(0);
+                                dbAdapter.createAndPopulateNewTable(collection.mCollectionListInfo,
+                                        numCommittedCollections + i, collection.mCoinList);
+                                writerStarted.countDown();
+                            }
+                            try {
+                                readersFinishedDuringWrite.set(readersFinished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                            } catch (InterruptedException e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        });
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                        writerStarted.countDown();
+                    }
+                });
+
+                // Readers - repeatedly load the collection list and a coin list
+                ArrayList<Thread> readers = new ArrayList<>();
+                for (int i = 0; i < NUM_READERS; i++) {
+                    readers.add(new Thread(() -> {
+                        try {
+                            assertTrue(writerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                            for (int j = 0; j < NUM_READS_PER_READER; j++) {
+                                ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+                                dbAdapter.getAllTables(collectionListEntries);
+                                // Uncommitted collections from the import shouldn't be visible
+                                assertEquals(numCommittedCollections, collectionListEntries.size());
+                                dbAdapter.getCoinList(collectionListEntries.get(j % numCommittedCollections).getName(), true);
+                                numReads.incrementAndGet();
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            readersFinished.countDown();
+                        }
+                    }));
+                }
+
+                writer.start();
+                for (Thread reader : readers) {
+                    reader.start();
+                }
+                try {
+                    writer.join(TIMEOUT_SECONDS * 2 * 1000L);
+                    for (Thread reader : readers) {
+                        reader.join(TIMEOUT_SECONDS * 1000L);
+                    }
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                }
+
+                assertNull(failure.get());
+                assertTrue(readersFinishedDuringWrite.get());
+                assertEquals(NUM_READERS * NUM_READS_PER_READER, numReads.get());
+                assertEquals(numCommittedCollections + 10, getCollectionNames(activity).size());
+            });
+        }
+    }
+}
@@ -20,6 +20,10 @@
 
 package com.spencerpages;
 
+import static com.coincollection.BackupSnapshot.SNAPSHOT_FILE_EXT;
+import static com.coincollection.ExportImportHelper.COMPRESSION_GZIP;
+import static com.coincollection.ExportImportHelper.COMPRESSION_NONE;
+import static com.coincollection.ExportImportHelper.COMPRESSION_ZIP;
 import static com.coincollection.ExportImportHelper.JSON_CHARSET;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_COLLECTION_LIST_FILE_EXT;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME;
@@ -28,7 +32,10 @@ import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_FOLDER_NAME;
 import static com.coincollection.MainActivity.NUMBER_OF_COLLECTION_LIST_SPACERS;
 import static com.spencerpages.MainApplication.COLLECTION_TYPES;
 import static com.spencerpages.SharedTest.COLLECTION_LIST_INFO_SCENARIOS;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -37,6 +44,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import android.content.Intent;
+import android.database.SQLException;
 import android.util.JsonReader;
 import android.util.JsonWriter;
 
@@ -44,12 +52,17 @@ import androidx.annotation.NonNull;
 import androidx.test.core.app.ActivityScenario;
 import androidx.test.core.app.ApplicationProvider;
 
+import com.coincollection.BackupSnapshot;
 import com.coincollection.CoinSlot;
 import com.coincollection.CollectionInfo;
 import com.coincollection.CollectionListInfo;
+import com.coincollection.CollectionMergeResult;
 import com.coincollection.DatabaseAdapter;
+import com.coincollection.DatabaseHelper;
+import com.coincollection.DatabaseUpgradeStats;
 import com.coincollection.ExportImportHelper;
 import com.coincollection.MainActivity;
+import com.coincollection.ProgressReporter;
 import com.spencerpages.collections.AmericanInnovationDollars;
 import com.spencerpages.collections.NativeAmericanDollars;
 
@@ -59,14 +72,21 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
 public class ExportImportTests extends BaseTestCase {
@@ -139,6 +159,48 @@ public class ExportImportTests extends BaseTestCase {
         }
     }
 
+    /**
+     * Test that legacy CSV imports give the same result when the collection files are parsed
+     * in parallel, and that missing files are all reported without changing the database
+     */
+    @Test
+    public void test_legacyCsvParallelImport() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> beforeCoinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, beforeCollectionNames);
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                        helper.exportCollectionsToLegacyCSV(activity.getLegacyExportFolderName()));
+
+                for (int numThreads : new int[]{1, 4}) {
+                    deleteAllCollections(activity);
+                    helper.setImportThreads(numThreads);
+                    assertEquals("", helper.importCollectionsFromLegacyCSV(activity.getLegacyExportFolderName()));
+                    ArrayList<String> afterCollectionNames = getCollectionNames(activity);
+                    assertEquals(beforeCollectionNames, afterCollectionNames);
+                    compareListOfCoinSlotLists(beforeCoinLists,
+                            getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames), false);
+                }
+
+                // Remove the first and last collection files
+                File firstFile = getCollectionFile(activity, COLLECTION_TYPES[0]);
+                File lastFile = getCollectionFile(activity, COLLECTION_TYPES[COLLECTION_TYPES.length - 1]);
+                assertTrue(firstFile.delete());
+                assertTrue(lastFile.delete());
+                String result = helper.importCollectionsFromLegacyCSV(activity.getLegacyExportFolderName());
+                assertTrue(result.contains(activity.mRes.getString(R.string.cannot_find_input_file, firstFile.getAbsolutePath())));
+                assertTrue(result.contains(activity.mRes.getString(R.string.cannot_find_input_file, lastFile.getAbsolutePath())));
+                assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                compareListOfCoinSlotLists(beforeCoinLists,
+                        getCoinSlotListsFromCollectionNames(activity.mDbAdapter, beforeCollectionNames), false);
+            });
+        }
+    }
+
     /**
      * Get the collection file for a given collection info object
      *
@@ -204,6 +266,637 @@ public class ExportImportTests extends BaseTestCase {
         }
     }
 
+    /**
+     * Test merging a JSON export into a database that has changed since, including a dry run
+     */
+    @Test
+    public void test_mergeImportJson() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                DatabaseAdapter dbAdapter = activity.mDbAdapter;
+                ArrayList<String> exportedCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> exportedCoinLists = getCoinSlotListsFromCollectionNames(dbAdapter, exportedCollectionNames);
+
+                File exportFile = getTempFile("merge-export.json");
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, dbAdapter);
+                OutputStream outputStream = openOutputStream(exportFile);
+                assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                        helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME));
+                closeStream(outputStream);
+
+                // Change one coin, remove a collection and add a collection that isn't in the export
+                String changedName = exportedCollectionNames.get(0);
+                dbAdapter.toggleInCollection(changedName, dbAdapter.getCoinList(changedName, false).get(0));
+                String droppedName = exportedCollectionNames.get(1);
+                dbAdapter.dropCollectionTable(droppedName);
+                FullCollection addedCollection = getRandomTestScenarios(COLLECTION_TYPES[0], 1).get(0);
+                String addedName = addedCollection.mCollectionListInfo.getName() + " Added";
+                dbAdapter.createAndPopulateNewTable(addedCollection.mCollectionListInfo.copy(addedName),
+                        dbAdapter.getNextDisplayOrder(), addedCollection.mCoinList);
+                ArrayList<String> changedCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> changedCoinLists = getCoinSlotListsFromCollectionNames(dbAdapter, changedCollectionNames);
+
+                // The dry run reports the changes without making them, and the merge makes them
+                for (boolean dryRun : new boolean[]{true, false}) {
+                    ArrayList<CollectionMergeResult> mergeResults = new ArrayList<>();
+                    InputStream inputStream = openInputStream(exportFile);
+                    assertEquals("", helper.mergeCollectionsFromJson(inputStream, dryRun, mergeResults));
+                    closeStream(inputStream);
+                    assertEquals(exportedCollectionNames.size(), mergeResults.size());
+                    for (int i = 0; i < mergeResults.size(); i++) {
+                        CollectionMergeResult mergeResult = mergeResults.get(i);
+                        assertEquals(exportedCollectionNames.get(i), mergeResult.getName());
+                        if (mergeResult.getName().equals(changedName)) {
+                            assertFalse(mergeResult.isNewCollection());
+                            assertEquals(0, mergeResult.getNumInserted());
+                            assertEquals(1, mergeResult.getNumUpdated());
+                        } else if (mergeResult.getName().equals(droppedName)) {
+                            assertTrue(mergeResult.isNewCollection());
+                            assertEquals(exportedCoinLists.get(i).size(), mergeResult.getNumInserted());
+                        } else {
+                            assertFalse(mergeResult.isNewCollection());
+                            assertEquals(0, mergeResult.getNumChanged());
+                        }
+                    }
+                    if (dryRun) {
+                        assertEquals(changedCollectionNames, getCollectionNames(activity));
+                        compareListOfCoinSlotLists(changedCoinLists,
+                                getCoinSlotListsFromCollectionNames(dbAdapter, changedCollectionNames), true);
+                    }
+                }
+
+                // Exported collections match the export, and the added collection is kept
+                ArrayList<String> mergedCollectionNames = getCollectionNames(activity);
+                assertEquals(exportedCollectionNames.size() + 1, mergedCollectionNames.size());
+                assertTrue(mergedCollectionNames.contains(addedName));
+                compareListOfCoinSlotLists(exportedCoinLists,
+                        getCoinSlotListsFromCollectionNames(dbAdapter, exportedCollectionNames), true);
+
+                // Merging again doesn't change anything
+                ArrayList<CollectionMergeResult> mergeResults = new ArrayList<>();
+                InputStream inputStream = openInputStream(exportFile);
+                assertEquals("", helper.mergeCollectionsFromJson(inputStream, false, mergeResults));
+                closeStream(inputStream);
+                for (CollectionMergeResult mergeResult : mergeResults) {
+                    assertFalse(mergeResult.isNewCollection());
+                    assertEquals(0, mergeResult.getNumChanged());
+                }
+
+                // Older backups can't be merged
+                inputStream = openInputStream(new File("src/test/data/coin-collection-010822-16.json"));
+                assertEquals(activity.mRes.getString(R.string.error_merge_version, 16),
+                        helper.mergeCollectionsFromJson(inputStream, false, new ArrayList<>()));
+                closeStream(inputStream);
+                assertEquals(mergedCollectionNames, getCollectionNames(activity));
+            });
+        }
+    }
+
+    /**
+     * Test that a merge accepts JSON files with the database version after the collections,
+     * and that a merge that fails part way through doesn't change the database
+     */
+    @Test
+    public void test_mergeImportJsonVersionLastAndRollback() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                DatabaseAdapter dbAdapter = activity.mDbAdapter;
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, dbAdapter);
+                ArrayList<String> exportedCollectionNames = getCollectionNames(activity);
+                String changedName = exportedCollectionNames.get(0);
+                String droppedName = exportedCollectionNames.get(exportedCollectionNames.size() - 1);
+
+                File exportFile = getTempFile("merge-version-last.json");
+                OutputStream outputStream = openOutputStream(exportFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                String exportJson = null;
+                try {
+                    exportJson = new String(Files.readAllBytes(exportFile.toPath()), JSON_CHARSET);
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+                assertNotNull(exportJson);
+
+                // Move the database version after the collections
+                String versionJson = "\"databaseVersion\": " + MainApplication.DATABASE_VERSION;
+                String versionLastJson = exportJson.replaceFirst("\"databaseVersion\"\\s*:\\s*\\d+\\s*,", "");
+                assertNotEquals(exportJson, versionLastJson);
+                int endIndex = versionLastJson.lastIndexOf('}');
+                versionLastJson = versionLastJson.substring(0, endIndex) + ", " + versionJson + "}";
+                File versionLastFile = getTempFile("merge-version-last-moved.json");
+                writeFile(versionLastFile, versionLastJson);
+
+                // Change a coin, so that the merge has something to update
+                CoinSlot changedCoin = dbAdapter.getCoinList(changedName, false).get(0);
+                dbAdapter.toggleInCollection(changedName, changedCoin);
+                ArrayList<CollectionMergeResult> mergeResults = new ArrayList<>();
+                InputStream inputStream = openInputStream(versionLastFile);
+                assertEquals("", helper.mergeCollectionsFromJson(inputStream, false, mergeResults));
+                closeStream(inputStream);
+                assertEquals(exportedCollectionNames.size(), mergeResults.size());
+                assertEquals(1, mergeResults.get(0).getNumUpdated());
+                assertEquals(changedCoin.isInCollection(),
+                        dbAdapter.getCoinList(changedName, false).get(0).isInCollection());
+
+                // A file with a reserved collection name fails after the first collection has
+                // been merged, and none of the changes are kept
+                dbAdapter.toggleInCollection(changedName, changedCoin);
+                dbAdapter.dropCollectionTable(droppedName);
+                ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> beforeCoinLists = getCoinSlotListsFromCollectionNames(dbAdapter, beforeCollectionNames);
+                File reservedNameFile = getTempFile("merge-reserved-name.json");
+                writeFile(reservedNameFile, exportJson.replace("\"" + droppedName + "\"", "\"collection_info\""));
+                inputStream = openInputStream(reservedNameFile);
+                assertNotEquals("", helper.mergeCollectionsFromJson(inputStream, false, new ArrayList<>()));
+                closeStream(inputStream);
+                assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                compareListOfCoinSlotLists(beforeCoinLists,
+                        getCoinSlotListsFromCollectionNames(dbAdapter, beforeCollectionNames), true);
+
+                // Files without a database version can't be merged
+                File noVersionFile = getTempFile("merge-no-version.json");
+                writeFile(noVersionFile, exportJson.replaceFirst("\"databaseVersion\"\\s*:\\s*\\d+\\s*,", ""));
+                inputStream = openInputStream(noVersionFile);
+                assertEquals(activity.mRes.getString(R.string.error_merge_no_version),
+                        helper.mergeCollectionsFromJson(inputStream, false, new ArrayList<>()));
+                closeStream(inputStream);
+            });
+        }
+    }
+
+    /**
+     * Test that a merge matches coins after the collection's sort orders have been rebalanced,
+     * that copies of the same coin are matched in order, and that inserted coins get sort
+     * orders that don't collide with the existing coins
+     */
+    @Test
+    public void test_mergeImportJsonAfterRebalance() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                DatabaseAdapter dbAdapter = activity.mDbAdapter;
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, dbAdapter);
+                String name = getCollectionNames(activity).get(0);
+                ArrayList<CoinSlot> coinList = dbAdapter.getCoinList(name, true, true);
+                assertTrue(coinList.size() > 2);
+
+                // Add a second copy of the first coin to the end of the collection
+                CoinSlot firstCoin = coinList.get(0);
+                CoinSlot copiedCoin = firstCoin.copy(firstCoin.getIdentifier(), firstCoin.getMint(), false);
+                copiedCoin.setSortOrder(dbAdapter.getNextCoinSortOrder(name));
+                dbAdapter.addCoinSlotToCollection(copiedCoin, name, true, coinList.size() + 1);
+                ArrayList<CoinSlot> exportedCoinList = dbAdapter.getCoinList(name, true, true);
+
+                File exportFile = getTempFile("merge-rebalance.json");
+                OutputStream outputStream = openOutputStream(exportFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+
+                // Rebalance, so none of the sort orders match the export, then change the copy
+                // and remove a coin
+                dbAdapter.rebalanceCoinSortOrders(name);
+                ArrayList<CoinSlot> rebalancedCoinList = dbAdapter.getCoinList(name, true, true);
+                assertNotEquals(exportedCoinList.get(1).getSortOrder(), rebalancedCoinList.get(1).getSortOrder());
+                dbAdapter.toggleInCollection(name, rebalancedCoinList.get(rebalancedCoinList.size() - 1));
+                CoinSlot removedCoin = rebalancedCoinList.get(1);
+                dbAdapter.removeCoinSlotFromCollection(removedCoin, name, rebalancedCoinList.size() - 1);
+
+                // Only the copy is updated and the removed coin is added back
+                ArrayList<CollectionMergeResult> mergeResults = new ArrayList<>();
+                InputStream inputStream = openInputStream(exportFile);
+                assertEquals("", helper.mergeCollectionsFromJson(inputStream, false, mergeResults));
+                closeStream(inputStream);
+                CollectionMergeResult mergeResult = mergeResults.get(0);
+                assertEquals(name, mergeResult.getName());
+                assertEquals(1, mergeResult.getNumInserted());
+                assertEquals(1, mergeResult.getNumUpdated());
+
+                ArrayList<CoinSlot> mergedCoinList = dbAdapter.getCoinList(name, true, true);
+                assertEquals(exportedCoinList.size(), mergedCoinList.size());
+                assertEquals(firstCoin.isInCollection(), mergedCoinList.get(0).isInCollection());
+                CoinSlot mergedCopy = mergedCoinList.get(mergedCoinList.size() - 2);
+                assertEquals(firstCoin.getIdentifier(), mergedCopy.getIdentifier());
+                assertEquals(firstCoin.isInCollection(), mergedCopy.isInCollection());
+                CoinSlot insertedCoin = mergedCoinList.get(mergedCoinList.size() - 1);
+                assertEquals(removedCoin.getIdentifier(), insertedCoin.getIdentifier());
+                assertEquals(removedCoin.getMint(), insertedCoin.getMint());
+                HashSet<Integer> sortOrders = new HashSet<>();
+                for (CoinSlot coinSlot : mergedCoinList) {
+                    assertTrue(sortOrders.add(coinSlot.getSortOrder()));
+                }
+
+                // Merging again doesn't change anything
+                mergeResults = new ArrayList<>();
+                inputStream = openInputStream(exportFile);
+                assertEquals("", helper.mergeCollectionsFromJson(inputStream, false, mergeResults));
+                closeStream(inputStream);
+                for (CollectionMergeResult result : mergeResults) {
+                    assertEquals(0, result.getNumChanged());
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes a string to a file
+     *
+     * @param file     file to write
+     * @param contents contents to write
+     */
+    private void writeFile(File file, String contents) {
+        try {
+            Files.write(file.toPath(), contents.getBytes(JSON_CHARSET));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Test exporting compressed JSON, CSV and snapshot files, and that the import detects the
+     * compression and the file type from the file contents. Prints the size and time compared
+     * with the uncompressed formats.
+     */
+    @Test
+    public void test_compressedExportImport() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> beforeCoinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, beforeCollectionNames);
+
+                int[] compressions = new int[]{COMPRESSION_NONE, COMPRESSION_GZIP, COMPRESSION_ZIP};
+                byte[][] magicBytes = new byte[][]{null, {(byte) 0x1f, (byte) 0x8b}, {'P', 'K', 3, 4}};
+                for (String format : new String[]{"json", "csv", "snapshot"}) {
+                    long uncompressedSize = 0;
+                    for (int i = 0; i < compressions.length; i++) {
+                        // The file names don't say what's inside, so the import must detect it
+                        String name = format + "-compression-" + compressions[i];
+                        ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                        helper.setExportCompression(compressions[i]);
+
+                        // Export and check the file header
+                        File exportFile = getTempFile(name);
+                        OutputStream outputStream = openOutputStream(exportFile);
+                        long startTime = System.nanoTime();
+                        String result;
+                        if (format.equals("csv")) {
+                            result = helper.exportCollectionsToSingleCSV(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                        } else if (format.equals("snapshot")) {
+                            result = helper.exportCollectionsToSnapshot(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                        } else {
+                            result = helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                        }
+                        assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME), result);
+                        long exportMs = (System.nanoTime() - startTime) / 1000000;
+                        closeStream(outputStream);
+                        if (magicBytes[i] != null) {
+                            byte[] header = new byte[magicBytes[i].length];
+                            try (InputStream headerStream = openInputStream(exportFile)) {
+                                assertEquals(header.length, headerStream.read(header));
+                            } catch (IOException e) {
+                                fail(e.getMessage());
+                            }
+                            assertArrayEquals(magicBytes[i], header);
+                            // Snapshots are already compact, so only the text formats must shrink
+                            if (!format.equals("snapshot")) {
+                                assertTrue(exportFile.length() < uncompressedSize);
+                            }
+                        } else {
+                            uncompressedSize = exportFile.length();
+                        }
+
+                        // Import and check results
+                        deleteAllCollections(activity);
+                        InputStream inputStream = openInputStream(exportFile);
+                        startTime = System.nanoTime();
+                        assertEquals("", helper.importCollectionsFromFile(inputStream));
+                        long importMs = (System.nanoTime() - startTime) / 1000000;
+                        closeStream(inputStream);
+                        ArrayList<String> afterCollectionNames = getCollectionNames(activity);
+                        assertEquals(beforeCollectionNames, afterCollectionNames);
+                        compareListOfCoinSlotLists(beforeCoinLists,
+                                getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames), true);
+
+                        System.out.println("Export " + name + ": " + exportFile.length() + " bytes, export "
+                                + exportMs + " ms, import " + importMs + " ms");
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that JSON export and import report progress for each collection
+     */
+    @Test
+    public void test_jsonExportImportProgress() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                int numCollections = getCollectionNames(activity).size();
+
+                // Use a zero report interval so every update is reported
+                ArrayList<ProgressReporter.Progress> reports = new ArrayList<>();
+                ProgressReporter exportReporter = new ProgressReporter(reports::add, 0);
+                File exportFile = getTempFile("json-progress.json");
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                helper.setProgressReporter(exportReporter);
+                OutputStream outputStream = openOutputStream(exportFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                ProgressReporter.Progress exportProgress = exportReporter.getProgress();
+                assertEquals(numCollections, exportProgress.mCollectionsDone);
+                assertEquals(numCollections, exportProgress.mCollectionsTotal);
+                assertTrue(exportProgress.mRowsDone > 0);
+                assertTrue(exportProgress.mBytesDone > 0);
+                assertTrue(reports.size() >= numCollections);
+
+                reports.clear();
+                ProgressReporter importReporter = new ProgressReporter(reports::add, 0);
+                helper.setProgressReporter(importReporter);
+                InputStream inputStream = openInputStream(exportFile);
+                assertEquals("", helper.importCollectionsFromJson(inputStream));
+                closeStream(inputStream);
+                ProgressReporter.Progress importProgress = importReporter.getProgress();
+                assertEquals(numCollections, importProgress.mCollectionsDone);
+                assertEquals(exportProgress.mRowsDone, importProgress.mRowsDone);
+                assertEquals(exportFile.length(), importProgress.mBytesDone);
+                assertTrue(reports.size() >= numCollections);
+
+                // With the default interval, far fewer reports are sent than updates made
+                reports.clear();
+                ProgressReporter throttledReporter = new ProgressReporter(reports::add);
+                throttledReporter.setCollectionsTotal(1000);
+                for (int i = 0; i < 1000; i++) {
+                    throttledReporter.addCollectionDone(1);
+                }
+                assertTrue(reports.size() < 10);
+            });
+        }
+    }
+
+    /**
+     * Test that exports serialized in parallel are byte-identical to sequential exports
+     */
+    @Test
+    public void test_parallelExportMatchesSequential() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                int numCollections = getCollectionNames(activity).size();
+                int[] threadCounts = new int[]{1, 4};
+                File[] jsonFiles = new File[threadCounts.length];
+                File[] csvFiles = new File[threadCounts.length];
+
+                for (int i = 0; i < threadCounts.length; i++) {
+                    int numThreads = threadCounts[i];
+                    ProgressReporter reporter = new ProgressReporter(null);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    helper.setExportThreads(numThreads);
+                    helper.setProgressReporter(reporter);
+                    jsonFiles[i] = getTempFile("parallel-" + numThreads + ".json");
+                    OutputStream outputStream = openOutputStream(jsonFiles[i]);
+                    helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                    closeStream(outputStream);
+                    assertEquals(numCollections, reporter.getProgress().mCollectionsDone);
+
+                    csvFiles[i] = getTempFile("parallel-" + numThreads + ".csv");
+                    outputStream = openOutputStream(csvFiles[i]);
+                    helper.exportCollectionsToSingleCSV(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                    closeStream(outputStream);
+                }
+
+                try {
+                    assertArrayEquals(Files.readAllBytes(jsonFiles[0].toPath()), Files.readAllBytes(jsonFiles[1].toPath()));
+                    assertArrayEquals(Files.readAllBytes(csvFiles[0].toPath()), Files.readAllBytes(csvFiles[1].toPath()));
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that exporting, importing and exporting again produces byte-identical files, for
+     * the formats where coins are streamed to and from the database
+     */
+    @Test
+    public void test_exportImportRoundTripIsByteIdentical() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+
+                // JSON
+                File jsonFile = getTempFile("round-trip.json");
+                OutputStream outputStream = openOutputStream(jsonFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                InputStream inputStream = openInputStream(jsonFile);
+                assertEquals("", helper.importCollectionsFromJson(inputStream));
+                closeStream(inputStream);
+                File checkJsonFile = getTempFile("round-trip-check.json");
+                outputStream = openOutputStream(checkJsonFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+
+                // Single CSV file
+                File csvFile = getTempFile("round-trip.csv");
+                outputStream = openOutputStream(csvFile);
+                helper.exportCollectionsToSingleCSV(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                inputStream = openInputStream(csvFile);
+                assertEquals("", helper.importCollectionsFromSingleCSV(inputStream));
+                closeStream(inputStream);
+                File checkCsvFile = getTempFile("round-trip-check.csv");
+                outputStream = openOutputStream(checkCsvFile);
+                helper.exportCollectionsToSingleCSV(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+
+                // Snapshot, checked by exporting the restored collections to JSON
+                File snapshotFile = getTempFile("round-trip" + SNAPSHOT_FILE_EXT);
+                outputStream = openOutputStream(snapshotFile);
+                helper.exportCollectionsToSnapshot(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                inputStream = openInputStream(snapshotFile);
+                assertEquals("", helper.importCollectionsFromSnapshot(inputStream));
+                closeStream(inputStream);
+                File snapshotJsonFile = getTempFile("round-trip-snapshot.json");
+                outputStream = openOutputStream(snapshotJsonFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+
+                try {
+                    assertArrayEquals(Files.readAllBytes(jsonFile.toPath()), Files.readAllBytes(checkJsonFile.toPath()));
+                    assertArrayEquals(Files.readAllBytes(csvFile.toPath()), Files.readAllBytes(checkCsvFile.toPath()));
+                    assertArrayEquals(Files.readAllBytes(jsonFile.toPath()), Files.readAllBytes(snapshotJsonFile.toPath()));
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that a JSON import that fails partway through leaves the existing collections intact
+     */
+    @Test
+    public void test_jsonImportFailureKeepsExistingCollections() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ArrayList<String> collectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> coinLists = new ArrayList<>();
+                for (String name : collectionNames) {
+                    coinLists.add(activity.mDbAdapter.getCoinList(name, true));
+                }
+
+                // Export, then truncate the file so the import fails after some collections are parsed
+                File exportFile = getTempFile("json-truncated.json");
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                OutputStream outputStream = openOutputStream(exportFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                try (RandomAccessFile file = new RandomAccessFile(exportFile, "rw")) {
+                    file.setLength(file.length() * 3 / 4);
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+
+                InputStream inputStream = openInputStream(exportFile);
+                assertNotEquals("", helper.importCollectionsFromJson(inputStream));
+                closeStream(inputStream);
+                assertEquals(collectionNames, getCollectionNames(activity));
+                for (int i = 0; i < collectionNames.size(); i++) {
+                    compareCoinSlotLists(coinLists.get(i), activity.mDbAdapter.getCoinList(collectionNames.get(i), true), true);
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that imports which fail while the collections are being written, or while they're
+     * being upgraded, leave the existing collections unchanged
+     */
+    @Test
+    public void test_importFailureInjection() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ArrayList<String> collectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> coinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, collectionNames);
+                int numCollections = collectionNames.size();
+
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                File jsonFile = getTempFile("failure.json");
+                OutputStream outputStream = openOutputStream(jsonFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                File csvFile = getTempFile("failure.csv");
+                outputStream = openOutputStream(csvFile);
+                helper.exportCollectionsToSingleCSV(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                File snapshotFile = getTempFile("failure" + SNAPSHOT_FILE_EXT);
+                outputStream = openOutputStream(snapshotFile);
+                helper.exportCollectionsToSnapshot(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+
+                // Fail after the first, a middle and the last collection is written
+                String errorImport = activity.mRes.getString(R.string.error_import);
+                int[] failAtCollections = new int[]{1, numCollections / 2, numCollections};
+                for (int failAtCollection : failAtCollections) {
+                    for (File file : new File[]{jsonFile, csvFile, snapshotFile}) {
+                        helper.setProgressReporter(new FailingProgressReporter(failAtCollection));
+                        assertEquals(errorImport, importFile(helper, file));
+                        assertEquals(collectionNames, getCollectionNames(activity));
+                        compareListOfCoinSlotLists(coinLists,
+                                getCoinSlotListsFromCollectionNames(activity.mDbAdapter, collectionNames), true);
+                    }
+                }
+
+                // Fail while upgrading the collections from an older backup
+                File oldFile = new File("src/test/data/coin-collection-010822-16.json");
+                int numOldCollections = 11;
+                helper.setProgressReporter(new FailingProgressReporter(numOldCollections + 2));
+                assertEquals(errorImport, importFile(helper, oldFile));
+                assertEquals(collectionNames, getCollectionNames(activity));
+                compareListOfCoinSlotLists(coinLists,
+                        getCoinSlotListsFromCollectionNames(activity.mDbAdapter, collectionNames), true);
+
+                // Imports still work after the failures
+                helper.setProgressReporter(new ProgressReporter(null));
+                assertEquals("", importFile(helper, oldFile));
+                assertEquals(numOldCollections, getCollectionNames(activity).size());
+                assertEquals("", importFile(helper, snapshotFile));
+                assertEquals(collectionNames, getCollectionNames(activity));
+            });
+        }
+    }
+
+    /**
+     * Imports a file, using the import method for its file extension
+     *
+     * @param helper helper to import with
+     * @param file   file to import
+     * @return "" if successful, otherwise an error message
+     */
+    private String importFile(ExportImportHelper helper, File file) {
+        InputStream inputStream = openInputStream(file);
+        String result;
+        if (file.getName().endsWith(".csv")) {
+            result = helper.importCollectionsFromSingleCSV(inputStream);
+        } else if (file.getName().endsWith(SNAPSHOT_FILE_EXT)) {
+            result = helper.importCollectionsFromSnapshot(inputStream);
+        } else {
+            result = helper.importCollectionsFromJson(inputStream);
+        }
+        closeStream(inputStream);
+        return result;
+    }
+
+    /**
+     * Progress reporter that throws a database error once a given number of collections have
+     * been processed, which is used to inject failures partway through an import
+     */
+    private static class FailingProgressReporter extends ProgressReporter {
+        private final int mFailAtCollection;
+        private int mNumCollectionsDone = 0;
+
+        FailingProgressReporter(int failAtCollection) {
+            super(null);
+            mFailAtCollection = failAtCollection;
+        }
+
+        @Override
+        public void addCollectionDone(int numRows) {
+            super.addCollectionDone(numRows);
+            if (++mNumCollectionsDone == mFailAtCollection) {
+                throw new SQLException("Injected failure");
+            }
+        }
+    }
+
     /**
      * Test exporting one of each collection type using single-file CSV format
      */
@@ -383,14 +1076,243 @@ public class ExportImportTests extends BaseTestCase {
     }
 
     /**
-     * Test importing a saved collection
+     * Test that running the collection list info snapshot export -> import work
+     */
+    @Test
+    public void test_snapshotExportImportMethods() {
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        coinList.add(new CoinSlot(0, "2001", "", true, 3, 2, "Notes \u00e9\u4e2d", 0, false, -1));
+        coinList.add(new CoinSlot(0, "2001", "D", false, 0, 0, "", 1024, true, 7));
+        coinList.add(new CoinSlot(0, "2002", "D", true, 0, 1, "", -5, false, 0));
+        for (CollectionListInfo info : COLLECTION_LIST_INFO_SCENARIOS) {
+            DatabaseAdapter fakeDbAdapter = mock(DatabaseAdapter.class);
+            when(fakeDbAdapter.fetchTableDisplay(anyString())).thenReturn(info.getDisplayType());
+            byte[] block = BackupSnapshot.encodeCollection(info, fakeDbAdapter, coinList);
+            try {
+                ArrayList<CoinSlot> checkCoinList = new ArrayList<>();
+                CollectionListInfo checkInfo = BackupSnapshot.decodeCollection(block, checkCoinList);
+                compareCollectionListInfos(info, checkInfo);
+                compareCoinSlotLists(coinList, checkCoinList, true);
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Test exporting and importing one of each collection type using the binary snapshot
+     * format, and that other files are rejected without changing the database
+     */
+    @Test
+    public void test_snapshotExportOneOfEachCollection() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> beforeCoinLists = getCoinSlotListsFromCollectionNames(activity.mDbAdapter, beforeCollectionNames);
+
+                // Export
+                File exportFile = getTempFile("snapshot-export" + SNAPSHOT_FILE_EXT);
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                OutputStream outputStream = openOutputStream(exportFile);
+                assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                        helper.exportCollectionsToSnapshot(outputStream, LEGACY_EXPORT_FOLDER_NAME));
+                closeStream(outputStream);
+
+                // A JSON file isn't a valid snapshot
+                File jsonFile = getTempFile("snapshot-export.json");
+                outputStream = openOutputStream(jsonFile);
+                helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                InputStream inputStream = openInputStream(jsonFile);
+                assertNotEquals("", helper.importCollectionsFromSnapshot(inputStream));
+                closeStream(inputStream);
+                assertEquals(beforeCollectionNames, getCollectionNames(activity));
+
+                // Delete all collections, then import and check results
+                deleteAllCollections(activity);
+                assertEquals(0, getCollectionNames(activity).size());
+                inputStream = openInputStream(exportFile);
+                assertEquals("", helper.importCollectionsFromSnapshot(inputStream));
+                closeStream(inputStream);
+                ArrayList<String> afterCollectionNames = getCollectionNames(activity);
+                assertEquals(beforeCollectionNames, afterCollectionNames);
+                compareListOfCoinSlotLists(beforeCoinLists,
+                        getCoinSlotListsFromCollectionNames(activity.mDbAdapter, afterCollectionNames), true);
+                assertTrue(exportFile.length() < jsonFile.length());
+            });
+        }
+    }
+
+    /**
+     * Test that a snapshot with a damaged block length is rejected without changing the
+     * database, instead of attempting a negative or huge allocation
+     */
+    @Test
+    public void test_snapshotInvalidBlockLength() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+
+                // Full snapshot header with one collection, followed by block lengths of -1
+                // and Integer.MAX_VALUE encoded as varints
+                byte[][] badLengths = {
+                        {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f},
+                        {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07}};
+                for (byte[] badLength : badLengths) {
+                    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+                    snapshot.write('C');
+                    snapshot.write('C');
+                    snapshot.write('S');
+                    snapshot.write('N');
+                    snapshot.write(BackupSnapshot.FORMAT_VERSION);
+                    snapshot.write(MainApplication.DATABASE_VERSION);
+                    snapshot.write(BackupSnapshot.TYPE_FULL);
+                    snapshot.write(0);
+                    snapshot.write(1);
+                    snapshot.write(badLength, 0, badLength.length);
+                    InputStream inputStream = new ByteArrayInputStream(snapshot.toByteArray());
+                    assertNotEquals("", helper.importCollectionsFromSnapshot(inputStream));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that differential snapshots only contain the changed collections, and that a full
+     * snapshot plus a chain of differential snapshots restores the database
+     */
+    @Test
+    public void test_differentialSnapshotChain() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                assertTrue(setEnabledPermissions(activity));
+                assertTrue(setupOneOfEachCollectionTypes(activity));
+                DatabaseAdapter dbAdapter = activity.mDbAdapter;
+                ExportImportHelper helper = new ExportImportHelper(activity.mRes, dbAdapter);
+                ArrayList<String> names = getCollectionNames(activity);
+
+                // Full snapshot
+                File baseFile = getTempFile("base" + SNAPSHOT_FILE_EXT);
+                OutputStream outputStream = openOutputStream(baseFile);
+                helper.exportCollectionsToSnapshot(outputStream, LEGACY_EXPORT_FOLDER_NAME);
+                closeStream(outputStream);
+                int baseChangeSeq = getSnapshotChangeSeq(helper, baseFile);
+                assertEquals(baseChangeSeq, helper.getLastSnapshotChangeSeq());
+                assertEquals(0, dbAdapter.getCollectionsChangedSince(baseChangeSeq).size());
+
+                // Change a coin and delete a collection. Toggling coins only advances the
+                // change sequence once per update.
+                CoinSlot coinSlot = dbAdapter.getCoinList(names.get(0), true).get(0);
+                assertTrue(dbAdapter.updateInCollection(names.get(0), coinSlot.getDatabaseId(), !coinSlot.isInCollection()));
+                assertEquals(baseChangeSeq + 1, dbAdapter.fetchChangeSequence());
+                assertFalse(dbAdapter.updateInCollection(names.get(0), coinSlot.getDatabaseId(), !coinSlot.isInCollection()));
+                assertEquals(baseChangeSeq + 1, dbAdapter.fetchChangeSequence());
+                dbAdapter.dropCollectionTable(names.get(1));
+                assertEquals(Collections.singletonList(names.get(0)), dbAdapter.getCollectionsChangedSince(baseChangeSeq));
+                File delta1File = getTempFile("delta1" + SNAPSHOT_FILE_EXT);
+                outputStream = openOutputStream(delta1File);
+                assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                        helper.exportDifferentialSnapshot(outputStream, LEGACY_EXPORT_FOLDER_NAME, baseChangeSeq));
+                closeStream(outputStream);
+                int delta1ChangeSeq = getSnapshotChangeSeq(helper, delta1File);
+                assertTrue(delta1File.length() < baseFile.length());
+
+                // Rename a collection, add a new one and reorder two others
+                String renamedName = names.get(2) + " Renamed";
+                dbAdapter.updateCollectionName(names.get(2), renamedName);
+                ArrayList<CoinSlot> copyCoinList = dbAdapter.getCoinList(names.get(3), true);
+                ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+                dbAdapter.getAllTables(collectionListEntries);
+                CollectionListInfo copyInfo = collectionListEntries.get(2).copy("New Collection");
+                dbAdapter.createAndPopulateNewTable(copyInfo, names.size(), copyCoinList);
+                dbAdapter.updateDisplayOrder(names.get(3), 5);
+                dbAdapter.updateDisplayOrder(names.get(5), 3);
+                assertEquals(2, dbAdapter.getCollectionsChangedSince(delta1ChangeSeq).size());
+                File delta2File = getTempFile("delta2" + SNAPSHOT_FILE_EXT);
+                outputStream = openOutputStream(delta2File);
+                helper.exportDifferentialSnapshot(outputStream, LEGACY_EXPORT_FOLDER_NAME, delta1ChangeSeq);
+                closeStream(outputStream);
+                int delta2ChangeSeq = getSnapshotChangeSeq(helper, delta2File);
+                assertEquals(delta2ChangeSeq, helper.getLastSnapshotChangeSeq());
+
+                // The chain order is worked out from the snapshots themselves
+                try {
+                    assertArrayEquals(new int[]{1, 2, 0}, helper.getSnapshotChainOrder(Arrays.asList(
+                            openInputStream(delta2File), openInputStream(baseFile), openInputStream(delta1File))));
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+                try {
+                    helper.getSnapshotChainOrder(Arrays.asList(openInputStream(baseFile), openInputStream(delta2File)));
+                    fail("A chain with a missing snapshot should be rejected");
+                } catch (IOException ignored) {
+                }
+
+                ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                ArrayList<ArrayList<CoinSlot>> beforeCoinLists = getCoinSlotListsFromCollectionNames(dbAdapter, beforeCollectionNames);
+
+                // Deltas can't be restored out of order or without the base snapshot
+                List<InputStream> inputStreams = Arrays.asList(openInputStream(baseFile), openInputStream(delta2File));
+                assertNotEquals("", helper.restoreSnapshotChain(inputStreams));
+                assertNotEquals("", helper.importCollectionsFromSnapshot(openInputStream(delta1File)));
+                assertEquals(beforeCollectionNames, getCollectionNames(activity));
+
+                // Restore the chain and check results
+                deleteAllCollections(activity);
+                inputStreams = Arrays.asList(openInputStream(baseFile), openInputStream(delta1File),
+                        openInputStream(delta2File));
+                assertEquals("", helper.restoreSnapshotChain(inputStreams));
+                ArrayList<String> afterCollectionNames = getCollectionNames(activity);
+                assertEquals(beforeCollectionNames, afterCollectionNames);
+                compareListOfCoinSlotLists(beforeCoinLists,
+                        getCoinSlotListsFromCollectionNames(dbAdapter, afterCollectionNames), true);
+
+                // The database has changed more than the snapshots, so the restored collections
+                // are all included in the next differential snapshot
+                assertTrue(dbAdapter.fetchChangeSequence() > delta2ChangeSeq);
+                assertEquals(afterCollectionNames.size(), dbAdapter.getCollectionsChangedSince(delta2ChangeSeq).size());
+            });
+        }
+    }
+
+    /**
+     * Reads the change sequence number from a snapshot file
+     *
+     * @param helper helper to read with
+     * @param file   snapshot file
+     * @return change sequence number
+     */
+    private int getSnapshotChangeSeq(ExportImportHelper helper, File file) {
+        InputStream inputStream = openInputStream(file);
+        try {
+            return helper.getSnapshotChangeSeq(inputStream);
+        } catch (IOException e) {
+            fail(e.getMessage());
+            return -1;
+        } finally {
+            closeStream(inputStream);
+        }
+    }
+
+    /**
+     * Test importing a saved collection, and that the collections are upgraded from the
+     * version they were saved with
      */
     @Test
     public void test_importSavedFiles() {
         Object[][] testFiles = {
-                {"src/test/data/coin-collection-010822-16.json", 11},
-                {"src/test/data/coin-collection-010822-17.csv", 11},
-                {"src/test/data/coin-collection-010822-17-excel.csv", 11},
+                {"src/test/data/coin-collection-010822-16.json", 11, 16},
+                {"src/test/data/coin-collection-010822-17.csv", 11, 17},
+                {"src/test/data/coin-collection-010822-17-excel.csv", 11, 17},
         };
         try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
                 new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
@@ -407,6 +1329,10 @@ public class ExportImportTests extends BaseTestCase {
                     }
                     ArrayList<String> afterCollectionNames = getCollectionNames(activity);
                     assertEquals((int) testFile[1], afterCollectionNames.size());
+                    DatabaseUpgradeStats stats = DatabaseHelper.getLastUpgradeStats();
+                    assertNotNull(stats);
+                    assertEquals((int) testFile[2], stats.getOldVersion());
+                    assertEquals(MainApplication.DATABASE_VERSION, stats.getNewVersion());
                     closeStream(inputStream);
                 }
             });
@@ -24,14 +24,17 @@ import static com.spencerpages.SharedTest.COLLECTION_LIST_INFO_SCENARIOS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
 import android.content.Intent;
+import android.database.SQLException;
 
 import androidx.test.core.app.ActivityScenario;
 import androidx.test.core.app.ApplicationProvider;
 
 import com.coincollection.CollectionInfo;
 import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseAdapter;
 import com.coincollection.MainActivity;
 import com.coincollection.ReorderAdapter;
 import com.coincollection.ReorderCollections;
@@ -42,6 +45,7 @@ import org.robolectric.RobolectricTestRunner;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Locale;
 
 @RunWith(RobolectricTestRunner.class)
 public class MainActivityTests extends BaseTestCase {
@@ -95,6 +99,84 @@ public class MainActivityTests extends BaseTestCase {
         }
     }
 
+    /**
+     * Test that collection name checks stay correct as collections are added, renamed,
+     * removed and rolled back
+     */
+    @Test
+    public void test_collectionNameRegistry() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.onActivity(activity -> {
+                DatabaseAdapter dbAdapter = activity.mDbAdapter;
+                FullCollection collection = getRandomTestScenarios(MainApplication.COLLECTION_TYPES[0], 1).get(0);
+                String collectionName = collection.mCollectionListInfo.getName();
+                assertEquals(-1, dbAdapter.checkCollectionName(collectionName));
+
+                // Reserved names are checked ignoring case
+                assertEquals(R.string.collection_name_reserved, dbAdapter.checkCollectionName("collection_info"));
+                assertEquals(R.string.collection_name_reserved, dbAdapter.checkCollectionName("COLLECTION_INFO"));
+                assertEquals(R.string.collection_name_reserved, dbAdapter.checkCollectionName("Change_Sequence"));
+
+                // Added collections
+                dbAdapter.createAndPopulateNewTable(collection.mCollectionListInfo,
+                        collection.mDisplayOrder, collection.mCoinList);
+                assertEquals(R.string.collection_name_exists, dbAdapter.checkCollectionName(collectionName));
+                assertEquals(R.string.collection_name_exists, dbAdapter.checkCollectionName(collectionName.toUpperCase(Locale.getDefault())));
+
+                // Renamed collections
+                String newName = collectionName + " Renamed";
+                dbAdapter.updateCollectionName(collectionName, newName);
+                assertEquals(-1, dbAdapter.checkCollectionName(collectionName));
+                assertEquals(R.string.collection_name_exists, dbAdapter.checkCollectionName(newName));
+
+                // Copied collections
+                String copyName = newName + " Copy";
+                activity.updateCollectionListFromDatabase();
+                activity.copyCollection(newName);
+                assertEquals(R.string.collection_name_exists, dbAdapter.checkCollectionName(copyName));
+
+                // Collections added in a rolled back transaction
+                String rolledBackName = collectionName + " Rolled Back";
+                try {
+                    dbAdapter.runInTransaction(() -> {
+                        dbAdapter.createAndPopulateNewTable(collection.mCollectionListInfo.copy(rolledBackName),
+                                collection.mDisplayOrder, collection.mCoinList);
+                        assertEquals(R.string.collection_name_exists, dbAdapter.checkCollectionName(rolledBackName));
+                        throw new SQLException();
+                    });
+                    fail();
+                } catch (SQLException ignored) {
+                }
+                assertEquals(-1, dbAdapter.checkCollectionName(rolledBackName));
+
+                // Collections added in a committed transaction
+                String committedName = collectionName + " Committed";
+                dbAdapter.runInTransaction(() -> dbAdapter.createAndPopulateNewTable(
+                        collection.mCollectionListInfo.copy(committedName), collection.mDisplayOrder, collection.mCoinList));
+                assertEquals(R.string.collection_name_exists, dbAdapter.checkCollectionName(committedName));
+
+                // Names are folded the same way regardless of the device language
+                Locale defaultLocale = Locale.getDefault();
+                try {
+                    Locale.setDefault(new Locale("tr", "TR"));
+                    assertEquals(R.string.collection_name_exists, dbAdapter.checkCollectionName(committedName.toUpperCase(Locale.ROOT)));
+                    assertEquals(R.string.collection_name_reserved, dbAdapter.checkCollectionName("COLLECTION_INFO"));
+                } finally {
+                    Locale.setDefault(defaultLocale);
+                }
+
+                // Removed collections
+                dbAdapter.dropCollectionTable(newName);
+                dbAdapter.dropCollectionTable(copyName);
+                dbAdapter.dropCollectionTable(committedName);
+                assertEquals(-1, dbAdapter.checkCollectionName(newName));
+                assertEquals(-1, dbAdapter.checkCollectionName(copyName));
+                assertEquals(-1, dbAdapter.checkCollectionName(committedName));
+            });
+        }
+    }
+
     /**
      * Launch the reorder fragment
      */
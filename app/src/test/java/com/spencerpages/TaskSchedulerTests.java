@@ -0,0 +1,234 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.spencerpages;
+
+import static com.coincollection.TaskScheduler.DEFAULT_NUM_THREADS;
+import static com.coincollection.TaskScheduler.PRIORITY_BULK;
+import static com.coincollection.TaskScheduler.PRIORITY_INTERACTIVE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.coincollection.TaskScheduler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(RobolectricTestRunner.class)
+public class TaskSchedulerTests extends BaseTestCase {
+
+    private final static int TIMEOUT_SECONDS = 10;
+
+    /**
+     * Test that queued interactive tasks run ahead of queued bulk tasks
+     */
+    @Test
+    public void test_interactiveTasksRunFirst() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(DEFAULT_NUM_THREADS);
+        CountDownLatch blockersStarted = new CountDownLatch(DEFAULT_NUM_THREADS);
+        List<CountDownLatch> releaseBlockers = new ArrayList<>();
+        CountDownLatch allDone = new CountDownLatch(3);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        // Occupy every thread so the other tasks queue up
+        for (int i = 0; i < DEFAULT_NUM_THREADS; i++) {
+            CountDownLatch releaseBlocker = new CountDownLatch(1);
+            releaseBlockers.add(releaseBlocker);
+            scheduler.schedule(PRIORITY_BULK, true, token -> {
+                blockersStarted.countDown();
+                awaitLatch(releaseBlocker);
+            });
+        }
+        assertTrue(blockersStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.schedule(PRIORITY_BULK, true, token -> {
+            order.add("bulk");
+            allDone.countDown();
+        });
+        scheduler.schedule(PRIORITY_INTERACTIVE, true, token -> {
+            order.add("interactive1");
+            allDone.countDown();
+        });
+        scheduler.schedule(PRIORITY_INTERACTIVE, true, token -> {
+            order.add("interactive2");
+            allDone.countDown();
+        });
+
+        // Free up one thread, so the queued tasks run one at a time
+        releaseBlockers.get(0).countDown();
+        assertTrue(allDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("interactive1", "interactive2", "bulk"), order);
+        for (CountDownLatch releaseBlocker : releaseBlockers) {
+            releaseBlocker.countDown();
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * Test that an interactive write waits for a running export, and then runs ahead of
+     * bulk tasks that were queued before it
+     */
+    @Test
+    public void test_writeTasksWaitForExport() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(DEFAULT_NUM_THREADS);
+        CountDownLatch exportStarted = new CountDownLatch(1);
+        CountDownLatch releaseExport = new CountDownLatch(1);
+        CountDownLatch allDone = new CountDownLatch(2);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean writeOverlapped = new AtomicBoolean(false);
+
+        scheduler.schedule(PRIORITY_BULK, true, token -> {
+            exportStarted.countDown();
+            awaitLatch(releaseExport);
+        });
+        assertTrue(exportStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.schedule(PRIORITY_BULK, false, token -> {
+            order.add("bulk");
+            allDone.countDown();
+        });
+        scheduler.schedule(PRIORITY_INTERACTIVE, false, token -> {
+            writeOverlapped.set(releaseExport.getCount() != 0);
+            order.add("interactive");
+            allDone.countDown();
+        });
+        assertFalse(allDone.await(200, TimeUnit.MILLISECONDS));
+        releaseExport.countDown();
+
+        assertTrue(allDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(writeOverlapped.get());
+        assertEquals(Arrays.asList("interactive", "bulk"), order);
+        scheduler.shutdown();
+    }
+
+    /**
+     * Test that a write task waits for running read-only tasks and runs on its own, and that
+     * read-only tasks scheduled after it wait for it
+     */
+    @Test
+    public void test_writeTasksRunAlone() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(DEFAULT_NUM_THREADS);
+        CountDownLatch readersRunning = new CountDownLatch(2);
+        CountDownLatch releaseReaders = new CountDownLatch(1);
+        CountDownLatch writeDone = new CountDownLatch(1);
+        CountDownLatch laterDone = new CountDownLatch(1);
+        AtomicBoolean writeOverlapped = new AtomicBoolean(false);
+        AtomicBoolean laterRanFirst = new AtomicBoolean(false);
+
+        for (int i = 0; i < 2; i++) {
+            scheduler.schedule(PRIORITY_BULK, true, token -> {
+                readersRunning.countDown();
+                awaitLatch(releaseReaders);
+            });
+        }
+        // Both readers must be running at the same time for this to complete
+        assertTrue(readersRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        scheduler.schedule(PRIORITY_BULK, false, token -> {
+            writeOverlapped.set(releaseReaders.getCount() != 0);
+            writeDone.countDown();
+        });
+        scheduler.schedule(PRIORITY_BULK, true, token -> {
+            laterRanFirst.set(writeDone.getCount() != 0);
+            laterDone.countDown();
+        });
+        assertFalse(writeDone.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(laterDone.await(0, TimeUnit.MILLISECONDS));
+        releaseReaders.countDown();
+
+        assertTrue(writeDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(laterDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(writeOverlapped.get());
+        assertFalse(laterRanFirst.get());
+        scheduler.shutdown();
+    }
+
+    /**
+     * Test that a task cancelled before it starts isn't run and is told it was cancelled,
+     * that it no longer holds back the tasks behind it, and that a running task sees its
+     * token cancelled
+     */
+    @Test
+    public void test_cancelTasks() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(DEFAULT_NUM_THREADS);
+        CountDownLatch runningStarted = new CountDownLatch(1);
+        CountDownLatch runningStopped = new CountDownLatch(1);
+        CountDownLatch cancelledNotified = new CountDownLatch(1);
+        CountDownLatch laterDone = new CountDownLatch(1);
+        AtomicBoolean cancelledTaskRan = new AtomicBoolean(false);
+
+        TaskScheduler.CancellationToken runningToken = scheduler.schedule(PRIORITY_BULK, true, token -> {
+            runningStarted.countDown();
+            long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+            while (!token.isCancelled() && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            runningStopped.countDown();
+        });
+        assertTrue(runningStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The write task waits for the running task, and holds back the read-only task
+        TaskScheduler.CancellationToken pendingToken = scheduler.schedule(PRIORITY_BULK, false,
+                new TaskScheduler.Task() {
+                    @Override
+                    public void run(TaskScheduler.CancellationToken token) {
+                        cancelledTaskRan.set(true);
+                    }
+
+                    @Override
+                    public void onCancelled() {
+                        cancelledNotified.countDown();
+                    }
+                });
+        scheduler.schedule(PRIORITY_BULK, true, token -> laterDone.countDown());
+        assertFalse(laterDone.await(200, TimeUnit.MILLISECONDS));
+
+        pendingToken.cancel();
+        assertTrue(pendingToken.isCancelled());
+        assertTrue(cancelledNotified.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(laterDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, runningStopped.getCount());
+
+        runningToken.cancel();
+        assertTrue(runningStopped.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        assertFalse(cancelledTaskRan.get());
+    }
+
+    /**
+     * Waits for a latch used to hold a task running
+     *
+     * @param latch latch to wait for
+     */
+    private void awaitLatch(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
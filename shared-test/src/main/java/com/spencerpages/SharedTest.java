@@ -223,8 +223,8 @@ public class SharedTest {
         return (base.getIdentifier().equals(check.getIdentifier()) &&
                 (base.getMint().equals(check.getMint())) &&
                 (base.isInCollection() == check.isInCollection()) &&
-                (!compareAdvInfo || (base.getAdvancedGrades().equals(check.getAdvancedGrades()))) &&
-                (!compareAdvInfo || (base.getAdvancedQuantities().equals(check.getAdvancedQuantities()))) &&
+                (!compareAdvInfo || (base.getAdvancedGrades() == check.getAdvancedGrades())) &&
+                (!compareAdvInfo || (base.getAdvancedQuantities() == check.getAdvancedQuantities())) &&
                 (!compareAdvInfo || (base.getAdvancedNotes().equals(check.getAdvancedNotes()))) &&
                 (!compareNewFields || (base.isCustomCoin() == check.isCustomCoin())) &&
                 (!compareNewFields || (base.getImageId() == check.getImageId())));